@@ -0,0 +1,110 @@
+package edu.berkeley.cs186.database;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * JMH benchmark of loading numRecords rows into an empty table inside one
+ * transaction, a row at a time through Transaction#addRecord (addRecord) or
+ * in one batch through Transaction#addRecords (addRecords). With indexed
+ * set, the table has an index on its int column, whose keys arrive in
+ * random order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AddRecordsBenchmark {
+  private static final String tableName = "bench";
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  @Param({"100000"})
+  public int numRecords;
+
+  private List<List<DataBox>> rows;
+  private File dir;
+  private Database db;
+  private Database.Transaction t;
+
+  @Setup
+  public void setUpTrial() {
+    List<Integer> keys = new ArrayList<>();
+    for (int i = 0; i < this.numRecords; i++) {
+      keys.add(i);
+    }
+    Collections.shuffle(keys, new Random(186));
+    this.rows = new ArrayList<>();
+    for (int key : keys) {
+      this.rows.add(TestUtils.createRecordWithAllTypesWithValue(key).getValues());
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("AddRecordsBenchmark").toFile();
+    this.db = new Database(this.dir.getAbsolutePath());
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    if (this.indexed) {
+      this.db.createTableWithIndices(schema, tableName, Arrays.asList("int"));
+    } else {
+      this.db.createTable(schema, tableName);
+    }
+    this.t = this.db.beginTransaction();
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws Exception {
+    long numLoaded = this.t.getNumRecords(tableName);
+    this.t.end();
+    this.db.deleteAllTables();
+    this.db.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+    if (numLoaded != this.numRecords) {
+      throw new IllegalStateException(numLoaded + " records, expected " + this.numRecords);
+    }
+  }
+
+  @Benchmark
+  public Database.Transaction addRecord() throws DatabaseException {
+    for (List<DataBox> values : this.rows) {
+      this.t.addRecord(tableName, values);
+    }
+    return this.t;
+  }
+
+  @Benchmark
+  public Database.Transaction addRecords() throws DatabaseException {
+    this.t.addRecords(tableName, this.rows.iterator());
+    return this.t;
+  }
+}
@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of cache hits: a single LRUCache behind one lock, as
+ * PageAllocator used to use, against BufferPools with a single shard or
+ * sixteen. The cache holds 1024 pages and is filled with a working set of
+ * 768 before measuring, so every lookup is a hit and only the hit path is
+ * timed. All threads share one cache; pass -t to JMH to change the number
+ * of threads from the default of four.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class BufferPoolBenchmark {
+  private static final int cacheSize = 1024;
+  private static final int workingSet = 768;
+
+  /** The cache to measure, as "LRUCache" or "<EvictionPolicy.Type> x<shards>". */
+  @Param({"LRUCache", "LRU x16", "CLOCK x1", "CLOCK x16"})
+  public String cache;
+
+  private File file;
+  private FileChannel fc;
+  private LRUCache<Long, Page> lruCache;
+  private BufferPool pool;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.file = File.createTempFile("BufferPoolBenchmark", ".temp");
+    this.fc = new RandomAccessFile(this.file, "rw").getChannel();
+    Page page = new Page(this.fc, 0, 0, false);
+    if (this.cache.equals("LRUCache")) {
+      this.lruCache = new LRUCache<Long, Page>(cacheSize);
+      for (long i = 0; i < workingSet; i++) {
+        this.lruCache.put(i, page);
+      }
+    } else {
+      String[] config = this.cache.split(" x");
+      this.pool = new BufferPool(Integer.parseInt(config[1]), cacheSize,
+                                 EvictionPolicy.Type.valueOf(config[0]));
+      for (long i = 0; i < workingSet; i++) {
+        this.pool.putIfAbsent(i, page);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    this.fc.close();
+    this.file.delete();
+  }
+
+  @Benchmark
+  public Page hit() {
+    long vPageNum = ThreadLocalRandom.current().nextInt(workingSet);
+    Page page;
+    if (this.lruCache != null) {
+      synchronized (this.lruCache) {
+        page = this.lruCache.get(vPageNum);
+      }
+    } else {
+      page = this.pool.get(vPageNum);
+    }
+    if (page == null) {
+      throw new IllegalStateException("benchmark working set was evicted");
+    }
+    return page;
+  }
+}
@@ -0,0 +1,104 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of what page checksums cost, with each PageStore type.
+ * write opens the file, overwrites every page and closes it, which flushes
+ * every page and records its checksum; scan opens the file and reads every
+ * page through the iterator, which loads and verifies each one. Pages
+ * aren't durable, so this is the CPU and system call cost of the checksums
+ * and not the cost of forcing them to disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageChecksumBenchmark {
+  @Param({"MMAP", "PREAD"})
+  public PageStore.Type store;
+
+  @Param({"false", "true"})
+  public boolean checksums;
+
+  @Param({"8192"})
+  public int numPages;
+
+  private File dir;
+  private String fName;
+  // Page j holds j + round.
+  private int round;
+
+  @Setup
+  public void setUp() throws Exception {
+    PageAllocator.setChecksums(this.checksums);
+    this.dir = Files.createTempDirectory("PageChecksumBenchmark").toFile();
+    this.fName = new File(this.dir, "bench.pages").getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(this.fName, true, false, this.store);
+    for (int j = 0; j < this.numPages; j++) {
+      allocator.fetchPage(allocator.allocPage()).writeInt(0, j);
+    }
+    allocator.close();
+    this.round = 0;
+  }
+
+  @TearDown
+  public void tearDown() {
+    PageAllocator.setChecksums(false);
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public int write() {
+    this.round++;
+    PageAllocator allocator = new PageAllocator(this.fName, false, false, this.store);
+    try {
+      for (int j = 0; j < this.numPages; j++) {
+        allocator.fetchPage(j).writeInt(0, j + this.round);
+      }
+    } finally {
+      allocator.close();
+    }
+    return this.round;
+  }
+
+  @Benchmark
+  public int scan() {
+    PageAllocator allocator = new PageAllocator(this.fName, false, false, this.store);
+    try {
+      Iterator<Page> iter = allocator.iterator();
+      int j = 0;
+      while (iter.hasNext()) {
+        int value = iter.next().readInt(0);
+        if (value != j + this.round) {
+          throw new IllegalStateException("read " + value + ", expected " + (j + this.round));
+        }
+        j++;
+      }
+      return j;
+    } finally {
+      allocator.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of a full scan of a PageAllocator in which only every tenth
+ * page is still allocated. iterator scans through PageIterator; probe calls
+ * fetchPage on every page number and catches the PageException for each
+ * hole, which is what PageIterator used to do. The surviving pages stay in
+ * the buffer pool as long as they fit, so the scans time finding the pages
+ * rather than mapping them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageIteratorBenchmark {
+  @Param({"10000"})
+  public int numPages;
+
+  private File dir;
+  private PageAllocator allocator;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("PageIteratorBenchmark").toFile();
+    this.allocator = new PageAllocator(new File(this.dir, "bench.pages").getAbsolutePath(), true, false);
+    for (int i = 0; i < this.numPages; i++) {
+      this.allocator.allocPage();
+    }
+    for (int i = 0; i < this.numPages; i++) {
+      if (i % 10 != 0) {
+        this.allocator.freePage(i);
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.allocator.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public int iterator() {
+    int found = 0;
+    Iterator<Page> iter = this.allocator.iterator();
+    while (iter.hasNext()) {
+      iter.next();
+      found++;
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int probe() {
+    int found = 0;
+    for (int pageNum = 0; pageNum < this.numPages; pageNum++) {
+      try {
+        this.allocator.fetchPage(pageNum);
+        found++;
+      } catch (PageException e) {
+        // A freed page.
+      }
+    }
+    return found;
+  }
+}
@@ -0,0 +1,92 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the PageStore types on a file larger than the default
+ * buffer pool: scan reads every page through the allocator's iterator, and
+ * lookup fetches one page at random. Each trial writes the file and then
+ * opens it with a fresh PageAllocator, so the buffer pool starts empty but
+ * the OS page cache is warm. Every page read is checked, so the reads can't
+ * be optimized away.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageStoreBenchmark {
+  @Param({"MMAP", "PREAD"})
+  public PageStore.Type store;
+
+  @Param({"8192"})
+  public int numPages;
+
+  private File dir;
+  private PageAllocator allocator;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("PageStoreBenchmark").toFile();
+    String fName = new File(this.dir, "bench.pages").getAbsolutePath();
+    PageAllocator writer = new PageAllocator(fName, true, false);
+    for (int i = 0; i < this.numPages; i++) {
+      writer.fetchPage(writer.allocPage()).writeInt(0, i);
+    }
+    writer.close();
+    this.allocator = new PageAllocator(fName, false, false, this.store);
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.allocator.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int scan() {
+    Iterator<Page> iter = this.allocator.iterator();
+    int expected = 0;
+    while (iter.hasNext()) {
+      check(iter.next().readInt(0), expected++);
+    }
+    return expected;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public int lookup() {
+    int pageNum = ThreadLocalRandom.current().nextInt(this.numPages);
+    int value = this.allocator.fetchPage(pageNum).readInt(0);
+    check(value, pageNum);
+    return value;
+  }
+
+  private static void check(int actual, int expected) {
+    if (actual != expected) {
+      throw new IllegalStateException("read " + actual + ", expected " + expected);
+    }
+  }
+}
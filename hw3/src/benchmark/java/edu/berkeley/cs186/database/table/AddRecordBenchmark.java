@@ -0,0 +1,104 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.PageAllocator;
+
+/**
+ * JMH benchmark of loading a durable table, with the master and header
+ * pages forced on every page allocation (a group commit interval of 0) and
+ * with group commit, where only the background sync and a final sync()
+ * barrier force them. addRecords fills numPages pages of a fresh table
+ * through Table#addRecord; allocPages allocates as many pages straight from
+ * a fresh PageAllocator, to show the metadata forces without the cost of
+ * the records. Both time the closing sync().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AddRecordBenchmark {
+  @Param({"0", "100"})
+  public long groupCommitMillis;
+
+  @Param({"500"})
+  public int numPages;
+
+  private List<DataBox> values;
+  private int numRecords;
+  private File dir;
+  private Table table;
+  private PageAllocator allocator;
+
+  @Setup
+  public void setUpTrial() {
+    PageAllocator.setGroupCommitInterval(this.groupCommitMillis);
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    this.values = TestUtils.createRecordWithAllTypes().getValues();
+    this.numRecords = this.numPages * Table.computeNumRecordsPerPage(4096, schema);
+  }
+
+  @TearDown
+  public void tearDownTrial() {
+    PageAllocator.setGroupCommitInterval(0);
+  }
+
+  @Setup(Level.Iteration)
+  public void setUp() throws Exception {
+    this.dir = Files.createTempDirectory("AddRecordBenchmark").toFile();
+    this.table = new Table("bench", TestUtils.createSchemaWithAllTypes(),
+                           new File(this.dir, "bench.table").getAbsolutePath());
+    this.allocator = new PageAllocator(new File(this.dir, "bench.pages").getAbsolutePath(), true);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    this.table.close();
+    this.allocator.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public long addRecords() throws DatabaseException {
+    for (int i = 0; i < this.numRecords; i++) {
+      this.table.addRecord(this.values);
+    }
+    this.table.getAllocator().sync();
+    return this.table.getNumRecords();
+  }
+
+  @Benchmark
+  public int allocPages() {
+    int pageNum = -1;
+    for (int i = 0; i < this.numPages; i++) {
+      pageNum = this.allocator.allocPage();
+    }
+    this.allocator.sync();
+    return pageNum;
+  }
+}
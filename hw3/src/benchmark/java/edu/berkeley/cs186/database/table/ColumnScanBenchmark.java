@@ -0,0 +1,114 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * JMH benchmark of SUM over one int field of a wide table (two ints, eight
+ * string(40)s and a float) in the BITMAP and PAX formats. records reads
+ * whole records with iterator(); column reads only that field with
+ * columnIterator(). Run it with -prof gc for the bytes each scan allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnScanBenchmark {
+  @Param({"BITMAP", "PAX"})
+  public PageFormat.Type format;
+
+  @Param({"100000"})
+  public int numRecords;
+
+  private File dir;
+  private Table table;
+  private long expected;
+
+  @Setup
+  public void setUp() throws Exception {
+    List<String> names = new ArrayList<>();
+    List<Type> types = new ArrayList<>();
+    names.add("id");
+    types.add(Type.intType());
+    names.add("value");
+    types.add(Type.intType());
+    for (int i = 0; i < 8; i++) {
+      names.add("s" + i);
+      types.add(Type.stringType(40));
+    }
+    names.add("f");
+    types.add(Type.floatType());
+
+    this.dir = Files.createTempDirectory("ColumnScanBenchmark").toFile();
+    File file = new File(this.dir, this.format + Table.FILENAME_EXTENSION);
+    this.table = new Table("bench", new Schema(names, types), file.getAbsolutePath(), this.format);
+    List<DataBox> values = new ArrayList<>();
+    for (int i = 0; i < this.numRecords; i++) {
+      values.clear();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i));
+      for (int j = 0; j < 8; j++) {
+        values.add(new StringDataBox("string " + j + " of record " + i, 40));
+      }
+      values.add(new FloatDataBox(i));
+      this.table.addRecord(values);
+    }
+    this.expected = (long) this.numRecords * (this.numRecords - 1) / 2;
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.table.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public long records() {
+    return sum(this.table.iterator(), 1);
+  }
+
+  @Benchmark
+  public long column() throws DatabaseException {
+    return sum(this.table.columnIterator(1), 0);
+  }
+
+  private long sum(Iterator<Record> records, int field) {
+    long sum = 0;
+    while (records.hasNext()) {
+      sum += records.next().getValues().get(field).getInt();
+    }
+    if (sum != this.expected) {
+      throw new IllegalStateException("sum " + sum + ", expected " + this.expected);
+    }
+    return sum;
+  }
+}
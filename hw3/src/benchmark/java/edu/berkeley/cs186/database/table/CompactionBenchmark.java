@@ -0,0 +1,136 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+
+/**
+ * JMH benchmark of compacting a table after 90% of its records have been
+ * deleted at random. compact calls compactPage until there is nothing left
+ * to compact, on a table rebuilt before every call; scan reads every record
+ * of the sparse table and of the same table once compacted, to show what
+ * compaction buys.
+ */
+@Fork(1)
+public class CompactionBenchmark {
+  /** A table of numRecords records with 90% of them deleted at random. */
+  @State(Scope.Thread)
+  public abstract static class SparseTable {
+    @Param({"200000"})
+    public int numRecords;
+
+    File dir;
+    Table table;
+
+    void build() throws Exception {
+      this.dir = Files.createTempDirectory("CompactionBenchmark").toFile();
+      File file = new File(this.dir, "bench" + Table.FILENAME_EXTENSION);
+      this.table = new Table("bench", TestUtils.createSchemaWithAllTypes(), file.getAbsolutePath());
+      List<DataBox> values = TestUtils.createRecordWithAllTypes().getValues();
+      List<RecordId> rids = new ArrayList<>();
+      for (int i = 0; i < this.numRecords; i++) {
+        values.set(1, new IntDataBox(i));
+        rids.add(this.table.addRecord(values));
+      }
+      Random random = new Random(186);
+      for (RecordId rid : rids) {
+        if (random.nextInt(10) != 0) {
+          this.table.deleteRecord(rid);
+        }
+      }
+    }
+
+    void destroy() {
+      this.table.close();
+      for (File f : this.dir.listFiles()) {
+        f.delete();
+      }
+      this.dir.delete();
+    }
+  }
+
+  /** A sparse table rebuilt for every iteration, since compact empties it. */
+  public static class Sparse extends SparseTable {
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+      build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+      destroy();
+    }
+  }
+
+  /** A sparse table built once per trial, and compacted if compacted is set. */
+  public static class Scanned extends SparseTable {
+    @Param({"false", "true"})
+    public boolean compacted;
+
+    @Setup
+    public void setUp() throws Exception {
+      build();
+      if (this.compacted) {
+        while (this.table.compactPage((record, from, to) -> {})) {}
+      }
+      System.out.printf("%d records on %d data pages%n",
+                        this.table.getNumRecords(), this.table.getNumDataPages());
+    }
+
+    @TearDown
+    public void tearDown() {
+      destroy();
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public int compact(Sparse sparse) throws DatabaseException {
+    int numPages = 0;
+    while (sparse.table.compactPage((record, from, to) -> {})) {
+      numPages++;
+    }
+    return numPages;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, time = 2)
+  @Measurement(iterations = 5, time = 2)
+  public long scan(Scanned scanned) {
+    long count = 0;
+    Iterator<Record> records = scanned.table.iterator();
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    return count;
+  }
+}
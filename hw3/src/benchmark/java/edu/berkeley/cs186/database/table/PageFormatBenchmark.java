@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * JMH benchmark of the BITMAP and SLOTTED page formats on a string-heavy
+ * schema: an int and a string(255) that mostly holds 5 to 15 characters.
+ * load bulk loads an empty table; scan reads every record of a table that
+ * was loaded once per trial and is reopened before each scan. The number of
+ * data pages each format needs is printed when the trial starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PageFormatBenchmark {
+  @Param({"BITMAP", "SLOTTED"})
+  public PageFormat.Type format;
+
+  @Param({"200000"})
+  public int numRecords;
+
+  private Schema schema;
+  private List<List<DataBox>> rows;
+  private File dir;
+  private File loaded;
+  private File empty;
+  private Table table;
+
+  @Setup
+  public void setUpTrial() throws Exception {
+    this.schema = new Schema(Arrays.asList("i", "s"),
+                             Arrays.asList(Type.intType(), Type.stringType(255)));
+    Random random = new Random(186);
+    this.rows = new ArrayList<>();
+    for (int i = 0; i < this.numRecords; i++) {
+      char[] chars = new char[5 + random.nextInt(11)];
+      Arrays.fill(chars, (char) ('a' + random.nextInt(26)));
+      this.rows.add(Arrays.<DataBox>asList(new IntDataBox(i), new StringDataBox(new String(chars), 255)));
+    }
+
+    this.dir = Files.createTempDirectory("PageFormatBenchmark").toFile();
+    this.loaded = new File(this.dir, "loaded" + Table.FILENAME_EXTENSION);
+    this.empty = new File(this.dir, "empty" + Table.FILENAME_EXTENSION);
+    Table table = new Table("loaded", this.schema, this.loaded.getAbsolutePath(), this.format);
+    table.addRecords(this.rows.iterator());
+    table.close();
+    System.out.printf("%s: %d records on %d data pages%n",
+                      this.format, this.numRecords, table.getNumDataPages());
+  }
+
+  @TearDown
+  public void tearDownTrial() {
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Setup(Level.Iteration)
+  public void setUp() throws DatabaseException {
+    this.table = new Table("loaded", this.loaded.getAbsolutePath());
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    this.table.close();
+    this.empty.delete();
+    new File(this.empty.getPath() + Table.METADATA_EXTENSION).delete();
+  }
+
+  @Benchmark
+  public Table load() throws DatabaseException {
+    Table table = new Table("empty", this.schema, this.empty.getAbsolutePath(), this.format);
+    try {
+      table.addRecords(this.rows.iterator());
+    } finally {
+      table.close();
+    }
+    return table;
+  }
+
+  @Benchmark
+  public long scan() {
+    long count = 0;
+    for (Record record : this.table) {
+      count += record.getValues().get(0).getInt() >= 0 ? 1 : 0;
+    }
+    if (count != this.numRecords) {
+      throw new IllegalStateException(count + " records, expected " + this.numRecords);
+    }
+    return count;
+  }
+}
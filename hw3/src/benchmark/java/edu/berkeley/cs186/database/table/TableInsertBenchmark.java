@@ -0,0 +1,97 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * JMH benchmark of Table#addRecord throughput for a narrow schema (one bool,
+ * so thousands of records per page) and a wide one (an int and a 200-byte
+ * string, so about twenty per page). Each iteration starts from a fresh
+ * table of 100000 records: insert appends to it, and refill deletes a record
+ * and inserts one into the hole it left.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableInsertBenchmark {
+  private static final int numFilled = 100000;
+
+  @Param({"narrow", "wide"})
+  public String schema;
+
+  private File dir;
+  private Table table;
+  private List<DataBox> values;
+  private RecordId[] rids;
+  private int next;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws Exception {
+    Schema schema;
+    if (this.schema.equals("narrow")) {
+      schema = new Schema(Arrays.asList("b"), Arrays.asList(Type.boolType()));
+      this.values = Arrays.<DataBox>asList(new BoolDataBox(true));
+    } else {
+      schema = new Schema(Arrays.asList("i", "s"), Arrays.asList(Type.intType(), Type.stringType(200)));
+      this.values = Arrays.<DataBox>asList(new IntDataBox(186), new StringDataBox("wide", 200));
+    }
+    this.dir = Files.createTempDirectory("TableInsertBenchmark").toFile();
+    File file = new File(this.dir, this.schema + Table.FILENAME_EXTENSION);
+    this.table = new Table(this.schema, schema, file.getAbsolutePath());
+    this.rids = new RecordId[numFilled];
+    for (int i = 0; i < numFilled; i++) {
+      this.rids[i] = this.table.addRecord(this.values);
+    }
+    this.next = 0;
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    this.table.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public RecordId insert() throws DatabaseException {
+    return this.table.addRecord(this.values);
+  }
+
+  @Benchmark
+  public RecordId refill() throws DatabaseException {
+    int i = this.next;
+    this.next = (i + 1) % numFilled;
+    this.table.deleteRecord(this.rids[i]);
+    this.rids[i] = this.table.addRecord(this.values);
+    return this.rids[i];
+  }
+}
@@ -0,0 +1,100 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * JMH benchmark of opening an existing table, once it was closed cleanly
+ * (saved, so its metadata file is read) and once it wasn't (the metadata
+ * file is deleted before each open, so every data page is read to rebuild
+ * it). The table is built once per trial, with every seventh record deleted
+ * so that pages aren't all full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TableOpenBenchmark {
+  @Param({"true", "false"})
+  public boolean saved;
+
+  @Param({"500000"})
+  public int numRecords;
+
+  private File dir;
+  private File file;
+  private long expected;
+  private Table table;
+
+  @Setup
+  public void setUpTrial() throws Exception {
+    this.dir = Files.createTempDirectory("TableOpenBenchmark").toFile();
+    this.file = new File(this.dir, "open" + Table.FILENAME_EXTENSION);
+    Schema schema = new Schema(Arrays.asList("i", "s"),
+                               Arrays.asList(Type.intType(), Type.stringType(20)));
+    Table table = new Table("open", schema, this.file.getAbsolutePath());
+    for (int i = 0; i < this.numRecords; i++) {
+      List<DataBox> values = Arrays.<DataBox>asList(new IntDataBox(i), new StringDataBox("open", 20));
+      RecordId rid = table.addRecord(values);
+      if (i % 7 == 0) {
+        table.deleteRecord(rid);
+      }
+    }
+    table.close();
+    this.expected = table.getNumRecords();
+  }
+
+  @TearDown
+  public void tearDownTrial() {
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Setup(Level.Iteration)
+  public void setUp() {
+    if (!this.saved) {
+      new File(this.file.getPath() + Table.METADATA_EXTENSION).delete();
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    this.table.close();
+    if (this.table.getNumRecords() != this.expected) {
+      throw new IllegalStateException(this.table.getNumRecords() + " records, expected " + this.expected);
+    }
+  }
+
+  @Benchmark
+  public Table open() throws DatabaseException {
+    this.table = new Table("open", this.file.getAbsolutePath());
+    return this.table;
+  }
+}
@@ -0,0 +1,123 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.PageAllocator;
+
+/**
+ * JMH benchmark of `id < k` over a table whose id grows with every record,
+ * for a few selectivities: scan filters a full scan, filtered uses
+ * filteredIterator, which skips the pages its zone map rules out. The
+ * average number of page fetches per scan (see PageAllocator#getNumIOs) is
+ * printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZoneMapBenchmark {
+  @Param({"0.001", "0.01", "0.1", "1"})
+  public double selectivity;
+
+  @Param({"500000"})
+  public int numRecords;
+
+  private File dir;
+  private Table table;
+  private IntDataBox k;
+  private long numScans;
+  private long numFetches;
+
+  @Setup
+  public void setUp() throws Exception {
+    Schema schema = new Schema(Arrays.asList("id", "name", "value"),
+                               Arrays.asList(Type.intType(), Type.stringType(20), Type.floatType()));
+    List<List<DataBox>> rows = new ArrayList<>();
+    for (int i = 0; i < this.numRecords; i++) {
+      rows.add(Arrays.<DataBox>asList(new IntDataBox(i), new StringDataBox("name " + i, 20),
+                                      new FloatDataBox(i)));
+    }
+    this.dir = Files.createTempDirectory("ZoneMapBenchmark").toFile();
+    File file = new File(this.dir, "bench" + Table.FILENAME_EXTENSION);
+    this.table = new Table("bench", schema, file.getAbsolutePath());
+    this.table.addRecords(rows.iterator());
+    this.k = new IntDataBox((int) (this.numRecords * this.selectivity));
+    this.numScans = 0;
+    this.numFetches = 0;
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (this.numScans > 0) {
+      System.out.printf("id < %d: %d page fetches per scan%n", this.k.getInt(),
+                        this.numFetches / this.numScans);
+    }
+    this.table.close();
+    for (File f : this.dir.listFiles()) {
+      f.delete();
+    }
+    this.dir.delete();
+  }
+
+  @Benchmark
+  public int scan() {
+    long before = PageAllocator.getNumIOs();
+    int count = 0;
+    Iterator<Record> records = this.table.iterator();
+    while (records.hasNext()) {
+      if (records.next().getValues().get(0).compareTo(this.k) < 0) {
+        count++;
+      }
+    }
+    return check(count, before);
+  }
+
+  @Benchmark
+  public int filtered() throws DatabaseException {
+    long before = PageAllocator.getNumIOs();
+    int count = 0;
+    Iterator<Record> records = this.table.filteredIterator(0, PredicateOperator.LESS_THAN, this.k);
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    return check(count, before);
+  }
+
+  private int check(int count, long before) {
+    this.numFetches += PageAllocator.getNumIOs() - before;
+    this.numScans++;
+    if (count != this.k.getInt()) {
+      throw new IllegalStateException(count + " matches, expected " + this.k.getInt());
+    }
+    return count;
+  }
+}
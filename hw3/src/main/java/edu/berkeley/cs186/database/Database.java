@@ -4,6 +4,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -11,17 +12,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.LinkedList;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 
@@ -33,6 +44,10 @@ public class Database {
   private long numTransactions;
   private String fileDir;
   private int numMemoryPages;
+  // Runs background compaction, see startBackgroundCompaction.
+  private ScheduledExecutorService compactionExecutor;
+  // See indexLock.
+  private final Map<String, Object> indexLocks = new ConcurrentHashMap<String, Object>();
 
   /**
    * Creates a new database.
@@ -84,6 +99,22 @@ public class Database {
   }
 
 
+  /**
+   * @return the number of pages the buffer pool may cache. The pool is
+   * shared by every open database; PageAllocator#setBufferPoolSize resizes
+   * it.
+   */
+  public int getBufferPoolSize() {
+    return PageAllocator.getBufferPoolSize();
+  }
+
+  /**
+   * @return the number of pages the buffer pool is caching right now
+   */
+  public int getBufferPoolOccupancy() {
+    return PageAllocator.getBufferPoolOccupancy();
+  }
+
   /**
    * Create a new table in this database.
    *
@@ -92,12 +123,25 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
+    createTable(s, tableName, PageFormat.Type.BITMAP);
+  }
+
+  /**
+   * Create a new table in this database whose data pages have the given
+   * format.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param format the layout of records on the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, PageFormat.Type format) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
     Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
-    this.tableLookup.put(tableName, new Table(tableName, s, path.toString()));
+    this.tableLookup.put(tableName, new Table(tableName, s, path.toString(), format));
   }
 
   /**
@@ -159,9 +203,11 @@ public class Database {
 
     this.tableLookup.get(tableName).close();
     this.tableLookup.remove(tableName);
+    this.indexLocks.remove(tableName);
 
     File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
     f.delete();
+    new File(f.getPath() + Table.METADATA_EXTENSION).delete();
 
     return true;
   }
@@ -177,10 +223,136 @@ public class Database {
     }
   }
 
+  /**
+   * Compacts up to maxPages data pages of a table, see Table#compactPage,
+   * and points the table's indexes at the records that moved.
+   *
+   * @param tableName the name of the table
+   * @param maxPages the most pages to compact
+   * @return the number of pages compacted, less than maxPages once there is
+   * nothing left to compact
+   * @throws DatabaseException
+   */
+  public int compactTable(String tableName, int maxPages) throws DatabaseException {
+    Table table = this.tableLookup.get(tableName);
+    if (table == null) {
+      throw new DatabaseException("Table " + tableName + " does not exist");
+    }
+
+    List<String> colNames = table.getSchema().getFieldNames();
+    List<Integer> indexCols = new ArrayList<Integer>();
+    List<BPlusTree> indexes = new ArrayList<BPlusTree>();
+    for (int i = 0; i < colNames.size(); i++) {
+      BPlusTree tree = this.indexLookup.get(tableName + "," + colNames.get(i));
+      if (tree != null) {
+        indexCols.add(i);
+        indexes.add(tree);
+      }
+    }
+
+    Table.RecordMoveListener listener = (record, from, to) -> {
+      int updated = 0;
+      try {
+        for (; updated < indexes.size(); updated++) {
+          indexes.get(updated).update(record.getValues().get(indexCols.get(updated)), to);
+        }
+      } catch (BPlusTreeException | RuntimeException e) {
+        // compactPage puts the record back in its old slot, so the indexes
+        // already updated have to point there again too.
+        for (int i = 0; i < updated; i++) {
+          try {
+            indexes.get(i).update(record.getValues().get(indexCols.get(i)), from);
+          } catch (BPlusTreeException e2) {
+            e.addSuppressed(e2);
+          }
+        }
+        throw new DatabaseException(e.getMessage());
+      }
+    };
+    int numPages = 0;
+    while (numPages < maxPages) {
+      // A page at a time, so that writers to the table wait for one page at
+      // most.
+      synchronized (indexLock(tableName)) {
+        if (!table.compactPage(listener)) {
+          break;
+        }
+      }
+      numPages++;
+    }
+    return numPages;
+  }
+
+  /**
+   * Returns the lock held while a table and its indexes are changed
+   * together: by every transaction that changes the table, from the table
+   * change through the index updates that go with it, and by compactTable
+   * for each page it compacts. The B+ trees can't be changed by two threads
+   * at once, and compaction must not move a record whose index entry a
+   * transaction has yet to add.
+   */
+  private Object indexLock(String tableName) {
+    return this.indexLocks.computeIfAbsent(tableName, k -> new Object());
+  }
+
+  /**
+   * Starts (or restarts) compacting the tables of this database in the
+   * background: every intervalMillis milliseconds, each table gets up to
+   * pagesPerTable pages compacted, with their indexes updated as in
+   * compactTable.
+   *
+   * Background compaction is off unless this is called. Records it moves can
+   * be missed or seen twice by scans by RecordId that are open at the time
+   * (see Table), so only turn it on while no such scans run, or for tables
+   * read through viewIterator and filteredIterator. A failure other than a
+   * table being deleted stops background compaction.
+   *
+   * @param intervalMillis how often to compact
+   * @param pagesPerTable how many pages of each table to compact each time
+   */
+  public synchronized void startBackgroundCompaction(long intervalMillis, int pagesPerTable) {
+    stopBackgroundCompaction();
+    this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "Database compaction");
+      t.setDaemon(true);
+      return t;
+    });
+    this.compactionExecutor.scheduleWithFixedDelay(() -> {
+      for (String tableName : this.tableLookup.keySet()) {
+        try {
+          compactTable(tableName, pagesPerTable);
+        } catch (DatabaseException | PageException e) {
+          if (this.tableLookup.containsKey(tableName)) {
+            // Stops background compaction.
+            throw new IllegalStateException(e);
+          }
+          // The table was deleted meanwhile.
+        }
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops background compaction, waiting for a run in progress to finish.
+   */
+  public synchronized void stopBackgroundCompaction() {
+    if (this.compactionExecutor == null) {
+      return;
+    }
+    this.compactionExecutor.shutdown();
+    try {
+      this.compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.compactionExecutor = null;
+  }
+
   /**
    * Close this database.
    */
   public synchronized void close() {
+    stopBackgroundCompaction();
     for (Table t : this.tableLookup.values()) {
       t.close();
     }
@@ -221,6 +393,9 @@ public class Database {
     HashMap<String, Table> tempTables;
     HashMap<String, String> aliasMaps;
     long tempTableCounter;
+    final IOStats ioStats;
+    // The pins taken with pinPage and not released yet, which end() releases.
+    private final List<Page> pinnedPages;
 
     private Transaction(long tNum) {
       this.transNum = tNum;
@@ -228,15 +403,34 @@ public class Database {
       this.tempTables = new HashMap<String, Table>();
       this.aliasMaps = new HashMap<String, String>();
       this.tempTableCounter = 0;
+      this.ioStats = new IOStats();
+      this.pinnedPages = new ArrayList<Page>();
     }
 
     public boolean isActive() {
       return this.active;
     }
 
+    /**
+     * Returns the page I/O done on behalf of this transaction: by adding,
+     * deleting, updating, getting and looking up records, and by iterating
+     * over sortedScan, sortedScanFrom and lookupKey. The raw record, page and
+     * block iterators are not counted here; run them through a
+     * QueryOperator to count them.
+     *
+     * @return the I/O counters of this transaction
+     */
+    public IOStats getIOStats() {
+      return this.ioStats;
+    }
+
     public void end(){
       assert(this.active);
 
+      for (Page page : this.pinnedPages) {
+        page.unpin();
+      }
+      this.pinnedPages.clear();
       deleteAllTempTables();
       this.active = false;
 
@@ -339,52 +533,158 @@ public class Database {
     public Iterator<Record> sortedScan(String tableName, String columnName) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanAll());
+      return this.ioStats.track(new RecordIterator(tab, index.scanAll()));
     }
 
     public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanGreaterEqual(startValue));
+      return this.ioStats.track(new RecordIterator(tab, index.scanGreaterEqual(startValue)));
     }
 
     public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanEqual(key));
+      return this.ioStats.track(new RecordIterator(tab, index.scanEqual(key)));
     }
 
     public boolean contains(String tableName, String columnName, DataBox key) throws DatabaseException {
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return index.get(key).isPresent();
+      IOStats.Scope scope = this.ioStats.track();
+      try {
+        return index.get(key).isPresent();
+      } finally {
+        scope.close();
+      }
     }
 
     public RecordId addRecord(String tableName, List<DataBox> values) throws DatabaseException {
       assert(this.active);
+      IOStats.Scope scope = this.ioStats.track();
+      try {
         return runAddRecord(tableName, values);
+      } finally {
+        scope.close();
+      }
     }
 
     private RecordId runAddRecord(String tableName, List<DataBox> values) throws DatabaseException {
       assert(this.active);
       Table tab = getTable(tableName);
-      RecordId rid = tab.addRecord(values);
-      Schema s = tab.getSchema();
-      List<String> colNames = s.getFieldNames();
+      synchronized (Database.this.indexLock(tab.getName())) {
+        RecordId rid = tab.addRecord(values);
+        Schema s = tab.getSchema();
+        List<String> colNames = s.getFieldNames();
+
+        for (int i = 0; i < colNames.size(); i++) {
+          String col = colNames.get(i);
+          if (indexExists(tableName, col)) {
+            try {
+              resolveIndexFromName(tableName, col).put(values.get(i), rid);
+            } catch (BPlusTreeException e) {
+              throw new DatabaseException(e.getMessage());
+            }
+          }
+        }
+
+        //find(tableName, "string");
+
+        return rid;
+      }
+    }
 
-      for (int i = 0; i < colNames.size(); i++) {
-        String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
+    /**
+     * Adds every row of rows to tableName and returns their record ids in
+     * order. The rows are inserted with Table#addRecords, a page at a time,
+     * and the table's indices are updated afterwards, one index at a time,
+     * from the keys in sorted order: an empty index is built with
+     * BPlusTree#bulkLoad, and any other gets the keys put in order.
+     *
+     * The rows are all checked against the table's schema, and their indexed
+     * keys against each other and the indices, before any of them is
+     * inserted; a bad row or a repeated key throws a DatabaseException and
+     * leaves the table as it was.
+     */
+    public List<RecordId> addRecords(String tableName, Iterator<List<DataBox>> rows) throws DatabaseException {
+      assert(this.active);
+      IOStats.Scope scope = this.ioStats.track();
+      try {
+        return runAddRecords(tableName, rows);
+      } finally {
+        scope.close();
+      }
+    }
+
+    private List<RecordId> runAddRecords(String tableName, Iterator<List<DataBox>> rows) throws DatabaseException {
+      assert(this.active);
+      Table tab = getTable(tableName);
+      synchronized (Database.this.indexLock(tab.getName())) {
+        Schema s = tab.getSchema();
+        List<String> colNames = s.getFieldNames();
+        List<Integer> indexedCols = new ArrayList<>();
+        for (int i = 0; i < colNames.size(); i++) {
+          if (indexExists(tableName, colNames.get(i))) {
+            indexedCols.add(i);
+          }
+        }
+        if (indexedCols.isEmpty()) {
+          return tab.addRecords(rows);
+        }
+
+        // The rows are needed again to build the indices.
+        List<List<DataBox>> added = new ArrayList<>();
+        while (rows.hasNext()) {
+          List<DataBox> values = rows.next();
+          s.verify(values);
+          added.add(values);
+        }
+
+        // Every key is checked before any row is inserted, so that a repeated
+        // key leaves the table as it was.
+        List<BPlusTree> trees = new ArrayList<>();
+        List<Integer[]> orders = new ArrayList<>();
+        for (int col : indexedCols) {
+          BPlusTree tree = resolveIndexFromName(tableName, colNames.get(col));
+          Integer[] order = new Integer[added.size()];
+          for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+          }
+          Arrays.sort(order, (a, b) -> added.get(a).get(col).compareTo(added.get(b).get(col)));
+          for (int i = 0; i < order.length; i++) {
+            DataBox key = added.get(order[i]).get(col);
+            if ((i > 0 && added.get(order[i - 1]).get(col).equals(key))
+                || (!tree.isEmpty() && tree.get(key).isPresent())) {
+              throw new DatabaseException(String.format(
+                  "Key %s of indexed column %s is already in table %s.", key, colNames.get(col), tableName));
+            }
+          }
+          trees.add(tree);
+          orders.add(order);
+        }
+
+        List<RecordId> rids = tab.addRecords(added.iterator());
+
+        for (int j = 0; j < indexedCols.size(); j++) {
+          int col = indexedCols.get(j);
+          BPlusTree tree = trees.get(j);
           try {
-            resolveIndexFromName(tableName, col).put(values.get(i), rid);
+            if (tree.isEmpty()) {
+              List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+              for (int i : orders.get(j)) {
+                entries.add(new Pair<>(added.get(i).get(col), rids.get(i)));
+              }
+              tree.bulkLoad(entries);
+            } else {
+              for (int i : orders.get(j)) {
+                tree.put(added.get(i).get(col), rids.get(i));
+              }
+            }
           } catch (BPlusTreeException e) {
             throw new DatabaseException(e.getMessage());
           }
         }
+        return rids;
       }
-
-      //find(tableName, "string");
-
-      return rid;
     }
 
 
@@ -397,36 +697,93 @@ public class Database {
 
 
     public RecordId deleteRecord(String tableName, RecordId rid)  throws DatabaseException {
+      IOStats.Scope scope = this.ioStats.track();
+      try {
         return runDeleteRecord(tableName, rid);
+      } finally {
+        scope.close();
+      }
     }
 
     private RecordId runDeleteRecord(String tableName, RecordId rid) throws DatabaseException {
       assert(active);
-
       Table tab = getTable(tableName);
-      Schema s = tab.getSchema();
-
-      Record rec = tab.deleteRecord(rid);
-      List<DataBox> values = rec.getValues();
-      List<String> colNames = s.getFieldNames();
-      for (int i = 0; i < colNames.size(); i++) {
-        String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          resolveIndexFromName(tableName, col).remove(values.get(i));
+      synchronized (Database.this.indexLock(tab.getName())) {
+        Schema s = tab.getSchema();
+
+        Record rec = tab.deleteRecord(rid);
+        List<DataBox> values = rec.getValues();
+        List<String> colNames = s.getFieldNames();
+        for (int i = 0; i < colNames.size(); i++) {
+          String col = colNames.get(i);
+          if (indexExists(tableName, col)) {
+            resolveIndexFromName(tableName, col).remove(values.get(i));
+          }
         }
-      }
 
-      return rid;
+        return rid;
+      }
     }
 
     public Record getRecord(String tableName, RecordId rid) throws DatabaseException {
       assert(active);
-      return getTable(tableName).getRecord(rid);
+      IOStats.Scope scope = this.ioStats.track();
+      try {
+        return getTable(tableName).getRecord(rid);
+      } finally {
+        scope.close();
+      }
+    }
+
+    public BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException {
+      assert(this.active);
+      return this.ioStats.track(getTable(tableName).iterator());
+    }
+
+    /**
+     * Returns an iterator over some of the columns of every record of
+     * tableName, see Table#columnIterator.
+     *
+     * @param columnNames the columns to read, in the order they are returned
+     * @return an iterator over records of just those columns
+     */
+    public Iterator<Record> getColumnIterator(String tableName, List<String> columnNames) throws DatabaseException {
+      assert(this.active);
+      Table tab = getTable(tableName);
+      List<String> fieldNames = tab.getSchema().getFieldNames();
+      int[] fields = new int[columnNames.size()];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = fieldNames.indexOf(columnNames.get(i));
+        if (fields[i] < 0) {
+          throw new DatabaseException("Table " + tableName + " has no column " + columnNames.get(i) + ".");
+        }
+      }
+      return tab.columnIterator(fields);
+    }
+
+    /**
+     * Returns an iterator over the records of tableName whose column
+     * columnName satisfies `columnName op value`, skipping the pages that
+     * can't hold any, see Table#filteredIterator.
+     */
+    public Iterator<Record> getFilteredIterator(String tableName, String columnName,
+                                                PredicateOperator op, DataBox value) throws DatabaseException {
+      assert(this.active);
+      Table tab = getTable(tableName);
+      int field = tab.getSchema().getFieldNames().indexOf(columnName);
+      if (field < 0) {
+        throw new DatabaseException("Table " + tableName + " has no column " + columnName + ".");
+      }
+      return this.ioStats.track(tab.filteredIterator(field, op, value));
     }
 
-    public RecordIterator getRecordIterator(String tableName) throws DatabaseException {
+    /**
+     * Returns an iterator over every record of tableName as one reused
+     * RecordView, see Table#viewIterator.
+     */
+    public Iterator<RecordView> getViewIterator(String tableName) throws DatabaseException {
       assert(this.active);
-      return getTable(tableName).iterator();
+      return this.ioStats.track(getTable(tableName).viewIterator());
     }
 
     public BacktrackingIterator<Page> getPageIterator(String tableName) throws DatabaseException {
@@ -434,11 +791,46 @@ public class Database {
       return getTable(tableName).getAllocator().iterator();
     }
 
+    /**
+     * Pins a page of tableName's page iterator so that it stays in the buffer
+     * pool until it is unpinned with unpinPage, or until the transaction
+     * ends.
+     *
+     * @param tableName the table the page belongs to
+     * @param page a page returned by getPageIterator(tableName)
+     * @return page, or the page that replaced it if it was already evicted, pinned
+     */
+    public Page pinPage(String tableName, Page page) throws DatabaseException {
+      assert(this.active);
+      Page pinned = getTable(tableName).getAllocator().pinPage(page);
+      this.pinnedPages.add(pinned);
+      return pinned;
+    }
+
+    /**
+     * Releases a pin taken with pinPage. Does nothing if the pin was already
+     * released.
+     */
+    public void unpinPage(Page page) {
+      if (this.pinnedPages.remove(page)) {
+        page.unpin();
+      }
+    }
+
     public BacktrackingIterator<Record> getBlockIterator(String tableName, Page[] block) throws DatabaseException {
       assert(this.active);
       return getTable(tableName).blockIterator(block);
     }
 
+    /**
+     * Returns an iterator over the records of block as one reused
+     * RecordView, see Table#blockViewIterator.
+     */
+    public Iterator<RecordView> getBlockViewIterator(String tableName, Page[] block) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).blockViewIterator(block);
+    }
+
     public BacktrackingIterator<Record> getBlockIterator(String tableName, BacktrackingIterator<Page> block) throws DatabaseException {
       assert(this.active);
       return getTable(tableName).blockIterator(block);
@@ -450,14 +842,19 @@ public class Database {
     }
 
     public RecordId updateRecord(String tableName, List<DataBox> values, RecordId rid)  throws DatabaseException {
+      IOStats.Scope scope = this.ioStats.track();
+      try {
         return runUpdateRecord(tableName, values, rid);
+      } finally {
+        scope.close();
+      }
     }
 
 
     public RecordId runUpdateRecordWhere(String tableName, String targetColumnName, DataBox targetVaue, String predColumnName, DataBox predValue)  throws DatabaseException {
 
         Table tab = getTable(tableName);
-        Iterator<RecordId> recordIds = tab.ridIterator();
+        Iterator<RecordId> recordIds = this.ioStats.track(tab.ridIterator());
 
         Schema s = tab.getSchema();
         int uindex = s.getFieldNames().indexOf(targetColumnName);
@@ -470,7 +867,12 @@ public class Database {
 
           if (record_copy.get(pindex).equals(predValue)){
               record_copy.set(uindex, targetVaue);
-              runUpdateRecord(tableName, record_copy, curRID);
+              IOStats.Scope scope = this.ioStats.track();
+              try {
+                runUpdateRecord(tableName, record_copy, curRID);
+              } finally {
+                scope.close();
+              }
           }
         }
 
@@ -481,27 +883,29 @@ public class Database {
     private RecordId runUpdateRecord(String tableName, List<DataBox> values, RecordId rid) throws DatabaseException {
       assert(this.active);
       Table tab = getTable(tableName);
-      Schema s = tab.getSchema();
-
-      Record rec = tab.updateRecord(values, rid);
-
-      List<DataBox> oldValues = rec.getValues();
-      List<String> colNames = s.getFieldNames();
+      synchronized (Database.this.indexLock(tab.getName())) {
+        Schema s = tab.getSchema();
 
-      for (int i = 0; i < colNames.size(); i++) {
-        String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          BPlusTree tree = resolveIndexFromName(tableName, col);
-          tree.remove(oldValues.get(i));
-          try {
-            tree.put(values.get(i), rid);
-          } catch (BPlusTreeException e) {
-            throw new DatabaseException(e.getMessage());
+        Record rec = tab.updateRecord(values, rid);
+
+        List<DataBox> oldValues = rec.getValues();
+        List<String> colNames = s.getFieldNames();
+
+        for (int i = 0; i < colNames.size(); i++) {
+          String col = colNames.get(i);
+          if (indexExists(tableName, col)) {
+            BPlusTree tree = resolveIndexFromName(tableName, col);
+            tree.remove(oldValues.get(i));
+            try {
+              tree.put(values.get(i), rid);
+            } catch (BPlusTreeException e) {
+              throw new DatabaseException(e.getMessage());
+            }
           }
         }
-      }
 
-      return rid;
+        return rid;
+      }
     }
 
 
@@ -609,6 +1013,7 @@ public class Database {
 
       File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
       f.delete();
+      new File(f.getPath() + Table.METADATA_EXTENSION).delete();
     }
 
     private void deleteAllTempTables() {
@@ -629,6 +1034,7 @@ public class Database {
         public RecordId rid;
         public String tableName;
         public List<DataBox> values;
+        public List<List<DataBox>> rows;
         public int type;
 
         public String targetColumnName;
@@ -640,6 +1046,7 @@ public class Database {
         public static final int DELETE = 1;
         public static final int UPDATE = 2;
         public static final int UPDATE_WHERE = 3;
+        public static final int ADD_ALL = 4;
     }
 
 
@@ -659,9 +1066,11 @@ public class Database {
 
 
 
+          IOStats.Scope scope = this.ioStats.track();
           try{
               switch (op.type) {
                 case Operation.ADD: newRecords.add(super.runAddRecord(op.tableName, op.values)); break;
+                case Operation.ADD_ALL: newRecords.addAll(super.runAddRecords(op.tableName, op.rows.iterator())); break;
                 case Operation.DELETE: newRecords.add(super.runDeleteRecord(op.tableName, op.rid)); break;
                 case Operation.UPDATE: newRecords.add(super.runUpdateRecord(op.tableName, op.values, op.rid)); break;
                 case Operation.UPDATE_WHERE: newRecords.add(super.runUpdateRecordWhere(op.tableName, op.targetColumnName, op.targetVaue, op.predColumnName, op.predValue)); break;
@@ -672,6 +1081,10 @@ public class Database {
           {
             //do something here
           }
+          finally
+          {
+            scope.close();
+          }
 
       }
 
@@ -689,6 +1102,21 @@ public class Database {
         return null;
     }
 
+    //stores the operation for execution in the future
+    public List<RecordId> addRecords(String tableName, Iterator<List<DataBox>> rows)  throws DatabaseException {
+        Operation op = new Operation();
+        op.tableName = tableName;
+        // rows may be lazy, so it is read now rather than when the
+        // transaction runs.
+        op.rows = new ArrayList<>();
+        while (rows.hasNext()) {
+          op.rows.add(rows.next());
+        }
+        op.type = Operation.ADD_ALL;
+        this.operationList.add(op);
+        return null;
+    }
+
 
     //stores the operation for execution in the future
     public RecordId deleteRecord(String tableName, RecordId rid)  throws DatabaseException {
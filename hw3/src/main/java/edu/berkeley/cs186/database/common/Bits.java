@@ -28,12 +28,63 @@ public class Bits {
    *   - getBit(new byte[]{0b00000000, 0b00000001}, 15) == ONE
    */
   public static Bit getBit(byte[] bytes, int i) {
-    String err = String.format("bytes.length = %d; i = %d.", bytes.length, i);
-    assert (bytes.length > 0) : err;
-    assert (0 <= i && i < bytes.length * 8) : err;
+    // The messages are only built if an assertion fails.
+    assert (bytes.length > 0) : String.format("bytes.length = %d; i = %d.", bytes.length, i);
+    assert (0 <= i && i < bytes.length * 8) : String.format("bytes.length = %d; i = %d.", bytes.length, i);
     return getBit(bytes[i/8], i % 8);
   }
 
+  /**
+   * Count the bits that are set in a byte array.
+   */
+  public static int countBits(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    int count = 0;
+    int i = 0;
+    for (; i + 8 <= bytes.length; i += 8) {
+      count += Long.bitCount(buf.getLong(i));
+    }
+    for (; i < bytes.length; i++) {
+      count += Integer.bitCount(bytes[i] & 0xFF);
+    }
+    return count;
+  }
+
+  /**
+   * Find the first bit that is not set among the first numBytes bytes of buf,
+   * at or after the ith bit, where the 0th bit is the most significant bit of
+   * buf.get(0). Bytes are read eight at a time, and only with absolute gets,
+   * so the position of the buffer is neither used nor changed. Some examples:
+   *
+   *   - firstClearBit(wrap(0b11111111, 0b10111111), 2, 0) == 9
+   *   - firstClearBit(wrap(0b01111111, 0b10111111), 2, 0) == 0
+   *   - firstClearBit(wrap(0b01111111, 0b10111111), 2, 1) == 9
+   *   - firstClearBit(wrap(0b11111111, 0b11111111), 2, 0) == -1
+   *
+   * @return the index of the first clear bit, or -1 if every bit from the ith
+   * on is set
+   */
+  public static int firstClearBit(ByteBuffer buf, int numBytes, int i) {
+    int index = i / 8;
+    // The bits of the first byte before the ith bit are skipped.
+    int skip = i % 8;
+    for (; index + 8 <= numBytes; index += 8) {
+      long clear = ~buf.getLong(index) & (-1L >>> skip);
+      if (clear != 0) {
+        return index * 8 + Long.numberOfLeadingZeros(clear);
+      }
+      skip = 0;
+    }
+    for (; index < numBytes; index++) {
+      int clear = ~buf.get(index) & (0xFF >>> skip);
+      if (clear != 0) {
+        return index * 8 + Integer.numberOfLeadingZeros(clear) - 24;
+      }
+      skip = 0;
+    }
+    return -1;
+  }
+
   /**
    * Set the ith bit of a byte where the 0th bit is the most significant bit
    * and the 7th bit is the least significant bit. Some examples:
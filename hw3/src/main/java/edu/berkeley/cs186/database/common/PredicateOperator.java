@@ -0,0 +1,43 @@
+package edu.berkeley.cs186.database.common;
+
+/**
+ * A comparison between a column and a value, e.g. x < 10 is LESS_THAN with
+ * the column x on the left and 10 on the right.
+ */
+public enum PredicateOperator {
+  EQUALS,
+  NOT_EQUALS,
+  LESS_THAN,
+  LESS_THAN_EQUALS,
+  GREATER_THAN,
+  GREATER_THAN_EQUALS;
+
+  public <T extends Comparable<T>> boolean evaluate(T left, T right) {
+    int c = left.compareTo(right);
+    switch (this) {
+      case EQUALS: return c == 0;
+      case NOT_EQUALS: return c != 0;
+      case LESS_THAN: return c < 0;
+      case LESS_THAN_EQUALS: return c <= 0;
+      case GREATER_THAN: return c > 0;
+      case GREATER_THAN_EQUALS: return c >= 0;
+      default: throw new IllegalStateException("Unhandled predicate operator " + this);
+    }
+  }
+
+  /**
+   * Whether some value between min and max, inclusive, could satisfy this
+   * comparison with right.
+   */
+  public <T extends Comparable<T>> boolean evaluateRange(T min, T max, T right) {
+    switch (this) {
+      case EQUALS: return min.compareTo(right) <= 0 && max.compareTo(right) >= 0;
+      case NOT_EQUALS: return min.compareTo(right) != 0 || max.compareTo(right) != 0;
+      case LESS_THAN: return min.compareTo(right) < 0;
+      case LESS_THAN_EQUALS: return min.compareTo(right) <= 0;
+      case GREATER_THAN: return max.compareTo(right) > 0;
+      case GREATER_THAN_EQUALS: return max.compareTo(right) >= 0;
+      default: throw new IllegalStateException("Unhandled predicate operator " + this);
+    }
+  }
+}
@@ -230,8 +230,7 @@ abstract class BPlusNode {
    */
   public static BPlusNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page p = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = p.getByteBuffer();
-    byte b = buf.get();
+    byte b = p.readByte(0);
     if (b == 1) {
       return LeafNode.fromBytes(metadata, pageNum);
     } else if (b == 0) {
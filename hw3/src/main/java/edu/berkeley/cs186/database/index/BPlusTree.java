@@ -115,7 +115,7 @@ public class BPlusTree {
       this.root = new LeafNode(this.metadata, keys, rids, rightSibling);
 
       // Initialize the header page.
-      writeHeader(headerPage.getByteBuffer());
+      writeHeader();
     }
 
     /** Read a B+ tree that was previously serialized to filename. */
@@ -123,13 +123,21 @@ public class BPlusTree {
       // Initialize the page allocator and fetch the header page.
       PageAllocator allocator = new PageAllocator(filename, false /* wipe */);
       Page headerPage = allocator.fetchPage(0);
-      ByteBuffer buf = headerPage.getByteBuffer();
 
       // Read the contents of the header page. See writeHeader for information
       // on exactly what is written to the header page.
-      Type keySchema = Type.fromBytes(buf);
-      int order = buf.getInt();
-      int rootPageNum = buf.getInt();
+      Type keySchema;
+      int order;
+      int rootPageNum;
+      Page.Access access = headerPage.readAccess();
+      try {
+        ByteBuffer buf = access.getByteBuffer();
+        keySchema = Type.fromBytes(buf);
+        order = buf.getInt();
+        rootPageNum = buf.getInt();
+      } finally {
+        access.close();
+      }
 
       // Initialize members.
       this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
@@ -287,7 +295,95 @@ public class BPlusTree {
 
       InnerNode inner = new InnerNode(metadata, keys, children);
       this.root = inner;
-      writeHeader(headerPage.getByteBuffer());
+      writeHeader();
+    }
+
+    /**
+     * Builds an empty B+ tree from the (key, rid) pairs of entries, which must
+     * be sorted by key and have no duplicate keys. Rather than put every pair
+     * in turn, which reads and rewrites a path from the root for every pair,
+     * the tree is built from the bottom up: the pairs are packed into full
+     * leaves from left to right, and every level of inner nodes is built from
+     * the first keys of the level below until a single root is left.
+     *
+     *   BPlusTree tree = new BPlusTree("t.txt", Type.intType(), 2);
+     *   tree.bulkLoad(entries); // [(0, r0), (1, r1), ..., (9, r9)]
+     *   tree.scanAll();         // [r0, r1, ..., r9]
+     *
+     * An exception is raised if the tree isn't empty (see isEmpty) or if the
+     * keys of entries are out of order or repeated.
+     */
+    public void bulkLoad(List<Pair<DataBox, RecordId>> entries) throws BPlusTreeException {
+      if (!isEmpty()) {
+        throw new BPlusTreeException("Only an empty B+ tree can be bulk loaded.");
+      }
+      for (int i = 0; i < entries.size(); ++i) {
+        DataBox key = entries.get(i).getFirst();
+        typecheck(key);
+        if (i > 0 && entries.get(i - 1).getFirst().compareTo(key) >= 0) {
+          String msg = String.format("Bulk loaded key %s is out of order or a duplicate.", key);
+          throw new BPlusTreeException(msg);
+        }
+      }
+      if (entries.isEmpty()) {
+        return;
+      }
+
+      // The leaves, each as full as it can be. The empty root leaf is
+      // replaced, so its page is given back first.
+      PageAllocator allocator = metadata.getAllocator();
+      allocator.freePage(root.getPage());
+      int leafSize = Math.max(1, 2 * metadata.getOrder());
+      List<DataBox> firstKeys = new ArrayList<>();
+      List<Integer> pageNums = new ArrayList<>();
+      LeafNode previous = null;
+      for (int i = 0; i < entries.size(); i += leafSize) {
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        for (int j = i; j < Math.min(i + leafSize, entries.size()); ++j) {
+          keys.add(entries.get(j).getFirst());
+          rids.add(entries.get(j).getSecond());
+        }
+        LeafNode leaf = new LeafNode(metadata, keys, rids, Optional.empty());
+        if (previous != null) {
+          previous.setRightSibling(leaf.getPage().getPageNum());
+        }
+        previous = leaf;
+        firstKeys.add(keys.get(0));
+        pageNums.add(leaf.getPage().getPageNum());
+        this.root = leaf;
+      }
+
+      // The inner levels. The children of a level are spread evenly over its
+      // nodes, so that no node is left with a single child.
+      int maxChildren = 2 * metadata.getOrder() + 1;
+      while (pageNums.size() > 1) {
+        int numNodes = (pageNums.size() + maxChildren - 1) / maxChildren;
+        List<DataBox> levelKeys = new ArrayList<>();
+        List<Integer> levelPageNums = new ArrayList<>();
+        int start = 0;
+        for (int n = 0; n < numNodes; ++n) {
+          int end = start + (pageNums.size() - start) / (numNodes - n);
+          List<DataBox> keys = new ArrayList<>(firstKeys.subList(start + 1, end));
+          List<Integer> children = new ArrayList<>(pageNums.subList(start, end));
+          InnerNode inner = new InnerNode(metadata, keys, children);
+          levelKeys.add(firstKeys.get(start));
+          levelPageNums.add(inner.getPage().getPageNum());
+          this.root = inner;
+          start = end;
+        }
+        firstKeys = levelKeys;
+        pageNums = levelPageNums;
+      }
+      writeHeader();
+    }
+
+    /**
+     * Returns whether the tree is a single leaf without any entries, as it is
+     * when it is first constructed.
+     */
+    public boolean isEmpty() {
+      return root instanceof LeafNode && ((LeafNode) root).getKeys().isEmpty();
     }
 
     /**
@@ -307,6 +403,22 @@ public class BPlusTree {
       root.remove(key);
     }
 
+    /**
+     * update(key, rid) pairs key with rid in place of the record id it is
+     * paired with now, without removing it from the tree in between. An
+     * exception is raised if key isn't in the tree.
+     *
+     *   tree.put(key, rid);
+     *   tree.update(key, rid2);
+     *   tree.get(key); // Optional.of(rid2)
+     */
+    public void update(DataBox key, RecordId rid) throws BPlusTreeException {
+      typecheck(key);
+      if (!root.get(key).update(key, rid)) {
+        throw new BPlusTreeException(String.format("Key %s is not in the tree.", key));
+      }
+    }
+
     // Helpers /////////////////////////////////////////////////////////////////
     /**
      * Returns a sexp representation of this tree. See BPlusNode.toSexp for
@@ -354,10 +466,13 @@ public class BPlusTree {
     }
 
     /** Serializes the header page to buf. */
-    private void writeHeader(ByteBuffer buf) {
-      buf.put(metadata.getKeySchema().toBytes());
+    private void writeHeader() {
+      byte[] keySchema = metadata.getKeySchema().toBytes();
+      ByteBuffer buf = ByteBuffer.allocate(keySchema.length + 8);
+      buf.put(keySchema);
       buf.putInt(metadata.getOrder());
       buf.putInt(root.getPage().getPageNum());
+      headerPage.writeBytes(0, buf.capacity(), buf.array());
     }
 
     private void typecheck(DataBox key) {
@@ -177,7 +177,8 @@ class InnerNode extends BPlusNode {
   }
 
   private void sync() {
-    page.getByteBuffer().put(toBytes());
+    byte[] bytes = toBytes();
+    page.writeBytes(0, bytes.length, bytes);
   }
 
   // Just for testing.
@@ -378,20 +379,28 @@ class InnerNode extends BPlusNode {
    */
   public static InnerNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
-
-    assert(buf.get() == (byte) 0);
-
-    List<DataBox> keys = new ArrayList<>();
-    List<Integer> children = new ArrayList<>();
-    int n = buf.getInt();
-    for (int i = 0; i < n; ++i) {
-      keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
-    }
-    for (int i = 0; i < n + 1; ++i) {
-      children.add(buf.getInt());
+    Page.Access access = page.readAccess();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+
+      // The type byte is read outside the assert, which doesn't run at all
+      // when assertions are off.
+      byte isLeaf = buf.get();
+      assert(isLeaf == (byte) 0);
+
+      List<DataBox> keys = new ArrayList<>();
+      List<Integer> children = new ArrayList<>();
+      int n = buf.getInt();
+      for (int i = 0; i < n; ++i) {
+        keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+      }
+      for (int i = 0; i < n + 1; ++i) {
+        children.add(buf.getInt());
+      }
+      return new InnerNode(metadata, pageNum, keys, children);
+    } finally {
+      access.close();
     }
-    return new InnerNode(metadata, pageNum, keys, children);
   }
 
   // Builtins //////////////////////////////////////////////////////////////////
@@ -209,6 +209,16 @@ class LeafNode extends BPlusNode {
     return Optional.of(new Pair<>(rightKeys.get(0), pageNum));
   }
 
+  /**
+   * Points this leaf at a right sibling. BPlusTree#bulkLoad builds leaves
+   * from left to right, so a leaf's sibling doesn't exist yet when the leaf
+   * is constructed.
+   */
+  void setRightSibling(int pageNum) {
+    this.rightSibling = Optional.of(pageNum);
+    sync();
+  }
+
   // See BPlusNode.remove.
   @Override
   public void remove(DataBox key) {
@@ -220,6 +230,21 @@ class LeafNode extends BPlusNode {
     sync();
   }
 
+  /**
+   * Points key at rid instead of the record id it is paired with now.
+   *
+   * @return false if key isn't in this leaf
+   */
+  public boolean update(DataBox key, RecordId rid) {
+    int index = keys.indexOf(key);
+    if (index == -1) {
+      return false;
+    }
+    rids.set(index, rid);
+    sync();
+    return true;
+  }
+
   // Iterators /////////////////////////////////////////////////////////////////
   /** Return the record id associated with `key`. */
   public Optional<RecordId> getKey(DataBox key) {
@@ -263,7 +288,8 @@ class LeafNode extends BPlusNode {
 
   /** Serializes this leaf to its page. */
   private void sync() {
-    page.getByteBuffer().put(toBytes());
+    byte[] bytes = toBytes();
+    page.writeBytes(0, bytes.length, bytes);
   }
 
   /**
@@ -299,7 +325,6 @@ class LeafNode extends BPlusNode {
     return n / 2;
   }
 
-  // For testing only.
   List<DataBox> getKeys() {
     return keys;
   }
@@ -394,22 +419,30 @@ class LeafNode extends BPlusNode {
    */
   public static LeafNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
-
-    assert(buf.get() == (byte) 1);
-
-    int s = buf.getInt();
-    Optional<Integer> rightSibling = s == -1 ? Optional.empty() : Optional.of(s);
-
-    List<DataBox> keys = new ArrayList<>();
-    List<RecordId> rids = new ArrayList<>();
-    int n = buf.getInt();
-    for (int i = 0; i < n; ++i) {
-      keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
-      rids.add(RecordId.fromBytes(buf));
+    Page.Access access = page.readAccess();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+
+      // The type byte is read outside the assert, which doesn't run at all
+      // when assertions are off.
+      byte isLeaf = buf.get();
+      assert(isLeaf == (byte) 1);
+
+      int s = buf.getInt();
+      Optional<Integer> rightSibling = s == -1 ? Optional.empty() : Optional.of(s);
+
+      List<DataBox> keys = new ArrayList<>();
+      List<RecordId> rids = new ArrayList<>();
+      int n = buf.getInt();
+      for (int i = 0; i < n; ++i) {
+        keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+        rids.add(RecordId.fromBytes(buf));
+      }
+
+      return new LeafNode(metadata, pageNum, keys, rids, rightSibling);
+    } finally {
+      access.close();
     }
-
-    return new LeafNode(metadata, pageNum, keys, rids, rightSibling);
   }
 
   // Builtins //////////////////////////////////////////////////////////////////
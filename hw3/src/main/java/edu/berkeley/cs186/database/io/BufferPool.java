@@ -0,0 +1,504 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/**
+ * A buffer pool of cached Pages keyed by virtual page number (the allocator id
+ * in the high 32 bits and the page number in the low 32 bits; see
+ * PageAllocator#translatePageNum).
+ *
+ * The pool is partitioned into a fixed number of shards. Every virtual page
+ * number hashes to exactly one shard, and every shard has its own lock, its own
+ * EvictionPolicy, and its own share of the total capacity. Fetches of pages
+ * that land in different shards therefore never contend with each other:
+ *
+ *   // 16 shards, 1024 pages total, CLOCK eviction.
+ *   BufferPool pool = new BufferPool(16, 1024, EvictionPolicy.Type.CLOCK);
+ *   pool.putIfAbsent(vPageNum, page);
+ *   pool.get(vPageNum);    // page
+ *   pool.remove(vPageNum); // page
+ *   pool.get(vPageNum);    // null
+ *
+ * Lookups go through a concurrent map and only tell the shard's policy about
+ * the hit, so with a policy whose recordAccess is lock-free (CLOCK) a cache
+ * hit takes no lock at all. Inserting, removing, and evicting pages take the
+ * shard lock.
+ *
+ * Each shard counts its hits, misses, and evictions so that skew between shards
+ * is visible through PageAllocator. The capacity can be changed at runtime
+ * with setCapacity, and size reports how many pages are cached right now.
+ */
+public class BufferPool {
+  private final Shard[] shards;
+  private volatile int capacity;
+  private final EvictionPolicy.Type policyType;
+  // The pool this one was drained into, which every later call is forwarded
+  // to. Only set with every shard lock held.
+  private volatile BufferPool successor;
+
+  /**
+   * Create a new LRU BufferPool with numShards shards holding at most capacity
+   * pages in total.
+   */
+  public BufferPool(int numShards, int capacity) {
+    this(numShards, capacity, EvictionPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a new BufferPool with numShards shards holding at most capacity
+   * pages in total. The capacity is split as evenly as possible between the
+   * shards.
+   *
+   * @param numShards the number of independently locked shards
+   * @param capacity the maximum number of pages cached across all shards
+   * @param policyType the eviction policy every shard uses
+   */
+  public BufferPool(int numShards, int capacity, EvictionPolicy.Type policyType) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException("a buffer pool needs at least one shard");
+    }
+    checkCapacity(numShards, capacity);
+    this.capacity = capacity;
+    this.policyType = policyType;
+    this.shards = new Shard[numShards];
+    for (int i = 0; i < numShards; i++) {
+      int shardCapacity = shardCapacity(i, capacity);
+      this.shards[i] = new Shard(shardCapacity, EvictionPolicy.create(policyType, shardCapacity));
+    }
+  }
+
+  private static void checkCapacity(int numShards, int capacity) {
+    if (capacity < numShards) {
+      throw new IllegalArgumentException("capacity must be at least the number of shards");
+    }
+  }
+
+  private int shardCapacity(int shard, int capacity) {
+    return capacity / shards.length + (shard < capacity % shards.length ? 1 : 0);
+  }
+
+  /**
+   * @param vPageNum the virtual page number to look up
+   * @return the cached page, or null if it is not in the pool
+   */
+  public Page get(long vPageNum) {
+    BufferPool successor = this.successor;
+    if (successor != null) {
+      return successor.get(vPageNum);
+    }
+    Shard shard = shardFor(vPageNum);
+    Frame frame = shard.frames.get(vPageNum);
+    if (frame == null) {
+      shard.misses.increment();
+      return null;
+    }
+    shard.policy.recordAccess(frame);
+    shard.hits.increment();
+    return frame.getPage();
+  }
+
+  /**
+   * Looks up vPageNum without counting a hit or miss and without telling the
+   * eviction policy about the access.
+   *
+   * @param vPageNum the virtual page number to look up
+   * @return the cached page, or null if it is not in the pool
+   */
+  public Page peek(long vPageNum) {
+    BufferPool successor = this.successor;
+    if (successor != null) {
+      return successor.peek(vPageNum);
+    }
+    Frame frame = shardFor(vPageNum).frames.get(vPageNum);
+    return frame == null ? null : frame.getPage();
+  }
+
+  /**
+   * Caches page under vPageNum unless some other page is already cached there,
+   * evicting an unpinned page chosen by the shard's policy if the shard is
+   * full. Only clean pages are evicted with the shard lock held. A dirty
+   * page the policy chooses stays in the pool while it is flushed without
+   * the lock, and is evicted on the next try; see Shard#makeRoom.
+   *
+   * @param vPageNum the virtual page number of page
+   * @param page the page to cache
+   * @return the page that was already cached under vPageNum, or null if page
+   * was inserted
+   * @throws PageException if the shard is full and all of its pages are pinned
+   */
+  public Page putIfAbsent(long vPageNum, Page page) {
+    Shard shard = shardFor(vPageNum);
+    List<Page> victims = new ArrayList<Page>();
+    try {
+      while (true) {
+        List<Page> dirty;
+        synchronized (shard) {
+          if (this.successor != null) {
+            break;
+          }
+          Frame existing = shard.frames.get(vPageNum);
+          if (existing != null) {
+            return existing.getPage();
+          }
+          dirty = shard.makeRoom(shard.capacity - 1, victims);
+          if (dirty.isEmpty()) {
+            if (shard.frames.size() >= shard.capacity) {
+              throw new PageException("every page in the buffer pool shard for page "
+                                      + vPageNum + " is pinned");
+            }
+            Frame frame = new Frame(vPageNum, page);
+            shard.frames.put(vPageNum, frame);
+            shard.policy.add(frame);
+            return null;
+          }
+        }
+        shard.flush(dirty);
+      }
+    } finally {
+      evicted(victims);
+    }
+    return this.successor.putIfAbsent(vPageNum, page);
+  }
+
+  /**
+   * Changes the number of pages the pool may hold. Growing takes effect
+   * immediately. Shrinking evicts unpinned pages from every shard that is
+   * over its new share, flushing dirty ones first as putIfAbsent does; a
+   * shard whose remaining pages are pinned stays over its share until they
+   * are unpinned and it next has to evict.
+   *
+   * @param capacity the new maximum number of pages cached across all shards
+   */
+  public void setCapacity(int capacity) {
+    checkCapacity(shards.length, capacity);
+    this.capacity = capacity;
+    for (int i = 0; i < shards.length; i++) {
+      Shard shard = shards[i];
+      List<Page> victims = new ArrayList<Page>();
+      try {
+        while (true) {
+          List<Page> dirty;
+          synchronized (shard) {
+            shard.capacity = shardCapacity(i, capacity);
+            dirty = shard.makeRoom(shard.capacity, victims);
+            if (dirty.isEmpty()) {
+              shard.policy.setCapacity(shard.capacity);
+              break;
+            }
+          }
+          shard.flush(dirty);
+        }
+      } finally {
+        evicted(victims);
+      }
+    }
+  }
+
+  /**
+   * Hands pages the pool evicted back to their stores, without any shard
+   * lock held.
+   */
+  private static void evicted(List<Page> victims) {
+    for (Page page : victims) {
+      page.evicted();
+    }
+  }
+
+  /**
+   * Flushes the dirty pages among the next perShard pages each shard's policy
+   * would evict, so that evicting them later doesn't have to write them back
+   * on the fetching thread. The candidates are chosen with the shard lock
+   * held but flushed without it.
+   *
+   * @param perShard the number of eviction candidates to look at per shard
+   * @return the number of pages flushed
+   */
+  public int flushEvictionCandidates(int perShard) {
+    int numFlushed = 0;
+    for (Shard shard : shards) {
+      List<Frame> candidates;
+      synchronized (shard) {
+        candidates = shard.policy.evictionCandidates(perShard);
+      }
+      for (Frame frame : candidates) {
+        Page page = frame.getPage();
+        if (page.isDirty() && page.isDurable()) {
+          page.flush();
+          shard.backgroundFlushes.increment();
+          numFlushed++;
+        }
+      }
+    }
+    return numFlushed;
+  }
+
+  /**
+   * Drops vPageNum from the pool without flushing it.
+   *
+   * @param vPageNum the virtual page number to drop
+   * @return the page that was cached, or null if there was none
+   */
+  public Page remove(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      if (this.successor == null) {
+        Frame frame = shard.frames.remove(vPageNum);
+        if (frame == null) {
+          return null;
+        }
+        shard.policy.remove(frame);
+        return frame.getPage();
+      }
+    }
+    return this.successor.remove(vPageNum);
+  }
+
+  /**
+   * Drops every page whose virtual page number matches filter without
+   * flushing them.
+   *
+   * @param filter selects the virtual page numbers to drop
+   * @return the pages that were dropped
+   */
+  public List<Page> removeAll(LongPredicate filter) {
+    List<Page> removed = new ArrayList<Page>();
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        if (this.successor != null) {
+          // Drained since the shards before this one were searched.
+          removed.addAll(this.successor.removeAll(filter));
+          return removed;
+        }
+        Iterator<Frame> iter = shard.frames.values().iterator();
+        while (iter.hasNext()) {
+          Frame frame = iter.next();
+          if (filter.test(frame.getVirtualPageNum())) {
+            iter.remove();
+            shard.policy.remove(frame);
+            removed.add(frame.getPage());
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Moves every page of this pool into other, a new pool that nothing uses
+   * yet, and forwards every later call on this pool to other. Every shard
+   * lock of both pools is held while the pages move, so a page can't be
+   * loaded a second time in the meantime, and a fetch that started on this
+   * pool ends up in other. Nothing is flushed or evicted: a shard of other
+   * that gets more pages than its share stays over it until it next has to
+   * evict, as after shrinking with setCapacity.
+   *
+   * @param other the pool to move the pages into
+   * @throws IllegalArgumentException if other already holds pages
+   */
+  public void drainTo(BufferPool other) {
+    if (other.size() != 0 || other.successor != null) {
+      throw new IllegalArgumentException("can only drain a buffer pool into a new one");
+    }
+    withShardsLocked(this.shards, 0, () -> withShardsLocked(other.shards, 0, () -> {
+      // Make room in the policies of the shards that get more than their
+      // share first.
+      int[] sizes = new int[other.shards.length];
+      for (Shard shard : this.shards) {
+        for (long vPageNum : shard.frames.keySet()) {
+          sizes[other.shardIndex(vPageNum)]++;
+        }
+      }
+      for (int i = 0; i < sizes.length; i++) {
+        if (sizes[i] > other.shards[i].capacity) {
+          other.shards[i].policy.setCapacity(sizes[i]);
+        }
+      }
+      for (Shard shard : this.shards) {
+        for (Frame frame : shard.frames.values()) {
+          shard.policy.remove(frame);
+          Shard target = other.shardFor(frame.getVirtualPageNum());
+          Frame moved = new Frame(frame.getVirtualPageNum(), frame.getPage());
+          target.frames.put(moved.getVirtualPageNum(), moved);
+          target.policy.add(moved);
+        }
+        shard.frames.clear();
+      }
+      for (Shard target : other.shards) {
+        target.policy.setCapacity(target.capacity);
+      }
+      this.successor = other;
+    }));
+  }
+
+  private static void withShardsLocked(Shard[] shards, int from, Runnable action) {
+    if (from == shards.length) {
+      action.run();
+      return;
+    }
+    synchronized (shards[from]) {
+      withShardsLocked(shards, from + 1, action);
+    }
+  }
+
+  public int getNumShards() {
+    return shards.length;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public EvictionPolicy.Type getPolicyType() {
+    return policyType;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Shard shard : shards) {
+      size += shard.frames.size();
+    }
+    return size;
+  }
+
+  public long getNumHits(int shard) {
+    return shards[shard].hits.sum();
+  }
+
+  public long getNumMisses(int shard) {
+    return shards[shard].misses.sum();
+  }
+
+  public long getNumEvictions(int shard) {
+    return shards[shard].evictions.sum();
+  }
+
+  /**
+   * @return the number of evictions in shard that had to write a dirty page
+   * back on the evicting thread
+   */
+  public long getNumDirtyEvictions(int shard) {
+    return shards[shard].dirtyEvictions.sum();
+  }
+
+  /**
+   * @return the number of pages in shard cleaned by flushEvictionCandidates
+   */
+  public long getNumBackgroundFlushes(int shard) {
+    return shards[shard].backgroundFlushes.sum();
+  }
+
+  private Shard shardFor(long vPageNum) {
+    return shards[shardIndex(vPageNum)];
+  }
+
+  private int shardIndex(long vPageNum) {
+    // Spread the allocator id and page number over the low bits before
+    // picking a shard so consecutive pages of one file land in different
+    // shards.
+    int h = Long.hashCode(vPageNum);
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return Math.floorMod(h, shards.length);
+  }
+
+  /**
+   * A single partition of the pool. frames may be read without a lock, but
+   * frames and policy are only modified with the shard's monitor held.
+   */
+  private static class Shard {
+    private int capacity;
+    private final ConcurrentHashMap<Long, Frame> frames;
+    private final EvictionPolicy policy;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder dirtyEvictions;
+    private final LongAdder backgroundFlushes;
+
+    Shard(int capacity, EvictionPolicy policy) {
+      this.capacity = capacity;
+      this.frames = new ConcurrentHashMap<Long, Frame>(capacity);
+      this.policy = policy;
+      this.hits = new LongAdder();
+      this.misses = new LongAdder();
+      this.evictions = new LongAdder();
+      this.dirtyEvictions = new LongAdder();
+      this.backgroundFlushes = new LongAdder();
+    }
+
+    /**
+     * Evicts pages chosen by the policy until the shard holds at most size
+     * pages, as long as they are clean. A dirty page is returned instead, so
+     * that the caller can flush it without the lock and try again: writing
+     * it back here would hold up every fetch in the shard, and a page taken
+     * out of the pool before it is written back could meanwhile be loaded
+     * again from stale bytes. Must be called with the shard's monitor held.
+     *
+     * @param size the number of pages the shard may hold afterwards
+     * @param victims the list to add the evicted pages to, for the caller to
+     * call Page#evicted on once it has released the lock
+     * @return the dirty pages to flush before trying again; empty if the
+     * shard is down to size, or if every page left is pinned
+     */
+    private List<Page> makeRoom(int size, List<Page> victims) {
+      List<Page> dirty = new ArrayList<Page>();
+      while (frames.size() > size) {
+        // Looking ahead first leaves a dirty victim where the policy keeps
+        // it while it is flushed.
+        Page next = nextVictim();
+        if (next != null && next.needsFlush()) {
+          dirty.add(next);
+          break;
+        }
+        Frame victim = policy.evict();
+        if (victim == null) {
+          break;
+        }
+        Page page = victim.getPage();
+        if (page.needsFlush()) {
+          // Written since the look ahead, or not the frame it predicted.
+          page.revive();
+          policy.reinstate(victim);
+          dirty.add(page);
+          break;
+        }
+        frames.remove(victim.getVirtualPageNum());
+        if (page.takePrefetched()) {
+          PageAllocator.incrementWastedPrefetches();
+        }
+        victims.add(page);
+        evictions.increment();
+      }
+      return dirty;
+    }
+
+    /**
+     * @return the unpinned page the policy would most likely evict next, or
+     * null if it can't tell
+     */
+    private Page nextVictim() {
+      for (Frame frame : policy.evictionCandidates(4)) {
+        if (!frame.getPage().isPinned()) {
+          return frame.getPage();
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Writes back the dirty pages makeRoom chose, without the shard lock.
+     */
+    private void flush(List<Page> dirty) {
+      for (Page page : dirty) {
+        page.flush();
+        dirtyEvictions.increment();
+      }
+    }
+  }
+}
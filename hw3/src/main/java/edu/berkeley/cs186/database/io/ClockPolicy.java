@@ -0,0 +1,123 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CLOCK (second chance) approximation of LRU. Frames sit in a fixed
+ * circular array of slots and a clock hand sweeps over them looking for a
+ * victim:
+ *
+ *   - a hit just sets the frame's reference bit, which needs no lock;
+ *   - when the hand passes a frame whose reference bit is set, the bit is
+ *     cleared and the frame gets a second chance;
+ *   - the first frame the hand finds with a clear reference bit that is not
+ *     pinned is evicted.
+ */
+class ClockPolicy implements EvictionPolicy {
+  private Frame[] slots;
+  private final ArrayDeque<Integer> freeSlots;
+  private int hand;
+  private int size;
+
+  ClockPolicy(int capacity) {
+    this.slots = new Frame[capacity];
+    this.freeSlots = new ArrayDeque<Integer>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      this.freeSlots.add(i);
+    }
+    this.hand = 0;
+    this.size = 0;
+  }
+
+  public void recordAccess(Frame frame) {
+    // Avoid dirtying the cache line of frames that are already marked.
+    if (!frame.referenced) {
+      frame.referenced = true;
+    }
+  }
+
+  public void add(Frame frame) {
+    if (freeSlots.isEmpty()) {
+      throw new PageException("clock has no free slot for page " + frame.getVirtualPageNum());
+    }
+    int slot = freeSlots.poll();
+    frame.slot = slot;
+    frame.referenced = true;
+    slots[slot] = frame;
+    size++;
+  }
+
+  public void reinstate(Frame frame) {
+    // Back in a free slot with its reference bit set, which gives it one more
+    // sweep to be flushed in.
+    add(frame);
+  }
+
+  public void remove(Frame frame) {
+    if (frame.slot < 0 || slots[frame.slot] != frame) {
+      return;
+    }
+    slots[frame.slot] = null;
+    freeSlots.add(frame.slot);
+    frame.slot = -1;
+    size--;
+  }
+
+  public List<Frame> evictionCandidates(int n) {
+    // The unreferenced frames ahead of the hand go first.
+    List<Frame> candidates = new ArrayList<Frame>(n);
+    for (int i = 0; i < slots.length && candidates.size() < n; i++) {
+      Frame frame = slots[(hand + i) % slots.length];
+      if (frame != null && !frame.referenced) {
+        candidates.add(frame);
+      }
+    }
+    return candidates;
+  }
+
+  public void setCapacity(int capacity) {
+    // Pack the tracked frames into the front of a new ring, which never
+    // shrinks below the number of frames still being tracked.
+    Frame[] newSlots = new Frame[Math.max(capacity, size)];
+    int next = 0;
+    for (Frame frame : slots) {
+      if (frame != null) {
+        frame.slot = next;
+        newSlots[next++] = frame;
+      }
+    }
+    freeSlots.clear();
+    for (int i = next; i < newSlots.length; i++) {
+      freeSlots.add(i);
+    }
+    slots = newSlots;
+    hand = 0;
+  }
+
+  public Frame evict() {
+    if (size == 0) {
+      return null;
+    }
+    // The first sweep clears every reference bit it passes, so the hand finds
+    // a victim within two sweeps unless concurrent hits keep re-marking
+    // frames behind it or every frame is pinned. After that, take any
+    // unpinned frame.
+    for (int i = 0; i < 3 * slots.length; i++) {
+      Frame frame = slots[hand];
+      hand = (hand + 1) % slots.length;
+      if (frame == null) {
+        continue;
+      }
+      boolean secondChance = frame.referenced && i < 2 * slots.length;
+      frame.referenced = false;
+      if (secondChance || !frame.getPage().release()) {
+        continue;
+      }
+      remove(frame);
+      return frame;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,84 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.List;
+
+/**
+ * Decides which Frame of a BufferPool shard to evict when the shard is full.
+ *
+ * Every shard owns one policy instance. add, remove, and evict are only ever
+ * called with the shard lock held. recordAccess is called on every cache hit
+ * WITHOUT the shard lock held, so policies that want lock-free hits (see
+ * ClockPolicy) must make it safe to call concurrently with the other methods.
+ */
+public interface EvictionPolicy {
+  enum Type {
+    LRU,
+    CLOCK,
+    TWO_QUEUE
+  }
+
+  /**
+   * Record that frame was just read from the pool.
+   */
+  void recordAccess(Frame frame);
+
+  /**
+   * Start tracking a frame that was just inserted into the pool. The shard
+   * never holds more frames than the capacity the policy was created with.
+   */
+  void add(Frame frame);
+
+  /**
+   * Stop tracking a frame that was removed from the pool for some reason
+   * other than eviction.
+   */
+  void remove(Frame frame);
+
+  /**
+   * Peek at the frames this policy would evict next, in roughly the order it
+   * would evict them, without changing any state. Called with the shard lock
+   * held, so that the background flusher can clean them before they are
+   * evicted.
+   *
+   * @param n the maximum number of frames to return
+   * @return up to n frames that are next in line for eviction
+   */
+  List<Frame> evictionCandidates(int n);
+
+  /**
+   * Change the number of frames the policy may be asked to track. When
+   * shrinking, the shard evicts down to the new capacity first where it can;
+   * frames it could not evict because they are pinned are still tracked.
+   */
+  void setCapacity(int capacity);
+
+  /**
+   * Choose a frame to evict and stop tracking it. Frames whose page is pinned
+   * are never chosen; a policy claims its victim with Page#release, which
+   * fails if the page is pinned.
+   *
+   * @return the victim, or null if every frame the policy tracks is pinned
+   */
+  Frame evict();
+
+  /**
+   * Start tracking a frame that evict() returned again, because the shard
+   * decided to keep it after all (it was dirty, see BufferPool#putIfAbsent).
+   * Unlike add, this doesn't count as a new reference to the page.
+   */
+  void reinstate(Frame frame);
+
+  /**
+   * @param type the kind of policy to create
+   * @param capacity the maximum number of frames the policy will track
+   * @return a new, empty policy
+   */
+  static EvictionPolicy create(Type type, int capacity) {
+    switch (type) {
+      case LRU: return new LRUPolicy();
+      case CLOCK: return new ClockPolicy(capacity);
+      case TWO_QUEUE: return new TwoQueuePolicy(capacity);
+      default: throw new IllegalArgumentException("Unhandled policy " + type);
+    }
+  }
+}
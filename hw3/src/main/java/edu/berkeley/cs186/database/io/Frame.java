@@ -0,0 +1,38 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * A slot of the BufferPool holding one cached Page together with the
+ * bookkeeping the pool's EvictionPolicy needs to choose victims.
+ */
+public final class Frame {
+  private final long vPageNum;
+  private final Page page;
+
+  // Set on every cache hit and cleared by policies that give frames a second
+  // chance (see ClockPolicy). Volatile so hits can set it without a lock.
+  volatile boolean referenced;
+
+  // The position of this frame in a policy's internal structures, if the
+  // policy needs one. Only read and written with the shard lock held.
+  int slot;
+
+  // A policy-defined sequence number, e.g. when the frame entered a queue.
+  // Only read and written under the policy's own synchronization.
+  long stamp;
+
+  Frame(long vPageNum, Page page) {
+    this.vPageNum = vPageNum;
+    this.page = page;
+    this.referenced = true;
+    this.slot = -1;
+    this.stamp = 0;
+  }
+
+  public long getVirtualPageNum() {
+    return this.vPageNum;
+  }
+
+  public Page getPage() {
+    return this.page;
+  }
+}
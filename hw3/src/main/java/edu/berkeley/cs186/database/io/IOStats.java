@@ -0,0 +1,262 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.berkeley.cs186.database.common.BacktrackingIterator;
+
+/**
+ * Counts the page I/O of one PageAllocator, transaction, query operator, or
+ * anything else that wants to know how much I/O it caused:
+ *
+ *   - fetches: calls to PageAllocator#fetchPage, hit or miss
+ *   - misses: pages brought into memory, by mapping or reading them
+ *   - flushes: dirty pages forced or written back to the file
+ *   - bytes mapped: bytes mapped or read into memory by those misses
+ *
+ * Every PageAllocator counts its own I/O (see PageAllocator#getIOStats).
+ * Other IOStats count the I/O done by a thread while they track it:
+ *
+ *   IOStats stats = new IOStats();
+ *   IOStats.Scope scope = stats.track();
+ *   try {
+ *     table.addRecord(values);
+ *   } finally {
+ *     scope.close();
+ *   }
+ *   IOStats.Snapshot io = stats.snapshot();
+ *
+ * Scopes may be nested, and every IOStats tracking the thread counts the
+ * I/O. The counters are LongAdders, so threads counting into the same
+ * IOStats don't contend.
+ */
+public class IOStats {
+  // Every page I/O of every allocator.
+  private static final IOStats total = new IOStats();
+  private static final ThreadLocal<ArrayList<IOStats>> tracking = new ThreadLocal<ArrayList<IOStats>>() {
+    @Override
+    protected ArrayList<IOStats> initialValue() {
+      return new ArrayList<IOStats>();
+    }
+  };
+
+  private final LongAdder fetches = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder bytesMapped = new LongAdder();
+
+  /**
+   * Counts the I/O this thread does until the returned scope is closed. If
+   * this IOStats is already tracking the thread, the I/O is still only
+   * counted once, and closing the returned scope does nothing.
+   */
+  public Scope track() {
+    ArrayList<IOStats> stats = tracking.get();
+    if (stats.contains(this)) {
+      return new Scope(stats, null);
+    }
+    stats.add(this);
+    return new Scope(stats, this);
+  }
+
+  /**
+   * Wraps iter so that the I/O done by its hasNext and next is counted here.
+   */
+  public <T> Iterator<T> track(final Iterator<T> iter) {
+    return new Iterator<T>() {
+      public boolean hasNext() {
+        Scope scope = track();
+        try {
+          return iter.hasNext();
+        } finally {
+          scope.close();
+        }
+      }
+
+      public T next() {
+        Scope scope = track();
+        try {
+          return iter.next();
+        } finally {
+          scope.close();
+        }
+      }
+
+      public void remove() {
+        iter.remove();
+      }
+    };
+  }
+
+  /**
+   * Wraps iter like track(Iterator), and counts the I/O done by its mark and
+   * reset here too.
+   */
+  public <T> BacktrackingIterator<T> track(final BacktrackingIterator<T> iter) {
+    final Iterator<T> tracked = track((Iterator<T>) iter);
+    return new BacktrackingIterator<T>() {
+      public boolean hasNext() {
+        return tracked.hasNext();
+      }
+
+      public T next() {
+        return tracked.next();
+      }
+
+      public void remove() {
+        iter.remove();
+      }
+
+      public void mark() {
+        Scope scope = track();
+        try {
+          iter.mark();
+        } finally {
+          scope.close();
+        }
+      }
+
+      public void reset() {
+        Scope scope = track();
+        try {
+          iter.reset();
+        } finally {
+          scope.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the counts so far
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(fetches.sum(), misses.sum(), flushes.sum(), bytesMapped.sum());
+  }
+
+  /**
+   * @return the counts of every page I/O of every allocator so far
+   */
+  public static Snapshot totalSnapshot() {
+    return total.snapshot();
+  }
+
+  static void recordFetch(IOStats stats) {
+    total.fetches.increment();
+    if (stats != null) {
+      stats.fetches.increment();
+    }
+    for (IOStats tracker : tracking.get()) {
+      tracker.fetches.increment();
+    }
+  }
+
+  static void recordMiss(IOStats stats, long numBytesMapped) {
+    total.misses.increment();
+    total.bytesMapped.add(numBytesMapped);
+    if (stats != null) {
+      stats.misses.increment();
+      stats.bytesMapped.add(numBytesMapped);
+    }
+    for (IOStats tracker : tracking.get()) {
+      tracker.misses.increment();
+      tracker.bytesMapped.add(numBytesMapped);
+    }
+  }
+
+  static void recordMapping(IOStats stats, long numBytesMapped) {
+    total.bytesMapped.add(numBytesMapped);
+    if (stats != null) {
+      stats.bytesMapped.add(numBytesMapped);
+    }
+    for (IOStats tracker : tracking.get()) {
+      tracker.bytesMapped.add(numBytesMapped);
+    }
+  }
+
+  static void recordFlush(IOStats stats) {
+    total.flushes.increment();
+    if (stats != null) {
+      stats.flushes.increment();
+    }
+    for (IOStats tracker : tracking.get()) {
+      tracker.flushes.increment();
+    }
+  }
+
+  /**
+   * Ends one track() call. Closing a scope more than once has no effect.
+   */
+  public static class Scope implements AutoCloseable {
+    private final ArrayList<IOStats> stats;
+    private IOStats tracker;
+
+    private Scope(ArrayList<IOStats> stats, IOStats tracker) {
+      this.stats = stats;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void close() {
+      if (tracker == null) {
+        return;
+      }
+      // Scopes usually close in the reverse order they were opened in.
+      for (int i = stats.size() - 1; i >= 0; i--) {
+        if (stats.get(i) == tracker) {
+          stats.remove(i);
+          break;
+        }
+      }
+      tracker = null;
+    }
+  }
+
+  /**
+   * The counts of an IOStats at one point in time.
+   */
+  public static class Snapshot {
+    private final long numFetches;
+    private final long numMisses;
+    private final long numFlushes;
+    private final long numBytesMapped;
+
+    public Snapshot(long numFetches, long numMisses, long numFlushes, long numBytesMapped) {
+      this.numFetches = numFetches;
+      this.numMisses = numMisses;
+      this.numFlushes = numFlushes;
+      this.numBytesMapped = numBytesMapped;
+    }
+
+    public long getNumFetches() {
+      return numFetches;
+    }
+
+    public long getNumMisses() {
+      return numMisses;
+    }
+
+    public long getNumFlushes() {
+      return numFlushes;
+    }
+
+    public long getNumBytesMapped() {
+      return numBytesMapped;
+    }
+
+    /**
+     * @return the I/O counted between earlier and this snapshot
+     */
+    public Snapshot minus(Snapshot earlier) {
+      return new Snapshot(numFetches - earlier.numFetches, numMisses - earlier.numMisses,
+                          numFlushes - earlier.numFlushes, numBytesMapped - earlier.numBytesMapped);
+    }
+
+    @Override
+    public String toString() {
+      return "fetches: " + numFetches + ", misses: " + numMisses + ", flushes: "
+             + numFlushes + ", bytes mapped: " + numBytesMapped;
+    }
+  }
+}
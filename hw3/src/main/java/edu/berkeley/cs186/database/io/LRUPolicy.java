@@ -0,0 +1,62 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Evicts the least recently used frame. Like LRUCache, the recency order is
+ * kept in an access-ordered LinkedHashMap, so every hit relinks the map and
+ * has to take the policy's lock.
+ */
+class LRUPolicy implements EvictionPolicy {
+  private final LinkedHashMap<Long, Frame> frames;
+
+  LRUPolicy() {
+    this.frames = new LinkedHashMap<Long, Frame>(16, 0.75f, true);
+  }
+
+  public synchronized void recordAccess(Frame frame) {
+    frames.get(frame.getVirtualPageNum());
+  }
+
+  public synchronized void add(Frame frame) {
+    frames.put(frame.getVirtualPageNum(), frame);
+  }
+
+  public synchronized void remove(Frame frame) {
+    frames.remove(frame.getVirtualPageNum());
+  }
+
+  public synchronized List<Frame> evictionCandidates(int n) {
+    List<Frame> candidates = new ArrayList<Frame>(n);
+    Iterator<Frame> iter = frames.values().iterator();
+    while (candidates.size() < n && iter.hasNext()) {
+      candidates.add(iter.next());
+    }
+    return candidates;
+  }
+
+  public void reinstate(Frame frame) {
+    // Relinked as the most recently used frame, which at least keeps it from
+    // being chosen again while it is flushed.
+    add(frame);
+  }
+
+  public void setCapacity(int capacity) {
+    // An LRU list has no fixed size.
+  }
+
+  public synchronized Frame evict() {
+    Iterator<Frame> iter = frames.values().iterator();
+    while (iter.hasNext()) {
+      Frame victim = iter.next();
+      if (victim.getPage().release()) {
+        iter.remove();
+        return victim;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,132 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The PageStore.Type.MMAP store. Pages are memory-mapped views of the file,
+ * either mapped one at a time or sliced out of large mapped segments (see
+ * MappedSegments). Writes through a mapping are seen by the file at once, so
+ * there is nothing to discard or write back.
+ *
+ * Mappings are released explicitly rather than left to the garbage
+ * collector. A page mapped on its own is unmapped shortly after the buffer
+ * pool evicts it: evicted pages wait in a short global queue and are
+ * unmapped once retiredMappings more pages have been evicted after them.
+ * Readers don't pin pages, so a page is only unmapped there if no read,
+ * write or Page.Access is in progress through it (see Page#unmapIfUnused); a
+ * page still in use goes back to the end of the queue. An evicted page used after it was unmapped maps itself again and
+ * rejoins the queue. Closing the store unmaps every page it handed out that
+ * is still reachable, drops them from the queue, and unmaps every segment;
+ * their pages can't be used again.
+ */
+class MappedPageStore implements PageStore {
+  private static final int retiredMappings = 64;
+  private static final ArrayDeque<Page> retired = new ArrayDeque<Page>();
+
+  private final FileChannel fc;
+  private final IOStats stats;
+  private final PageChecksums checksums;
+  private MappedSegments segments;
+  // Every page handed out and not yet garbage collected, to unmap on close.
+  private final Set<Page> pages;
+
+  /**
+   * @param fc the file to map
+   * @param segmentSize the size in bytes of the segments to map, or 0 to map
+   * every page on its own
+   * @param maxNumBlocks the largest number of blocks the file may ever hold
+   * @param stats the I/O counters of the store's allocator
+   * @param checksums the checksums of the file's data pages, or null
+   */
+  MappedPageStore(FileChannel fc, int segmentSize, long maxNumBlocks, IOStats stats,
+                  PageChecksums checksums) {
+    this.fc = fc;
+    this.stats = stats;
+    this.checksums = checksums;
+    if (segmentSize > 0) {
+      this.segments = new MappedSegments(fc, segmentSize, maxNumBlocks, stats, checksums);
+    }
+    this.pages = Collections.newSetFromMap(new WeakHashMap<Page, Boolean>());
+  }
+
+  public Page page(int blockNum, int pageNum, boolean durable) {
+    Page page;
+    if (this.segments != null) {
+      page = this.segments.page(blockNum, pageNum, durable);
+    } else {
+      page = new Page(this.fc, blockNum, pageNum, durable, this.stats, this.checksums);
+    }
+    synchronized (this.pages) {
+      this.pages.add(page);
+    }
+    return page;
+  }
+
+  public void discard(int firstBlock, int numBlocks) {}
+
+  public void close() {
+    List<Page> live;
+    synchronized (this.pages) {
+      live = new ArrayList<Page>(this.pages);
+      this.pages.clear();
+    }
+    for (Page page : live) {
+      page.unmap();
+    }
+    Set<Page> closed = Collections.newSetFromMap(new IdentityHashMap<Page, Boolean>());
+    closed.addAll(live);
+    synchronized (retired) {
+      retired.removeIf(closed::contains);
+    }
+    if (this.segments != null) {
+      this.segments.close();
+      this.segments = null;
+    }
+  }
+
+  /**
+   * Queues an evicted page with a mapping of its own to be unmapped, and
+   * unmaps the page that has been queued longest if the queue is full. That
+   * page is queued again if it is still being read.
+   */
+  static void retire(Page page) {
+    Page oldest = null;
+    synchronized (retired) {
+      retired.addLast(page);
+      if (retired.size() > retiredMappings) {
+        oldest = retired.pollFirst();
+      }
+    }
+    if (oldest != null && !oldest.unmapIfUnused()) {
+      synchronized (retired) {
+        retired.addLast(oldest);
+      }
+    }
+  }
+
+  /**
+   * Unmaps every queued page that nothing is using, so that tests can
+   * compare the number of live mappings with an exact baseline.
+   */
+  static void unmapRetired() {
+    List<Page> pages;
+    synchronized (retired) {
+      pages = new ArrayList<Page>(retired);
+      retired.clear();
+    }
+    for (Page page : pages) {
+      if (!page.unmapIfUnused()) {
+        synchronized (retired) {
+          retired.addLast(page);
+        }
+      }
+    }
+  }
+}
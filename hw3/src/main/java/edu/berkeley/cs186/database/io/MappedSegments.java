@@ -0,0 +1,92 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Maps a file into memory in large fixed-size segments, each mapped at most
+ * once, and hands out Pages that are slices of those segments. Compared to
+ * mapping every page on its own, a cold scan makes one mmap call per segment
+ * instead of one per page, and the pages share their segment's
+ * MappedByteBuffer.
+ *
+ * Mapping a segment extends the file to the end of the segment, so files
+ * opened this way grow in segmentSize steps (as sparse files on most file
+ * systems). The on-disk layout of the pages is unchanged.
+ *
+ * Segments stay mapped until close(), since any of their pages may still be
+ * in use.
+ */
+class MappedSegments {
+  private final FileChannel fc;
+  private final int blocksPerSegment;
+  private final MappedByteBuffer[] segments;
+  private final IOStats stats;
+  private final PageChecksums checksums;
+
+  /**
+   * @param fc the file to map
+   * @param segmentSize the size of a segment in bytes, a multiple of Page.pageSize
+   * @param numBlocks the largest number of blocks the file may ever hold
+   * @param stats the I/O counters to count mapped bytes in
+   * @param checksums the checksums of the file's data pages, or null
+   */
+  MappedSegments(FileChannel fc, int segmentSize, long numBlocks, IOStats stats,
+                 PageChecksums checksums) {
+    if (segmentSize <= 0 || segmentSize % Page.pageSize != 0) {
+      throw new IllegalArgumentException("segment size must be a positive multiple of " + Page.pageSize);
+    }
+    this.fc = fc;
+    this.stats = stats;
+    this.checksums = checksums;
+    this.blocksPerSegment = segmentSize / Page.pageSize;
+    this.segments = new MappedByteBuffer[(int) ((numBlocks + blocksPerSegment - 1) / blocksPerSegment)];
+  }
+
+  /**
+   * Creates a Page over block blockNum of the file.
+   *
+   * @param blockNum the block in the file for the page
+   * @param pageNum the virtual page number of the page
+   * @param durable whether flushing the page should force it to disk
+   * @return a Page that is a slice of the segment holding blockNum
+   */
+  Page page(int blockNum, int pageNum, boolean durable) {
+    int segmentIndex = blockNum / blocksPerSegment;
+    if (segmentIndex >= segments.length) {
+      throw new PageException("block " + blockNum + " is past the end of the file");
+    }
+    int offset = (blockNum % blocksPerSegment) * Page.pageSize;
+    return new Page(segment(segmentIndex), offset, blockNum, pageNum, durable, stats, checksums);
+  }
+
+  private synchronized MappedByteBuffer segment(int segmentIndex) {
+    MappedByteBuffer segment = segments[segmentIndex];
+    if (segment == null) {
+      long position = (long) segmentIndex * blocksPerSegment * Page.pageSize;
+      try {
+        segment = fc.map(FileChannel.MapMode.READ_WRITE, position, (long) blocksPerSegment * Page.pageSize);
+      } catch (IOException e) {
+        throw new PageException("Can't mmap segment " + segmentIndex + " ; " + e.getMessage());
+      }
+      PageAllocator.incrementLiveMappings();
+      IOStats.recordMapping(stats, (long) blocksPerSegment * Page.pageSize);
+      segments[segmentIndex] = segment;
+    }
+    return segment;
+  }
+
+  /**
+   * Unmaps every segment. The pages sliced out of the segments must have
+   * been unmapped first.
+   */
+  synchronized void close() {
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] != null && Unmapper.unmap(segments[i])) {
+        PageAllocator.decrementLiveMappings();
+      }
+      segments[i] = null;
+    }
+  }
+}
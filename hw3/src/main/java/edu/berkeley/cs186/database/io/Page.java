@@ -4,6 +4,8 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
@@ -13,10 +15,44 @@ import java.nio.ByteBuffer;
 public class Page {
   public static final int pageSize = 4096;
 
-  private MappedByteBuffer pageData;
+  // Null once unmap() has released the page's mapping; see data().
+  private volatile ByteBuffer pageData;
+  // The mapping that flush() forces: pageData itself, or the segment that
+  // pageData is a slice of. Null for pages of a PreadPageStore, which
+  // flush() writes back through the store instead.
+  private volatile MappedByteBuffer mapping;
+  private PreadPageStore store;
+  // The file a page with its own mapping was mapped from, to map it again
+  // after unmap().
+  private FileChannel fc;
+  private int blockNum;
+  // The I/O counters of the page's allocator, if any.
+  private IOStats stats;
+  // The checksums flush() records and the constructors verify. Null unless
+  // this is a data page of an allocator with checksums.
+  private PageChecksums checksums;
   private int pageNum;
   private boolean durable;
 
+  // The number of outstanding pin() calls, or -1 once the buffer pool has
+  // evicted this page. An evicted page can never be pinned again.
+  private final AtomicInteger pinCount = new AtomicInteger(0);
+
+  // The number of reads and writes in progress through the page's methods
+  // and open Accesses, or -1 while unmapIfUnused() or unmap() releases the
+  // mapping; see startAccess().
+  private final AtomicInteger users = new AtomicInteger(0);
+
+  // Whether unmap() has released the page for good.
+  private volatile boolean closed;
+
+  // Whether the page may have been modified since it was last flushed.
+  private volatile boolean dirty;
+
+  // Whether the page was read ahead by a prefetch and nobody has fetched it
+  // since.
+  private final AtomicBoolean prefetched = new AtomicBoolean(false);
+
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
    *
@@ -29,23 +65,238 @@ public class Page {
   }
 
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
+    this(fc, blockNum, pageNum, durable, null, null);
+  }
+
+  Page(FileChannel fc, int blockNum, int pageNum, boolean durable, IOStats stats,
+       PageChecksums checksums) {
     this.pageNum = pageNum;
     this.durable = durable;
-    PageAllocator.incrementCacheMisses();
+    this.stats = stats;
+    this.fc = fc;
+    this.blockNum = blockNum;
+    map();
+    verify(checksums);
+  }
+
+  private void map() {
+    IOStats.recordMiss(stats, Page.pageSize);
+    MappedByteBuffer mapping;
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      mapping = fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum)*Page.pageSize, Page.pageSize);
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
+    PageAllocator.incrementLiveMappings();
+    this.mapping = mapping;
+    this.pageData = mapping;
   }
 
-  public ByteBuffer getByteBuffer() {
-    pageData.position(0);
-    return pageData;
+  /**
+   * Create a new page over the Page.pageSize bytes at offset in an already
+   * mapped segment of a file.
+   *
+   * @param segment the mapped segment holding this page
+   * @param offset the offset of this page in segment
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flush() should force the page to disk
+   * @param stats the I/O counters of the page's allocator
+   * @param checksums the checksums of the file's data pages, or null
+   */
+  Page(MappedByteBuffer segment, int offset, int blockNum, int pageNum,
+       boolean durable, IOStats stats, PageChecksums checksums) {
+    this.blockNum = blockNum;
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.stats = stats;
+    // The segment's bytes were counted when it was mapped.
+    IOStats.recordMiss(stats, 0);
+    ByteBuffer view = segment.duplicate();
+    view.position(offset);
+    view.limit(offset + Page.pageSize);
+    this.pageData = view.slice();
+    this.mapping = segment;
+    verify(checksums);
   }
 
   /**
-   * Reads num bytes from offset position into buf.
+   * Create a new page over a frame holding a copy of block blockNum that
+   * flush() writes back through store.
+   *
+   * @param store the store that read the page
+   * @param frame a Page.pageSize buffer holding the block's bytes
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flush() should force the page to disk
+   * @param stats the I/O counters of the page's allocator
+   * @param checksums the checksums of the file's data pages, or null
+   */
+  Page(PreadPageStore store, ByteBuffer frame, int blockNum, int pageNum, boolean durable,
+       IOStats stats, PageChecksums checksums) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.stats = stats;
+    this.store = store;
+    this.blockNum = blockNum;
+    this.pageData = frame;
+    verify(checksums);
+  }
+
+  /**
+   * Checks the bytes of a data page just brought into memory against its
+   * checksum, and keeps checksums for flush() to record new ones.
+   */
+  private void verify(PageChecksums checksums) {
+    if (checksums != null && this.pageNum >= 0) {
+      checksums.verify(this.blockNum, this.pageNum, this.pageData);
+      this.checksums = checksums;
+    }
+  }
+
+  /**
+   * Opens the page's bytes for the caller to read and write through
+   * Access#getByteBuffer, until the access is closed. The page is marked
+   * dirty, since it can't tell whether the caller writes; callers that only
+   * read should use readAccess. The page's mapping is not released while an
+   * access is open, so close it in a finally block, and don't keep the
+   * buffer afterwards:
+   *
+   *   Page.Access access = page.access();
+   *   try {
+   *     access.getByteBuffer().putInt(0, 186);
+   *   } finally {
+   *     access.close();
+   *   }
+   *
+   * @return an open access to the page's bytes
+   */
+  public Access access() {
+    markDirty();
+    ByteBuffer data = startAccess().duplicate();
+    data.position(0);
+    return new Access(data);
+  }
+
+  /**
+   * Opens the page's bytes for the caller to read, like access, without
+   * marking the page dirty.
+   *
+   * @return an open access to a read-only buffer over the page's bytes
+   */
+  public Access readAccess() {
+    ByteBuffer data = startAccess().asReadOnlyBuffer();
+    data.position(0);
+    return new Access(data);
+  }
+
+  /**
+   * A scope in which a caller may use a buffer over the page's bytes, see
+   * access. Closing an access more than once has no effect.
+   */
+  public class Access implements AutoCloseable {
+    private ByteBuffer data;
+
+    private Access(ByteBuffer data) {
+      this.data = data;
+    }
+
+    /**
+     * @return a buffer over the page's bytes, positioned at the start of the
+     * page the first time
+     */
+    public ByteBuffer getByteBuffer() {
+      if (this.data == null) {
+        throw new PageException("access to page " + pageNum + " was closed");
+      }
+      return this.data;
+    }
+
+    public void close() {
+      if (this.data != null) {
+        this.data = null;
+        endAccess();
+      }
+    }
+  }
+
+  /**
+   * Returns pageData, mapping the page again if unmap() released its
+   * mapping while the page was still in use. A page the buffer pool has
+   * already evicted goes back into MappedPageStore's queue, so that the new
+   * mapping is released again too.
+   */
+  private ByteBuffer data() {
+    ByteBuffer data = this.pageData;
+    if (data != null) {
+      return data;
+    }
+    boolean remapped;
+    synchronized (this) {
+      remapped = mapIfUnmapped();
+      data = this.pageData;
+    }
+    if (remapped && this.pinCount.get() < 0) {
+      MappedPageStore.retire(this);
+    }
+    return data;
+  }
+
+  /**
+   * Maps the page again if unmapIfUnused() released its mapping. Called
+   * with the page's monitor held.
+   *
+   * @return whether the page was mapped again
+   * @throws PageException if the page's allocator was closed
+   */
+  private boolean mapIfUnmapped() {
+    if (this.pageData != null) {
+      return false;
+    }
+    if (this.closed || this.fc == null || !this.fc.isOpen()) {
+      throw new PageException("page " + pageNum + " was unmapped when its allocator was closed");
+    }
+    map();
+    return true;
+  }
+
+  /**
+   * Returns pageData like data(), and keeps unmapIfUnused() from releasing
+   * it until the matching endAccess().
+   */
+  private ByteBuffer startAccess() {
+    acquire();
+    try {
+      return data();
+    } catch (RuntimeException e) {
+      endAccess();
+      throw e;
+    }
+  }
+
+  /**
+   * Counts the caller as a user of the page's mapping, waiting while
+   * unmapIfUnused() or unmap() releases it. Must be matched by endAccess().
+   */
+  private void acquire() {
+    while (true) {
+      int count = this.users.get();
+      if (count >= 0 && this.users.compareAndSet(count, count + 1)) {
+        return;
+      }
+      if (count < 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  private void endAccess() {
+    this.users.decrementAndGet();
+  }
+
+  /**
+   * Reads num bytes from offset position into buf. This is safe to call
+   * from several threads at once.
    *
    * @param position the offset in the page to read from
    * @param num the number of bytes to read
@@ -58,8 +309,13 @@ public class Page {
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    try {
+      ByteBuffer data = startAccess().duplicate();
+      data.position(position);
+      data.get(buf, 0, num);
+    } finally {
+      endAccess();
+    }
   }
 
   /**
@@ -97,7 +353,11 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
-    return pageData.get(position);
+    try {
+      return startAccess().get(position);
+    } finally {
+      endAccess();
+    }
   }
 
   /**
@@ -120,8 +380,14 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    markDirty();
+    try {
+      ByteBuffer data = startAccess().duplicate();
+      data.position(position);
+      data.put(buf, 0, num);
+    } finally {
+      endAccess();
+    }
   }
 
   /**
@@ -134,7 +400,12 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
-    pageData.put(position, b);
+    markDirty();
+    try {
+      startAccess().put(position, b);
+    } finally {
+      endAccess();
+    }
   }
 
   /**
@@ -165,13 +436,246 @@ public class Page {
     this.writeBytes(0, Page.pageSize, zeros);
   }
 
+  private void markDirty() {
+    if (!this.dirty) {
+      this.dirty = true;
+      if (this.pinCount.get() < 0) {
+        if (this.store != null) {
+          this.store.addStray(this);
+        } else if (this.checksums != null) {
+          // Nothing will flush a mapped page written after its eviction, so
+          // its checksum can't be trusted any more.
+          this.checksums.invalidate(this.blockNum, 1);
+        }
+      }
+    }
+  }
+
   /**
-   * Force the page to disk.
+   * Force the page to disk if it was modified since it was last flushed. A
+   * page that is a slice of a segment forces the whole segment, which writes
+   * back only the segment's dirty pages. A page of a PreadPageStore is
+   * written back even if it is not durable, since its bytes are only a copy,
+   * and is only forced if it is durable. A page with a checksum records its
+   * new checksum first, even if it is not durable, and forces it first if
+   * the page is durable; see PageChecksums for which of them survive a
+   * crash.
    */
   public void flush() {
-    if (this.durable) {
-      PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+    if (this.store != null) {
+      writeBack();
+    } else if (this.dirty && (this.durable || this.checksums != null)) {
+      // Keeps unmapIfUnused() and unmap() from releasing the mapping while it
+      // is being forced.
+      acquire();
+      try {
+        MappedByteBuffer mapping = this.mapping;
+        ByteBuffer data = this.pageData;
+        if (mapping == null || data == null) {
+          // Unmapped, which only happens after a flush; nothing can have been
+          // written since.
+          return;
+        }
+        // Clear the flag first so that a write racing with the force leaves
+        // the page dirty.
+        this.dirty = false;
+        if (this.checksums != null) {
+          this.checksums.record(this.blockNum, data, this.durable);
+        }
+        if (this.durable) {
+          IOStats.recordFlush(stats);
+          mapping.force();
+        }
+      } finally {
+        endAccess();
+      }
+    }
+  }
+
+  /**
+   * Writes a dirty page of a PreadPageStore back to the file, forcing it if
+   * the page is durable.
+   */
+  void writeBack() {
+    if (this.dirty) {
+      this.dirty = false;
+      IOStats.recordFlush(stats);
+      if (this.checksums != null) {
+        this.checksums.record(this.blockNum, this.pageData, this.durable);
+      }
+      this.store.write(this.blockNum, this.pageData, this.durable);
+    }
+  }
+
+  /**
+   * @return whether the page may have been modified since it was last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * @return whether flush() has anything to write: the page's bytes, or a
+   * checksum of them
+   */
+  boolean needsFlush() {
+    return this.dirty && (this.store != null || this.durable || this.checksums != null);
+  }
+
+  boolean isDurable() {
+    return this.durable;
+  }
+
+  void setPrefetched() {
+    this.prefetched.set(true);
+  }
+
+  /**
+   * Clears the prefetched flag.
+   *
+   * @return whether the page was prefetched and not yet fetched
+   */
+  boolean takePrefetched() {
+    return this.prefetched.get() && this.prefetched.compareAndSet(true, false);
+  }
+
+  /**
+   * Pin this page so that the buffer pool will not evict it until it is
+   * unpinned. Every successful pin() must be matched by exactly one unpin().
+   *
+   * @return true if the page was pinned, false if it has already been evicted
+   * (fetch it again from its PageAllocator, see PageAllocator#fetchPinnedPage)
+   */
+  public boolean pin() {
+    while (true) {
+      int count = this.pinCount.get();
+      if (count < 0) {
+        return false;
+      }
+      if (this.pinCount.compareAndSet(count, count + 1)) {
+        if (count == 0) {
+          PageAllocator.incrementNumPinnedPages();
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Release one pin on this page.
+   */
+  public void unpin() {
+    while (true) {
+      int count = this.pinCount.get();
+      if (count <= 0) {
+        throw new PageException("unpin of page " + pageNum + " which is not pinned");
+      }
+      if (this.pinCount.compareAndSet(count, count - 1)) {
+        if (count == 1) {
+          PageAllocator.decrementNumPinnedPages();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return true if this page has at least one outstanding pin
+   */
+  public boolean isPinned() {
+    return this.pinCount.get() > 0;
+  }
+
+  /**
+   * @return the number of outstanding pins on this page
+   */
+  public int getPinCount() {
+    return Math.max(0, this.pinCount.get());
+  }
+
+  /**
+   * Mark this page as evicted unless it is pinned. Called by eviction
+   * policies with the buffer pool shard lock held.
+   *
+   * @return true if the page is not pinned and may be evicted
+   */
+  boolean release() {
+    return this.pinCount.compareAndSet(0, -1) || this.pinCount.get() < 0;
+  }
+
+  /**
+   * Undo release() so that the page can go back into the buffer pool. Only
+   * a PreadPageStore does this, when a page it still remembers is fetched
+   * again.
+   */
+  void revive() {
+    this.pinCount.compareAndSet(-1, 0);
+  }
+
+  /**
+   * Called once the buffer pool has evicted and flushed this page, or once
+   * PageAllocator#freePage has dropped it from the pool. A page with a
+   * mapping of its own hands it to MappedPageStore to be unmapped soon.
+   */
+  void evicted() {
+    if (this.fc != null && this.mapping != null) {
+      MappedPageStore.retire(this);
+    }
+  }
+
+  /**
+   * Unmaps an evicted page's own mapping unless a read, a write or an Access
+   * is in progress through it.
+   *
+   * @return false if a read or write was in progress, so that the caller
+   * should try again later
+   */
+  boolean unmapIfUnused() {
+    MappedByteBuffer unmapped;
+    synchronized (this) {
+      if (this.pageData == null || this.fc == null) {
+        return true;
+      }
+      if (!this.users.compareAndSet(0, -1)) {
+        return false;
+      }
+      unmapped = this.mapping;
+      this.pageData = null;
+      this.mapping = null;
+      this.users.set(0);
+    }
+    if (unmapped != null && Unmapper.unmap(unmapped)) {
+      PageAllocator.decrementLiveMappings();
+    }
+    return true;
+  }
+
+  /**
+   * Releases this page's view of the file when its allocator is closed,
+   * waiting for reads, writes, Accesses and flushes in progress to finish. A
+   * page with its own mapping unmaps it. A slice of a segment only forgets
+   * the segment, which is unmapped by its MappedSegments. Using the page afterwards throws a PageException.
+   */
+  void unmap() {
+    if (this.store != null) {
+      return;
+    }
+    while (!this.users.compareAndSet(0, -1)) {
+      Thread.yield();
+    }
+    MappedByteBuffer unmapped;
+    try {
+      synchronized (this) {
+        this.closed = true;
+        unmapped = this.fc != null ? this.mapping : null;
+        this.pageData = null;
+        this.mapping = null;
+      }
+    } finally {
+      this.users.set(0);
+    }
+    if (unmapped != null && Unmapper.unmap(unmapped)) {
+      PageAllocator.decrementLiveMappings();
     }
   }
 
@@ -8,6 +8,7 @@ import java.nio.ByteOrder;
 import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.NoSuchElementException;
@@ -15,6 +16,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
@@ -23,22 +29,61 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, a sharded buffer pool of cached pages shared
+ * by every PageAllocator, 16GB worth of paging, and virtual page translation.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
+  private static final int defaultBufferPoolSize = 1024;
+  private static final int defaultNumShards = 16;
+  private static final long maxNumBlocks = 2 + (long) numHeaderPages * (Page.pageSize + 1);
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
-  private static AtomicLong numIOs = new AtomicLong(0);
-  private static AtomicLong cacheMisses = new AtomicLong(0);
+  private static volatile BufferPool bufferPool = new BufferPool(defaultNumShards, defaultBufferPoolSize);
+  private static AtomicInteger numPinnedPages = new AtomicInteger(0);
+  private static AtomicLong numLiveMappings = new AtomicLong(0);
+  // 0 maps every page on its own; see setSegmentSize.
+  private static volatile int segmentSize = 0;
+  // See setChecksums.
+  private static volatile boolean checksumPages = false;
+  // 0 forces the master and header pages on every allocPage and freePage;
+  // see setGroupCommitInterval.
+  private static volatile long groupCommitMillis = 0;
+  // Runs group commit syncs and the background flusher.
+  private static ScheduledExecutorService backgroundExecutor;
+  private static ScheduledFuture<?> flusherTask;
+  // 0 turns read-ahead off; see setReadAhead.
+  private static volatile int readAheadPages = 0;
+  private static final int numPrefetchThreads = 2;
+  private static ExecutorService prefetchExecutor;
+  private static AtomicLong numPrefetches = new AtomicLong(0);
+  private static AtomicLong prefetchHits = new AtomicLong(0);
+  private static AtomicLong wastedPrefetches = new AtomicLong(0);
+  private static final ThreadLocal<ByteBuffer> prefetchBuffers =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Page.pageSize));
 
   private Page masterPage;
   private FileChannel fc;
+  private PageStore store;
+  private PageStore.Type storeType;
+  private final IOStats ioStats = new IOStats();
+  // Null if this allocator's data pages have no checksums.
+  private PageChecksums checksums;
+  // In-memory copies of the master page counts and of the header page
+  // bytes (one bit per data page), kept in sync with the file on every
+  // allocPage and freePage. headerBits and headerPages are filled in lazily.
+  private int[] pageCounts;
+  private BitSet[] headerBits;
+  private Page[] headerPages;
+  // No header page before this one has a free slot.
+  private int firstHeaderWithSpace;
+  // With group commit, allocPage and freePage only record which metadata
+  // pages they changed, and sync() forces them.
+  private ScheduledFuture<?> groupCommitTask;
+  private boolean masterDirty;
+  private BitSet dirtyHeaders;
   private int numPages;
   private int allocID;
   private boolean durable;
@@ -54,6 +99,19 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
+    this(fName, wipe, durable, PageStore.Type.MMAP);
+  }
+
+  /**
+   * Create a new PageAllocator over fName whose pages live in a store of type
+   * storeType (see PageStore).
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable whether flushing pages should force them to disk
+   * @param storeType how pages are brought into memory and written back
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, PageStore.Type storeType) {
     this.durable = durable;
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
@@ -61,19 +119,21 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("Could not open File: " + e.getMessage());
     }
 
-    this.masterPage = new Page(this.fc, 0, -1);
+    if (PageAllocator.checksumPages || PageChecksums.exist(fName)) {
+      this.checksums = new PageChecksums(fName, wipe, durable && storeType == PageStore.Type.PREAD);
+    }
+    this.storeType = storeType;
+    this.store = PageStore.create(storeType, this.fc, PageAllocator.segmentSize, maxNumBlocks,
+                                  this.ioStats, this.checksums);
+
+    this.masterPage = mapPage(0, -1, this.durable);
     this.allocID = pACounter.getAndIncrement();
+    this.headerBits = new BitSet[numHeaderPages];
+    this.headerPages = new Page[numHeaderPages];
+    this.pageCounts = readPageCounts();
 
     if (wipe) {
       // Nukes masterPage and headerPages
-      byte[] masterBytes = this.masterPage.readBytes();
-      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-
-      int[] pageCounts = new int[ib.capacity()];
-      ib.get(pageCounts);
-
-      this.numPages = 0;
-
       for (int i = 0; i < numHeaderPages; i++) {
         if (pageCounts[i] > 0) {
           getHeadPage(i).wipe();
@@ -81,17 +141,29 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       }
 
       this.masterPage.wipe();
+      this.pageCounts = new int[numHeaderPages];
     }
 
-    byte[] masterBytes = masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
     this.numPages = 0;
     for (int i = 0; i < numHeaderPages; i++) {
       this.numPages += pageCounts[i];
     }
+    this.firstHeaderWithSpace = 0;
+
+    long groupCommitMillis = PageAllocator.groupCommitMillis;
+    if (this.durable && groupCommitMillis > 0) {
+      this.dirtyHeaders = new BitSet(numHeaderPages);
+      this.groupCommitTask = getBackgroundExecutor().scheduleWithFixedDelay(
+          this::sync, groupCommitMillis, groupCommitMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private int[] readPageCounts() {
+    byte[] masterBytes = this.masterPage.readBytes();
+    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
+    int[] counts = new int[numHeaderPages];
+    ib.get(counts);
+    return counts;
   }
 
   /**
@@ -100,49 +172,28 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return the virtual page number of the page
    */
   public synchronized int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
+    while (firstHeaderWithSpace < numHeaderPages
+           && pageCounts[firstHeaderWithSpace] >= Page.pageSize) {
+      firstHeaderWithSpace++;
     }
+    int headerIndex = firstHeaderWithSpace;
 
-    if (headerPage == null) {
+    if (headerIndex == numHeaderPages) {
       throw new PageException("No free Pages Available");
     }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
+    BitSet bits = getHeaderBits(headerIndex);
+    int pageIndex = bits.nextClearBit(0);
 
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
-    }
-
-    if (pageIndex == -1) {
+    if (pageIndex >= Page.pageSize) {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
+    Page headerPage = getHeadPage(headerIndex);
+    writePageCount(headerIndex, pageCounts[headerIndex] + 1);
     headerPage.writeByte(pageIndex, (byte) 1);
-
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
-    }
+    bits.set(pageIndex);
+    forceMetadata(headerIndex);
 
     int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
@@ -150,23 +201,200 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return pageNum;
   }
 
+  /**
+   * Allocates numPages new pages with consecutive virtual page numbers. The
+   * pages all live under one header page, so they are also consecutive
+   * blocks of the file, and the master and header pages are updated once for
+   * the whole extent rather than once per page. The pages are zeroed with
+   * plain writes to the file and are not brought into the buffer pool.
+   *
+   * @param numPages the number of pages in the extent, at most Page.pageSize
+   * @return the virtual page number of the first page of the extent
+   * @throws PageException if no header page has numPages free pages in a row
+   */
+  public synchronized int allocExtent(int numPages) {
+    if (numPages < 1 || numPages > Page.pageSize) {
+      throw new IllegalArgumentException("an extent holds between 1 and " + Page.pageSize + " pages");
+    }
+    while (firstHeaderWithSpace < numHeaderPages
+           && pageCounts[firstHeaderWithSpace] >= Page.pageSize) {
+      firstHeaderWithSpace++;
+    }
+    for (int headerIndex = firstHeaderWithSpace; headerIndex < numHeaderPages; headerIndex++) {
+      if (Page.pageSize - pageCounts[headerIndex] < numPages) {
+        continue;
+      }
+      BitSet bits = getHeaderBits(headerIndex);
+      int pageIndex = findClearRun(bits, numPages);
+      if (pageIndex < 0) {
+        continue;
+      }
+
+      byte[] ones = new byte[numPages];
+      Arrays.fill(ones, (byte) 1);
+      getHeadPage(headerIndex).writeBytes(pageIndex, numPages, ones);
+      writePageCount(headerIndex, pageCounts[headerIndex] + numPages);
+      bits.set(pageIndex, pageIndex + numPages);
+      forceMetadata(headerIndex);
+
+      int firstBlock = 2 + headerIndex*(Page.pageSize + 1) + pageIndex;
+      this.store.discard(firstBlock, numPages);
+      if (this.checksums != null) {
+        this.checksums.invalidate(firstBlock, numPages);
+      }
+      zeroBlocks(firstBlock, numPages);
+      this.numPages += numPages;
+      return headerIndex * Page.pageSize + pageIndex;
+    }
+    throw new PageException("No extent of " + numPages + " free pages available");
+  }
+
+  /**
+   * @return the index of the first run of numPages clear bits in bits, or -1
+   */
+  private static int findClearRun(BitSet bits, int numPages) {
+    int start = bits.nextClearBit(0);
+    while (start + numPages <= Page.pageSize) {
+      int end = bits.nextSetBit(start);
+      if (end < 0 || end - start >= numPages) {
+        return start;
+      }
+      start = bits.nextClearBit(end);
+    }
+    return -1;
+  }
+
+  private void zeroBlocks(int firstBlock, int numBlocks) {
+    ByteBuffer zeros = ByteBuffer.allocate(Math.min(numBlocks, 64) * Page.pageSize);
+    long position = (long) firstBlock * Page.pageSize;
+    long end = position + (long) numBlocks * Page.pageSize;
+    try {
+      while (position < end) {
+        zeros.clear();
+        zeros.limit((int) Math.min(zeros.capacity(), end - position));
+        while (zeros.hasRemaining()) {
+          position += this.fc.write(zeros, position);
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't zero blocks " + firstBlock + " to "
+                              + (firstBlock + numBlocks) + " ; " + e.getMessage());
+    }
+  }
+
   /**
    * Fetches the page corresponding to virtual page number pageNum.
    *
    * @param pageNum the virtual page number
    * @return a Page object wrapping the page corresponding to pageNum
    */
-  public synchronized Page fetchPage(int pageNum) {
+  public Page fetchPage(int pageNum) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    numIOs.getAndIncrement();
+    IOStats.recordFetch(this.ioStats);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
+    // Cache hits only take the lock of the shard the page lives in.
+    Page page = bufferPool.get(translatePageNum(pageNum));
+    if (page == null) {
+      page = loadPage(pageNum);
+    }
+    if (page.takePrefetched()) {
+      prefetchHits.getAndIncrement();
+    }
+    return page;
+  }
+
+  /**
+   * Brings pageNum into the buffer pool ahead of a fetchPage, unless it is
+   * already cached. Pages that are not allocated are ignored.
+   *
+   * Only installing the page in the buffer pool takes the allocator's lock.
+   * The block is read from the file before that, and a mapped page is
+   * faulted in after, so that fetchPage misses on this allocator never wait
+   * behind read-ahead I/O.
+   */
+  private void prefetchPage(int pageNum) {
+    int blockNum = prefetchBlock(pageNum);
+    if (blockNum < 0) {
+      return;
+    }
+    // Pulls the block into the OS page cache, so that mapping or reading it
+    // under the lock doesn't wait for the disk.
+    ByteBuffer block = prefetchBuffers.get();
+    block.clear();
+    try {
+      while (block.hasRemaining()) {
+        if (this.fc.read(block, (long) blockNum * Page.pageSize + block.position()) < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      // Closed under us, or a bad read that loadPage will report.
+    }
+    Page page;
+    synchronized (this) {
+      if (prefetchBlock(pageNum) < 0) {
+        return;
       }
+      page = loadPage(pageNum);
+    }
+    page.readByte(0);
+    page.setPrefetched();
+    numPrefetches.getAndIncrement();
+  }
+
+  /**
+   * @return the block of pageNum if a prefetch should load it: the page is
+   * allocated and not already cached. -1 otherwise.
+   */
+  private synchronized int prefetchBlock(int pageNum) {
+    if (this.masterPage == null || bufferPool.peek(translatePageNum(pageNum)) != null) {
+      return -1;
+    }
+    int headPageIndex = pageNum / Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
+    if (headPageIndex >= numHeaderPages || pageCounts[headPageIndex] < 1
+        || !getHeaderBits(headPageIndex).get(dataPageIndex)) {
+      return -1;
+    }
+    return 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins
+   * it, so that the buffer pool cannot evict it until the caller unpins it.
+   *
+   * @param pageNum the virtual page number
+   * @return the pinned Page
+   */
+  public Page fetchPinnedPage(int pageNum) {
+    while (true) {
+      Page page = fetchPage(pageNum);
+      if (page.pin()) {
+        return page;
+      }
+      // The page was evicted between the lookup and the pin. The next fetch
+      // maps it again.
+    }
+  }
+
+  /**
+   * Pins page, fetching it again if the buffer pool has already evicted it.
+   *
+   * @param page a page previously fetched from this allocator
+   * @return page, or the page that replaced it in the buffer pool, pinned
+   */
+  public Page pinPage(Page page) {
+    return page.pin() ? page : fetchPinnedPage(page.getPageNum());
+  }
+
+  private synchronized Page loadPage(int pageNum) {
+    // A prefetch may have loaded the page while we waited for the lock.
+    Page cached = bufferPool.peek(translatePageNum(pageNum));
+    if (cached != null) {
+      return cached;
     }
 
     int headPageIndex = pageNum/Page.pageSize;
@@ -175,31 +403,23 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
-
-    if (headCount < 1) {
+    if (pageCounts[headPageIndex] < 1) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    Page headPage = getHeadPage(headPageIndex);
-
     int dataPageIndex = pageNum % Page.pageSize;
 
-    byte validByte = headPage.readByte(dataPageIndex);
-
-    if (validByte == 0) {
+    if (!getHeaderBits(headPageIndex).get(dataPageIndex)) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
     int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
+    Page dataPage = mapPage(dataBlockID, pageNum, this.durable);
 
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
-    }
-
-    return dataPage;
+    // Another thread may have loaded the same page while we were mapping it;
+    // keep a single Page per virtual page number.
+    Page existing = bufferPool.putIfAbsent(translatePageNum(pageNum), dataPage);
+    return existing == null ? dataPage : existing;
   }
 
   /**
@@ -217,30 +437,34 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     int headPageIndex = pageNum/Page.pageSize;
     int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    if (headPage.readByte(dataPageIndex) == 0) {
+    if (headPageIndex >= numHeaderPages || pageCounts[headPageIndex] < 1) {
       return false;
     }
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
+    BitSet bits = getHeaderBits(headPageIndex);
+    if (!bits.get(dataPageIndex)) {
+      return false;
     }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
+    Page headPage = getHeadPage(headPageIndex);
+    headPage.writeByte(dataPageIndex, (byte) 0);
+    bits.clear(dataPageIndex);
+    writePageCount(headPageIndex, pageCounts[headPageIndex] - 1);
+    forceMetadata(headPageIndex);
+    this.firstHeaderWithSpace = Math.min(this.firstHeaderWithSpace, headPageIndex);
+
+    if (this.checksums != null) {
+      // The page is wiped when it is allocated again, after its bytes may
+      // have changed without being flushed.
+      this.checksums.invalidate(2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex, 1);
     }
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
+    Page removed = bufferPool.remove(translatePageNum(pageNum));
+    if (removed != null) {
+      if (removed.takePrefetched()) {
+        wastedPrefetches.getAndIncrement();
       }
+      removed.evicted();
     }
 
     this.numPages -= 1;
@@ -265,43 +489,82 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   /**
-   * Close this PageAllocator.
+   * Forces the master page and header page headIndex to disk after they
+   * changed, or with group commit, leaves that to the next sync().
    */
-  public synchronized void close() {
-    if (this.masterPage == null) {
+  private void forceMetadata(int headIndex) {
+    if (!this.durable) {
       return;
     }
-    if (this.durable) {
-      this.masterPage.flush();
+    if (this.groupCommitTask != null) {
+      this.masterDirty = true;
+      this.dirtyHeaders.set(headIndex);
+      return;
     }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
+    getHeadPage(headIndex).flush();
+    this.masterPage.flush();
+  }
 
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
+  /**
+   * Forces every master and header page change made since the last sync() to
+   * disk, and the checksums recorded since then. Without group commit the
+   * page changes are forced as they are made.
+   */
+  public synchronized void sync() {
+    if (this.checksums != null) {
+      this.checksums.sync();
     }
-
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
-      }
+    if (this.masterPage == null || !this.masterDirty) {
+      return;
     }
+    for (int i = dirtyHeaders.nextSetBit(0); i >= 0; i = dirtyHeaders.nextSetBit(i + 1)) {
+      getHeadPage(i).flush();
+    }
+    this.masterPage.flush();
+    this.dirtyHeaders.clear();
+    this.masterDirty = false;
+  }
 
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
-        }
-      }
+  /**
+   * Close this PageAllocator.
+   */
+  public synchronized void close() {
+    if (this.masterPage == null) {
+      return;
+    }
+    if (this.groupCommitTask != null) {
+      this.groupCommitTask.cancel(false);
+      sync();
     }
     if (this.durable) {
-      for (Page p : toFlush) {
-        p.flush();
+      this.masterPage.flush();
+    }
+    final int allocID = this.allocID;
+    List<Page> toFlush = bufferPool.removeAll(vPageNum -> translateAllocator(vPageNum) == allocID);
+    for (Page p : toFlush) {
+      // Only forces durable pages, but writes back every dirty page of a
+      // PREAD store.
+      p.flush();
+      if (p.takePrefetched()) {
+        wastedPrefetches.getAndIncrement();
       }
     }
     this.masterPage = null;
+    this.headerPages = null;
+    this.headerBits = null;
+    this.store.close();
+    this.store = null;
+    if (this.checksums != null) {
+      // The checksum file is only marked as closed cleanly once every page
+      // it has a checksum for is on disk, durable or not.
+      try {
+        this.fc.force(false);
+      } catch (IOException e) {
+        throw new PageException("Could not force Page Alloc " + e.getMessage());
+      }
+      this.checksums.close();
+      this.checksums = null;
+    }
     try {
       this.fc.close();
     } catch (IOException e) {
@@ -310,35 +573,399 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   private synchronized Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+    Page headPage = this.headerPages[headIndex];
+    if (headPage == null) {
+      int headBlockID = 1 + headIndex*(Page.pageSize + 1);
+      headPage = mapPage(headBlockID, -1, this.durable);
+      this.headerPages[headIndex] = headPage;
+    }
+    return headPage;
+  }
+
+  /**
+   * Returns the allocated data pages under header page headIndex, reading the
+   * header page the first time it is needed. A header page whose count is 0
+   * is known to be empty without reading it.
+   */
+  private BitSet getHeaderBits(int headIndex) {
+    BitSet bits = this.headerBits[headIndex];
+    if (bits == null) {
+      bits = new BitSet(Page.pageSize);
+      if (this.pageCounts[headIndex] > 0) {
+        byte[] headerBytes = getHeadPage(headIndex).readBytes();
+        for (int i = 0; i < Page.pageSize; i++) {
+          if (headerBytes[i] != 0) {
+            bits.set(i);
+          }
+        }
+      }
+      this.headerBits[headIndex] = bits;
+    }
+    return bits;
+  }
+
+  /**
+   * Finds the first allocated page at or after pageNum from the in-memory
+   * header bitmaps, skipping header pages with no allocated pages without
+   * looking at their bits.
+   *
+   * @param pageNum the virtual page number to start searching from
+   * @return the virtual page number of the next allocated page, or -1 if
+   * there is none
+   */
+  private synchronized int nextAllocatedPage(int pageNum) {
+    int headIndex = pageNum / Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
+    for (; headIndex < numHeaderPages; headIndex++, dataPageIndex = 0) {
+      if (this.pageCounts[headIndex] > 0) {
+        int next = getHeaderBits(headIndex).nextSetBit(dataPageIndex);
+        if (next >= 0) {
+          return headIndex * Page.pageSize + next;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private void writePageCount(int headIndex, int count) {
+    this.pageCounts[headIndex] = count;
+    byte[] countBytes = ByteBuffer.allocate(4).putInt(count).array();
+    this.masterPage.writeBytes(headIndex*4, 4, countBytes);
+  }
+
+  private Page mapPage(int blockNum, int pageNum, boolean durable) {
+    return this.store.page(blockNum, pageNum, durable);
+  }
+
+  /**
+   * @return the kind of PageStore this allocator's pages live in
+   */
+  public PageStore.Type getPageStoreType() {
+    return this.storeType;
   }
 
   public synchronized int getNumPages() {
     return this.numPages;
   }
 
-  public synchronized static long getNumIOs() {
-    return PageAllocator.numIOs.get();
+  /**
+   * @return the page I/O of this allocator so far
+   */
+  public IOStats getIOStats() {
+    return this.ioStats;
+  }
+
+  /**
+   * @return the number of fetchPage calls on every allocator so far
+   */
+  public static long getNumIOs() {
+    return IOStats.totalSnapshot().getNumFetches();
+  }
+
+  /**
+   * @return the number of pages brought into memory or flushed by every
+   * allocator so far
+   */
+  public static long getNumCacheMisses() {
+    IOStats.Snapshot total = IOStats.totalSnapshot();
+    return total.getNumMisses() + total.getNumFlushes();
+  }
+
+  static void incrementLiveMappings() {
+    PageAllocator.numLiveMappings.getAndIncrement();
+  }
+
+  static void decrementLiveMappings() {
+    PageAllocator.numLiveMappings.getAndDecrement();
+  }
+
+  /**
+   * @return the number of page and segment mappings that have been created
+   * and not yet unmapped, across all allocators. Evicted pages are unmapped
+   * shortly after eviction, and everything an allocator mapped is unmapped
+   * when it is closed.
+   */
+  public static long getNumLiveMappings() {
+    return PageAllocator.numLiveMappings.get();
+  }
+
+  static void incrementNumPinnedPages() {
+    PageAllocator.numPinnedPages.getAndIncrement();
+  }
+
+  static void decrementNumPinnedPages() {
+    PageAllocator.numPinnedPages.getAndDecrement();
+  }
+
+  /**
+   * @return the number of pages that currently have at least one pin
+   */
+  public static int getNumPinnedPages() {
+    return PageAllocator.numPinnedPages.get();
+  }
+
+  /**
+   * Chooses how PageAllocators opened from now on with a PageStore.Type.MMAP
+   * store map their files. With a segment size of 0 (the default) every page
+   * is mapped on its own when it is fetched. Otherwise the file is mapped
+   * segmentSize bytes at a time, each segment at most once, and pages are
+   * slices of their segment; see MappedSegments. Either way the file format
+   * is the same.
+   *
+   * @param numBytes the segment size, a multiple of Page.pageSize (e.g. 64 MB), or 0
+   */
+  public static void setSegmentSize(int numBytes) {
+    if (numBytes < 0 || numBytes % Page.pageSize != 0) {
+      throw new IllegalArgumentException("segment size must be a multiple of " + Page.pageSize);
+    }
+    PageAllocator.segmentSize = numBytes;
+  }
+
+  public static int getSegmentSize() {
+    return PageAllocator.segmentSize;
+  }
+
+  /**
+   * Chooses whether PageAllocators opened from now on keep checksums of
+   * their data pages (see PageChecksums). A page's checksum is recorded
+   * when the page is flushed, and checked when the page is brought into
+   * memory, which throws a PageException if the page was torn or corrupted
+   * on disk. Once a file has checksums they are kept up to date whenever it
+   * is opened, whatever this setting.
+   *
+   * @param enabled whether new allocators checksum their pages (default false)
+   */
+  public static void setChecksums(boolean enabled) {
+    PageAllocator.checksumPages = enabled;
+  }
+
+  public static boolean getChecksums() {
+    return PageAllocator.checksumPages;
+  }
+
+  /**
+   * @return whether this allocator keeps checksums of its data pages
+   */
+  public boolean hasChecksums() {
+    return this.checksums != null;
+  }
+
+  /**
+   * Chooses how durable PageAllocators opened from now on persist their
+   * master and header pages. With an interval of 0 (the default) allocPage
+   * and freePage force the pages they change before returning. Otherwise
+   * they only mark them dirty, and a background thread calls sync() every
+   * millis milliseconds; callers that need a durability barrier sooner can
+   * call sync() themselves. A crash can lose allocations and frees made
+   * since the last sync.
+   *
+   * @param millis the group commit interval, or 0 to force on every change
+   */
+  public static void setGroupCommitInterval(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("group commit interval can't be negative");
+    }
+    PageAllocator.groupCommitMillis = millis;
+  }
+
+  public static long getGroupCommitInterval() {
+    return PageAllocator.groupCommitMillis;
+  }
+
+  private static synchronized ScheduledExecutorService getBackgroundExecutor() {
+    if (backgroundExecutor == null) {
+      backgroundExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "PageAllocator background");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return backgroundExecutor;
+  }
+
+  /**
+   * Starts (or restarts) a background thread that every intervalMillis
+   * milliseconds writes back the dirty pages among the next batchSize pages
+   * each buffer pool shard would evict. Evictions then rarely have to write
+   * a page back on the thread that is fetching a new one.
+   *
+   * @param intervalMillis how often to look for dirty eviction candidates
+   * @param batchSize how many eviction candidates to look at per shard
+   */
+  public static synchronized void startBackgroundFlusher(long intervalMillis, int batchSize) {
+    stopBackgroundFlusher();
+    flusherTask = getBackgroundExecutor().scheduleWithFixedDelay(
+        () -> PageAllocator.bufferPool.flushEvictionCandidates(batchSize),
+        intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public static synchronized void stopBackgroundFlusher() {
+    if (flusherTask != null) {
+      flusherTask.cancel(false);
+      flusherTask = null;
+    }
+  }
+
+  /**
+   * @return the number of evictions that had to write back a dirty page on
+   * the evicting thread
+   */
+  public static long getNumDirtyEvictions() {
+    BufferPool pool = PageAllocator.bufferPool;
+    long total = 0;
+    for (int i = 0; i < pool.getNumShards(); i++) {
+      total += pool.getNumDirtyEvictions(i);
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of pages written back by the background flusher
+   */
+  public static long getNumBackgroundFlushes() {
+    BufferPool pool = PageAllocator.bufferPool;
+    long total = 0;
+    for (int i = 0; i < pool.getNumShards(); i++) {
+      total += pool.getNumBackgroundFlushes(i);
+    }
+    return total;
+  }
+
+  /**
+   * Sets how many pages ahead PageIterators read once they see sequential
+   * access. Read-ahead pages are mapped and faulted in on a small pool of
+   * background threads, so a scan finds them in the buffer pool. 0 (the
+   * default) turns read-ahead off.
+   *
+   * @param numPages the number of pages to read ahead of a sequential scan
+   */
+  public static void setReadAhead(int numPages) {
+    if (numPages < 0) {
+      throw new IllegalArgumentException("read-ahead can't be negative");
+    }
+    PageAllocator.readAheadPages = numPages;
+  }
+
+  public static int getReadAhead() {
+    return PageAllocator.readAheadPages;
+  }
+
+  /**
+   * @return the number of pages read ahead by PageIterators
+   */
+  public static long getNumPrefetches() {
+    return PageAllocator.numPrefetches.get();
+  }
+
+  /**
+   * @return the number of read-ahead pages that were later fetched
+   */
+  public static long getNumPrefetchHits() {
+    return PageAllocator.prefetchHits.get();
+  }
+
+  /**
+   * @return the number of read-ahead pages that were evicted or dropped
+   * before anyone fetched them
+   */
+  public static long getNumWastedPrefetches() {
+    return PageAllocator.wastedPrefetches.get();
+  }
+
+  static void incrementWastedPrefetches() {
+    PageAllocator.wastedPrefetches.getAndIncrement();
+  }
+
+  private static synchronized ExecutorService getPrefetchExecutor() {
+    if (prefetchExecutor == null) {
+      prefetchExecutor = Executors.newFixedThreadPool(numPrefetchThreads, r -> {
+        Thread t = new Thread(r, "PageAllocator prefetch");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return prefetchExecutor;
   }
 
-  static synchronized void incrementNumIOs() {
-    PageAllocator.numIOs.getAndIncrement();
+  /**
+   * Resizes the shared buffer pool. Shrinking evicts (and flushes) unpinned
+   * pages until the pool fits; see BufferPool#setCapacity.
+   *
+   * @param numPages the maximum number of pages the pool may cache
+   */
+  public static synchronized void setBufferPoolSize(int numPages) {
+    PageAllocator.bufferPool.setCapacity(numPages);
   }
 
-  static synchronized void incrementCacheMisses() {
-    PageAllocator.cacheMisses.getAndIncrement();
+  /**
+   * @return the maximum number of pages the shared buffer pool may cache
+   */
+  public static int getBufferPoolSize() {
+    return PageAllocator.bufferPool.getCapacity();
   }
 
-  public synchronized static long getNumCacheMisses() {
-    return PageAllocator.cacheMisses.get();
+  /**
+   * @return the number of pages cached in the shared buffer pool right now
+   */
+  public static int getBufferPoolOccupancy() {
+    return PageAllocator.bufferPool.size();
   }
 
-  private synchronized long translatePageNum(int pageNum) {
+  /**
+   * Replaces the shared buffer pool with one split into numShards shards.
+   * Pages cached in the old pool are carried over to the new one.
+   *
+   * @param numShards the number of independently locked shards
+   */
+  public static synchronized void setNumBufferPoolShards(int numShards) {
+    BufferPool oldPool = PageAllocator.bufferPool;
+    replaceBufferPool(new BufferPool(numShards, oldPool.getCapacity(), oldPool.getPolicyType()));
+  }
+
+  /**
+   * Replaces the shared buffer pool with one that evicts pages using policyType.
+   * Pages cached in the old pool are carried over to the new one.
+   *
+   * @param policyType the eviction policy of the new pool
+   */
+  public static synchronized void setBufferPoolPolicy(EvictionPolicy.Type policyType) {
+    BufferPool oldPool = PageAllocator.bufferPool;
+    replaceBufferPool(new BufferPool(oldPool.getNumShards(), oldPool.getCapacity(), policyType));
+  }
+
+  private static void replaceBufferPool(BufferPool newPool) {
+    BufferPool oldPool = PageAllocator.bufferPool;
+    // Calls that still reach the old pool are forwarded to the new one from
+    // the moment its pages have moved.
+    oldPool.drainTo(newPool);
+    PageAllocator.bufferPool = newPool;
+  }
+
+  public static EvictionPolicy.Type getBufferPoolPolicy() {
+    return PageAllocator.bufferPool.getPolicyType();
+  }
+
+  public static int getNumBufferPoolShards() {
+    return PageAllocator.bufferPool.getNumShards();
+  }
+
+  public static long getNumShardHits(int shard) {
+    return PageAllocator.bufferPool.getNumHits(shard);
+  }
+
+  public static long getNumShardMisses(int shard) {
+    return PageAllocator.bufferPool.getNumMisses(shard);
+  }
+
+  public static long getNumShardEvictions(int shard) {
+    return PageAllocator.bufferPool.getNumEvictions(shard);
+  }
+
+  private long translatePageNum(int pageNum) {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static synchronized private int translateAllocator(long vPageNum) {
+  static private int translateAllocator(long vPageNum) {
     return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
   }
 
@@ -349,17 +976,34 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       return new PageIterator();
   }
 
+  /**
+   * Iterates over the allocated pages in page number order. Page numbers
+   * left unallocated by freePage are skipped by looking at the header
+   * bitmaps, so a scan costs the same however many pages have been freed.
+   * If read-ahead is on (see setReadAhead), once two pages in a row have come
+   * back without a reset in between, every next() makes sure that the
+   * allocated pages among the following readAheadPages page numbers have
+   * been handed to the prefetch threads.
+   */
   public class PageIterator implements BacktrackingIterator<Page> {
     private int pageNum;
     private int cursor;
     private int markedPageNum;
     private int markedCursor;
+    private final int readAhead;
+    // The number of pages returned since the iterator was created or reset.
+    private int runLength;
+    // Every page number below this one has already been prefetched.
+    private int prefetchedUpTo;
 
     public PageIterator() {
       this.pageNum = 0;
       this.cursor = 0;
       this.markedPageNum = 0;
       this.markedCursor = 0;
+      this.readAhead = PageAllocator.readAheadPages;
+      this.runLength = 0;
+      this.prefetchedUpTo = 0;
     }
 
     public boolean hasNext() {
@@ -369,15 +1013,23 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     public Page next() {
       if (this.hasNext()) {
         while (true) {
+          int next = PageAllocator.this.nextAllocatedPage(cursor);
+          if (next < 0) {
+            break;
+          }
           Page p;
           try {
-            p = PageAllocator.this.fetchPage(cursor);
-            cursor++;
-            pageNum++;
-            return p;
+            p = PageAllocator.this.fetchPage(next);
           } catch (PageException e) {
-            cursor++;
+            // Freed since nextAllocatedPage looked at it.
+            cursor = next + 1;
+            continue;
           }
+          cursor = next + 1;
+          pageNum++;
+          runLength++;
+          prefetchAhead();
+          return p;
         }
       }
       throw new NoSuchElementException();
@@ -387,6 +1039,20 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new UnsupportedOperationException();
     }
 
+    private void prefetchAhead() {
+      if (readAhead == 0 || runLength < 2) {
+        return;
+      }
+      int end = cursor + readAhead;
+      int next = PageAllocator.this.nextAllocatedPage(Math.max(cursor, prefetchedUpTo));
+      while (next >= 0 && next < end) {
+        final int prefetchPageNum = next;
+        getPrefetchExecutor().execute(() -> PageAllocator.this.prefetchPage(prefetchPageNum));
+        next = PageAllocator.this.nextAllocatedPage(next + 1);
+      }
+      prefetchedUpTo = Math.max(prefetchedUpTo, end);
+    }
+
     /**
      * Marks a page to come back to later.
      *
@@ -416,6 +1082,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
      public void reset() {
       this.pageNum = this.markedPageNum - 1;
       this.cursor = this.markedCursor - 1;
+      this.runLength = 0;
     }
   }
 }
@@ -0,0 +1,250 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The checksums of the data pages of one PageAllocator file, kept in a
+ * second file next to it (the allocator's file name plus ".crc") so that the
+ * page format itself is unchanged.
+ *
+ * The checksum file starts with a 16-byte header, followed by 16 bytes per
+ * block of the data file: the block's current checksum, then the one it had
+ * before. Each is a marker in the high 4 bytes and the CRC32 of the block's
+ * bytes in the low 4 bytes. A block whose current entry has no marker has no
+ * known checksum (it was never flushed with checksums on, or was freed
+ * since) and is never reported as corrupt. A page records its checksum when
+ * it is flushed and checks it once, when it is first brought into memory;
+ * cache hits cost nothing.
+ *
+ * The header says whether the file was closed cleanly, and if not, whether
+ * its blocks were written in order with their checksums while it was open.
+ * It is set (and forced) on open and marked closed on close, once everything
+ * else is on disk.
+ *
+ * A checksum is only trusted after a crash if the block can't have been
+ * written before it. That holds for the durable pages of a PREAD store,
+ * whose new checksum is forced before the page is written, so the block on
+ * disk holds either the bytes of its current checksum or, if the crash came
+ * before the page was written, those of its previous one. Anything else is
+ * a torn or corrupted block and is reported as such. Otherwise a mapped page
+ * can reach the disk whenever the OS writes it back, and a non-durable
+ * page's checksum isn't forced at all, so after a crash a block and its
+ * checksum may each be old or new. Such a block is re-stamped with the
+ * checksum of what it holds instead. The header keeps saying so until the
+ * file is next closed cleanly, so that another crash before then re-stamps
+ * the blocks that weren't read yet too.
+ */
+class PageChecksums {
+  static final String suffix = ".crc";
+
+  private static final int entrySize = 16;
+  private static final long marker = 0xC5C5C5C7L << 32;
+  // The header of a file that was closed cleanly.
+  private static final long closed = 0x5AFEC105EDL;
+  // The headers of an open file whose checksums are ordered before their
+  // blocks, and of one whose checksums aren't.
+  private static final long openOrdered = 0x0FE40DE4EDL;
+  private static final long openUnordered = 0x0FE4C4A05EL;
+
+  private static final ThreadLocal<ByteBuffer> entries = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(entrySize);
+    }
+  };
+
+  private final FileChannel fc;
+  // Whether the file was closed cleanly before it was opened, so that only a
+  // block's current checksum is valid.
+  private final boolean trusted;
+  // Whether a block that doesn't match its checksum after a crash may just
+  // have been written without it.
+  private final boolean restamp;
+  // Whether a checksum was written since the file was last forced.
+  private volatile boolean dirty;
+
+  /**
+   * Opens the checksum file of the data file fName, creating it if it
+   * doesn't exist.
+   *
+   * @param fName the name of the data file
+   * @param wipe whether to forget every checksum in the file
+   * @param ordered whether every checksum is forced before its block is
+   * written, for as long as the file is open
+   */
+  PageChecksums(String fName, boolean wipe, boolean ordered) {
+    try {
+      this.fc = new RandomAccessFile(fName + suffix, "rw").getChannel();
+      if (wipe) {
+        this.fc.truncate(0);
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not open checksum file: " + e.getMessage());
+    }
+    long header = readEntry(0, 0);
+    this.trusted = header == closed;
+    this.restamp = !this.trusted && header != openOrdered;
+    writeEntry(0, ordered && header != openUnordered ? openOrdered : openUnordered, 0);
+    force();
+  }
+
+  /**
+   * @return whether the data file fName has a checksum file
+   */
+  static boolean exist(String fName) {
+    return new File(fName + suffix).exists();
+  }
+
+  /**
+   * @return the CRC32 of the Page.pageSize bytes of data
+   */
+  static int checksum(ByteBuffer data) {
+    ByteBuffer bytes = data.duplicate();
+    bytes.clear();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Records the checksum of data as the checksum of block blockNum, keeping
+   * the block's old checksum as its previous one. Unless force is set, the
+   * checksum file is forced by the next sync().
+   *
+   * @param force whether to force the checksum to disk now, before the
+   * caller writes data to block blockNum
+   */
+  void record(int blockNum, ByteBuffer data, boolean force) {
+    long current = marker | (checksum(data) & 0xFFFFFFFFL);
+    long previous = read(blockNum, 0);
+    if (previous != current) {
+      write(blockNum, current, previous);
+    }
+    if (force) {
+      sync();
+    }
+  }
+
+  /**
+   * Forces the checksums recorded since the last sync() to disk.
+   */
+  synchronized void sync() {
+    if (this.dirty) {
+      this.dirty = false;
+      force();
+    }
+  }
+
+  /**
+   * Forgets the checksums of numBlocks blocks starting at firstBlock.
+   */
+  void invalidate(int firstBlock, int numBlocks) {
+    for (int blockNum = firstBlock; blockNum < firstBlock + numBlocks; blockNum++) {
+      write(blockNum, 0, 0);
+    }
+  }
+
+  /**
+   * Checks data, the bytes just read from block blockNum, against the
+   * block's checksum, or after a crash its previous checksum too.
+   *
+   * @throws PageException if the block has a checksum and data doesn't match it
+   */
+  void verify(int blockNum, int pageNum, ByteBuffer data) {
+    long current = read(blockNum, 0);
+    if ((current & ~0xFFFFFFFFL) != marker) {
+      return;
+    }
+    int actual = checksum(data);
+    if (actual == (int) current) {
+      return;
+    }
+    long previous = read(blockNum, 1);
+    if (!this.trusted && (previous & ~0xFFFFFFFFL) == marker && actual == (int) previous) {
+      // The crash came between forcing the checksum and writing the page.
+      write(blockNum, previous, 0);
+      return;
+    }
+    if (this.restamp) {
+      // The block may have reached the disk without its checksum.
+      write(blockNum, marker | (actual & 0xFFFFFFFFL), 0);
+      return;
+    }
+    throw new PageException("checksum mismatch on page " + pageNum + " at block " + blockNum
+                            + ": expected " + Integer.toHexString((int) current)
+                            + ", found " + Integer.toHexString(actual));
+  }
+
+  /**
+   * Marks the file as closed cleanly and closes it. The data file must be on
+   * disk already.
+   */
+  void close() {
+    force();
+    writeEntry(0, closed, 0);
+    force();
+    try {
+      this.fc.close();
+    } catch (IOException e) {
+      throw new PageException("Could not close checksum file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param which 0 for the block's current checksum, 1 for its previous one
+   */
+  private long read(int blockNum, int which) {
+    return readEntry(blockNum + 1, which);
+  }
+
+  private void write(int blockNum, long current, long previous) {
+    writeEntry(blockNum + 1, current, previous);
+    this.dirty = true;
+  }
+
+  private void force() {
+    try {
+      this.fc.force(false);
+    } catch (IOException e) {
+      throw new PageException("Could not force checksum file: " + e.getMessage());
+    }
+  }
+
+  private long readEntry(int index, int which) {
+    ByteBuffer entry = entries.get();
+    entry.clear();
+    entry.limit(8);
+    long position = (long) index * entrySize + 8 * which;
+    try {
+      while (entry.hasRemaining()) {
+        if (this.fc.read(entry, position + entry.position()) < 0) {
+          // Past the end of the checksum file.
+          return 0;
+        }
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not read checksum entry " + index + ": " + e.getMessage());
+    }
+    return entry.getLong(0);
+  }
+
+  private void writeEntry(int index, long current, long previous) {
+    ByteBuffer entry = entries.get();
+    entry.clear();
+    entry.putLong(0, current);
+    entry.putLong(8, previous);
+    long position = (long) index * entrySize;
+    try {
+      while (entry.hasRemaining()) {
+        this.fc.write(entry, position + entry.position());
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not write checksum entry " + index + ": " + e.getMessage());
+    }
+  }
+}
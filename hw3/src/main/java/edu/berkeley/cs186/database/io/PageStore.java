@@ -0,0 +1,55 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Where the bytes of a PageAllocator's pages live in memory and how they get
+ * to and from the file. Every PageAllocator owns one store over its file:
+ *
+ *   - MMAP maps pages (or segments of pages, see PageAllocator#setSegmentSize)
+ *     into memory, so the OS decides when dirty bytes reach the file.
+ *   - PREAD reads every page into a direct ByteBuffer with FileChannel#read
+ *     and writes it back with FileChannel#write when it is flushed or
+ *     evicted, so nothing is mapped and the buffers are reused.
+ *
+ * The file format is the same with either store.
+ */
+public interface PageStore {
+  enum Type {
+    MMAP,
+    PREAD
+  }
+
+  /**
+   * Creates a Page over block blockNum of the file.
+   *
+   * @param blockNum the block in the file for the page
+   * @param pageNum the virtual page number of the page, or -1 for metadata pages
+   * @param durable whether flushing the page should force it to disk
+   * @return a Page holding the block's bytes
+   */
+  Page page(int blockNum, int pageNum, boolean durable);
+
+  /**
+   * Forgets any bytes of numBlocks blocks starting at firstBlock that the
+   * store holds in memory, so that the next page() over one of them reads it
+   * from the file. Called before the blocks are overwritten through the file
+   * channel.
+   */
+  void discard(int firstBlock, int numBlocks);
+
+  /**
+   * Writes every page of this store that is still dirty back to the file.
+   * The store may not be used afterwards.
+   */
+  void close();
+
+  static PageStore create(Type type, FileChannel fc, int segmentSize, long maxNumBlocks,
+                          IOStats stats, PageChecksums checksums) {
+    switch (type) {
+      case MMAP: return new MappedPageStore(fc, segmentSize, maxNumBlocks, stats, checksums);
+      case PREAD: return new PreadPageStore(fc, stats, checksums);
+      default: throw new IllegalArgumentException("Unhandled page store " + type);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The PageStore.Type.PREAD store. Every page is read into its own direct
+ * ByteBuffer frame with FileChannel#read, and flushing a dirty page writes
+ * the frame back with FileChannel#write (forcing the file too if the page is
+ * durable). Nothing is ever mapped.
+ *
+ * Callers may keep using a Page after the buffer pool has evicted it, as they
+ * can with mapped pages, so a frame is only reused once its Page has been
+ * garbage collected. Until then the store remembers the Page, and fetching
+ * the same block again brings back that Page instead of reading a second
+ * copy. A Page written after it was evicted is kept until the store writes
+ * it back, either when it is evicted again or when the store is closed.
+ *
+ * Frames are carved out of larger direct buffers and shared by every store
+ * through a global free list.
+ */
+class PreadPageStore implements PageStore {
+  private static final int framesPerSlab = 16;
+  private static final int maxFreeFrames = 1024;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer> freeFrames = new ConcurrentLinkedQueue<ByteBuffer>();
+  private static final AtomicInteger numFreeFrames = new AtomicInteger(0);
+  private static final ReferenceQueue<Page> collected = new ReferenceQueue<Page>();
+  // Keeps every PageRef reachable until its Page is collected.
+  private static final Set<PageRef> liveRefs = ConcurrentHashMap.newKeySet();
+
+  private final FileChannel fc;
+  private final IOStats stats;
+  private final PageChecksums checksums;
+  private final ConcurrentHashMap<Integer, PageRef> pages;
+  // Pages written after they were evicted, which nothing else would write
+  // back.
+  private final Set<Page> strays;
+
+  PreadPageStore(FileChannel fc, IOStats stats, PageChecksums checksums) {
+    this.fc = fc;
+    this.stats = stats;
+    this.checksums = checksums;
+    this.pages = new ConcurrentHashMap<Integer, PageRef>();
+    this.strays = ConcurrentHashMap.newKeySet();
+  }
+
+  public Page page(int blockNum, int pageNum, boolean durable) {
+    recycleCollectedFrames();
+    PageRef ref = this.pages.get(blockNum);
+    Page page = ref == null ? null : ref.get();
+    if (page != null) {
+      page.revive();
+      this.strays.remove(page);
+      return page;
+    }
+
+    ByteBuffer frame = acquireFrame();
+    read(frame, blockNum);
+    IOStats.recordMiss(this.stats, Page.pageSize);
+    page = new Page(this, frame, blockNum, pageNum, durable, this.stats, this.checksums);
+    ref = new PageRef(page, this, blockNum, frame);
+    liveRefs.add(ref);
+    this.pages.put(blockNum, ref);
+    return page;
+  }
+
+  public void discard(int firstBlock, int numBlocks) {
+    for (int blockNum = firstBlock; blockNum < firstBlock + numBlocks; blockNum++) {
+      PageRef ref = this.pages.remove(blockNum);
+      Page page = ref == null ? null : ref.get();
+      if (page != null) {
+        this.strays.remove(page);
+      }
+    }
+  }
+
+  public void close() {
+    for (PageRef ref : this.pages.values()) {
+      Page page = ref.get();
+      if (page != null && page.isDirty()) {
+        page.writeBack();
+      }
+    }
+    this.pages.clear();
+    this.strays.clear();
+  }
+
+  /**
+   * Called by a Page that was written to after the buffer pool evicted it.
+   */
+  void addStray(Page page) {
+    this.strays.add(page);
+  }
+
+  /**
+   * Writes the Page.pageSize bytes of data to block blockNum of the file.
+   */
+  void write(int blockNum, ByteBuffer data, boolean force) {
+    ByteBuffer buf = data.duplicate();
+    buf.clear();
+    long position = (long) blockNum * Page.pageSize;
+    try {
+      while (buf.hasRemaining()) {
+        position += this.fc.write(buf, position);
+      }
+      if (force) {
+        this.fc.force(false);
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't write block " + blockNum + " ; " + e.getMessage());
+    }
+  }
+
+  private void read(ByteBuffer frame, int blockNum) {
+    frame.clear();
+    long position = (long) blockNum * Page.pageSize;
+    try {
+      while (frame.hasRemaining()) {
+        int n = this.fc.read(frame, position);
+        if (n < 0) {
+          // Past the end of the file; the rest of the page is zeros.
+          while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+          }
+          break;
+        }
+        position += n;
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't read block " + blockNum + " ; " + e.getMessage());
+    }
+    frame.clear();
+  }
+
+  private static ByteBuffer acquireFrame() {
+    ByteBuffer frame = freeFrames.poll();
+    if (frame != null) {
+      numFreeFrames.decrementAndGet();
+      return frame;
+    }
+    ByteBuffer slab;
+    try {
+      slab = ByteBuffer.allocateDirect(framesPerSlab * Page.pageSize);
+    } catch (OutOfMemoryError e) {
+      // Running out of direct memory makes the JVM collect garbage, which may
+      // have freed up frames of pages nobody uses any more.
+      recycleCollectedFrames();
+      frame = freeFrames.poll();
+      if (frame == null) {
+        throw e;
+      }
+      numFreeFrames.decrementAndGet();
+      return frame;
+    }
+    for (int i = 1; i < framesPerSlab; i++) {
+      releaseFrame(slice(slab, i));
+    }
+    return slice(slab, 0);
+  }
+
+  private static ByteBuffer slice(ByteBuffer slab, int index) {
+    ByteBuffer view = slab.duplicate();
+    view.position(index * Page.pageSize);
+    view.limit((index + 1) * Page.pageSize);
+    return view.slice();
+  }
+
+  private static void releaseFrame(ByteBuffer frame) {
+    if (numFreeFrames.incrementAndGet() <= maxFreeFrames) {
+      freeFrames.add(frame);
+    } else {
+      numFreeFrames.decrementAndGet();
+    }
+  }
+
+  private static void recycleCollectedFrames() {
+    PageRef ref;
+    while ((ref = (PageRef) collected.poll()) != null) {
+      liveRefs.remove(ref);
+      ref.store.pages.remove(ref.blockNum, ref);
+      releaseFrame(ref.frame);
+    }
+  }
+
+  /**
+   * Remembers the frame of a Page so that it can be reused once the Page is
+   * collected.
+   */
+  private static class PageRef extends WeakReference<Page> {
+    private final PreadPageStore store;
+    private final int blockNum;
+    private final ByteBuffer frame;
+
+    PageRef(Page page, PreadPageStore store, int blockNum, ByteBuffer frame) {
+      super(page, collected);
+      this.store = store;
+      this.blockNum = blockNum;
+      this.frame = frame;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The 2Q replacement policy of Johnson and Shasha. Frames are split into two
+ * queues, and the policy also remembers the page numbers of some frames it
+ * recently evicted:
+ *
+ *   - probationary (A1in) is a FIFO queue holding every page on its first trip
+ *     into the pool.
+ *   - ghosts (A1out) is a FIFO of the page numbers most recently pushed out
+ *     of the probationary queue. It holds no pages.
+ *   - protectedFrames (Am) is an LRU list of pages that have been
+ *     re-referenced over a longer period, like the root and inner nodes of a
+ *     B+ tree.
+ *
+ * A page is protected when it is fetched again after being pushed out of the
+ * probationary queue (as in 2Q), or when it is hit while probationary after
+ * more than correlationWindow other pages entered the pool. Hits that come
+ * sooner are correlated references and are ignored, so a scan that reads the
+ * same page several times in a row (once for its bitmap, then once per record)
+ * only ever passes through the probationary queue. The second rule lets pages
+ * that became hot while the pool still had free frames, and so were never
+ * pushed out, be protected before the first scan arrives.
+ *
+ * The probationary queue is capped at a quarter of the capacity, so a
+ * one-pass sequential scan only ever churns that quarter of the pool and the
+ * protected pages stay resident.
+ */
+class TwoQueuePolicy implements EvictionPolicy {
+  private int maxProbationary;
+  private int maxGhosts;
+  private int correlationWindow;
+  private long numInsertions;
+  private final LinkedHashMap<Long, Frame> probationary;
+  private final LinkedHashMap<Long, Frame> protectedFrames;
+  private final LinkedHashSet<Long> ghosts;
+
+  TwoQueuePolicy(int capacity) {
+    this.numInsertions = 0;
+    this.probationary = new LinkedHashMap<Long, Frame>();
+    this.protectedFrames = new LinkedHashMap<Long, Frame>(16, 0.75f, true);
+    this.ghosts = new LinkedHashSet<Long>();
+    setCapacity(capacity);
+  }
+
+  public synchronized void recordAccess(Frame frame) {
+    long vPageNum = frame.getVirtualPageNum();
+    if (protectedFrames.get(vPageNum) != null) {
+      return;
+    }
+    if (probationary.get(vPageNum) == frame
+        && numInsertions - frame.stamp > correlationWindow) {
+      probationary.remove(vPageNum);
+      protectedFrames.put(vPageNum, frame);
+    }
+  }
+
+  public synchronized void add(Frame frame) {
+    long vPageNum = frame.getVirtualPageNum();
+    frame.stamp = numInsertions++;
+    if (ghosts.remove(vPageNum)) {
+      protectedFrames.put(vPageNum, frame);
+    } else {
+      probationary.put(vPageNum, frame);
+    }
+  }
+
+  public synchronized void reinstate(Frame frame) {
+    long vPageNum = frame.getVirtualPageNum();
+    // A probationary victim left a ghost behind; it goes back where it was
+    // rather than being promoted by it.
+    if (ghosts.remove(vPageNum)) {
+      probationary.put(vPageNum, frame);
+    } else {
+      protectedFrames.put(vPageNum, frame);
+    }
+  }
+
+  public synchronized void remove(Frame frame) {
+    long vPageNum = frame.getVirtualPageNum();
+    if (probationary.remove(vPageNum) == null) {
+      protectedFrames.remove(vPageNum);
+    }
+  }
+
+  public synchronized List<Frame> evictionCandidates(int n) {
+    List<Frame> candidates = new ArrayList<Frame>(n);
+    Iterator<Frame> iter = probationary.values().iterator();
+    while (candidates.size() < n && iter.hasNext()) {
+      candidates.add(iter.next());
+    }
+    iter = protectedFrames.values().iterator();
+    while (candidates.size() < n && iter.hasNext()) {
+      candidates.add(iter.next());
+    }
+    return candidates;
+  }
+
+  public synchronized void setCapacity(int capacity) {
+    this.maxProbationary = Math.max(1, capacity / 4);
+    this.maxGhosts = Math.max(1, capacity / 2);
+    this.correlationWindow = Math.max(1, maxProbationary / 2);
+    trimGhosts();
+  }
+
+  public synchronized Frame evict() {
+    Frame victim = null;
+    if (probationary.size() >= maxProbationary || protectedFrames.isEmpty()) {
+      victim = evictProbationary();
+    }
+    if (victim == null) {
+      victim = removeFirstUnpinned(protectedFrames);
+    }
+    if (victim == null) {
+      // Everything protected is pinned, so dip below the probationary quota.
+      victim = evictProbationary();
+    }
+    return victim;
+  }
+
+  private Frame evictProbationary() {
+    Frame victim = removeFirstUnpinned(probationary);
+    if (victim != null) {
+      ghosts.add(victim.getVirtualPageNum());
+      trimGhosts();
+    }
+    return victim;
+  }
+
+  private void trimGhosts() {
+    Iterator<Long> iter = ghosts.iterator();
+    while (ghosts.size() > maxGhosts) {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  private static Frame removeFirstUnpinned(LinkedHashMap<Long, Frame> frames) {
+    Iterator<Frame> iter = frames.values().iterator();
+    while (iter.hasNext()) {
+      Frame frame = iter.next();
+      if (frame.getPage().release()) {
+        iter.remove();
+        return frame;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,77 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the mapping behind a MappedByteBuffer right away instead of when
+ * the buffer is garbage collected. The JDK has no public API for this, so it
+ * goes through the buffer's cleaner (Java 8) or Unsafe#invokeCleaner (Java 9
+ * and later), whichever exists.
+ *
+ * A buffer must never be touched after it has been unmapped: the JVM does
+ * not check, and the access crashes the process.
+ */
+class Unmapper {
+  private static final Method cleanerMethod;
+  private static final Method cleanMethod;
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Method cleaner = null;
+    Method clean = null;
+    Object theUnsafe = null;
+    Method invoke = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invoke = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      theUnsafe = field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      invoke = null;
+      try {
+        cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+      } catch (ReflectiveOperationException | RuntimeException e2) {
+        cleaner = null;
+        clean = null;
+      }
+    }
+    cleanerMethod = cleaner;
+    cleanMethod = clean;
+    unsafe = theUnsafe;
+    invokeCleaner = invoke;
+  }
+
+  private Unmapper() {}
+
+  /**
+   * Unmaps buffer, which must be the buffer returned by FileChannel#map and
+   * not a slice or duplicate of it.
+   *
+   * @return false if this JVM can't unmap buffers explicitly, in which case
+   * the mapping is left to the garbage collector
+   */
+  static boolean unmap(MappedByteBuffer buffer) {
+    try {
+      if (invokeCleaner != null) {
+        invokeCleaner.invoke(unsafe, buffer);
+        return true;
+      }
+      if (cleanerMethod != null) {
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          cleanMethod.invoke(cleaner);
+          return true;
+        }
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Fall back to the garbage collector.
+    }
+    return false;
+  }
+}
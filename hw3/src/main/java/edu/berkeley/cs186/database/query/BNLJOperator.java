@@ -2,7 +2,6 @@ package edu.berkeley.cs186.database.query;
 
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.stream.IntStream;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -11,6 +10,7 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 
 public class BNLJOperator extends JoinOperator {
@@ -46,8 +46,10 @@ public class BNLJOperator extends JoinOperator {
     private Page[] currentLeftPages;
     private Page currentRightPage;
     private BacktrackingIterator<Record> LBIter;
-    private BacktrackingIterator<Record> RBIter;
+    // The right page's records, viewed in place: only a match is decoded.
+    private Iterator<RecordView> RBIter;
     private Record leftRecord;
+    private DataBox leftJoinValue;
     private Record nextRecord;
 
     public BNLJIterator() throws QueryPlanException, DatabaseException {
@@ -60,19 +62,18 @@ public class BNLJOperator extends JoinOperator {
       RPIter.next();
       LPIter.next();
 
-      // Read in numPages
-      currentLeftPages = new Page[numBuffers];
-      for (int i =0; i < numBuffers; i++) {
-        currentLeftPages[i] = LPIter.hasNext() ? LPIter.next() : null;
+      currentLeftPages = new Page[0];
+      boolean started = false;
+      try {
+        nextLeftBlock();
+        nextRightPage();
+        LBIter = getBlockIterator(getLeftTableName(), currentLeftPages);
+        started = true;
+      } finally {
+        if (!started) {
+          close();
+        }
       }
-
-      // Remove null values from currentLeftPages
-      currentLeftPages = Arrays.stream(currentLeftPages)
-                               .filter(x -> x != null)
-                               .toArray(Page[]::new);
-
-      currentRightPage = RPIter.next();
-      LBIter = getBlockIterator(getLeftTableName(), currentLeftPages);
     }
 
     public boolean hasNext() {
@@ -80,6 +81,7 @@ public class BNLJOperator extends JoinOperator {
         return true;
       }
 
+      boolean found = false;
       try {
         while (true) {
           if (leftRecord == null) {
@@ -88,8 +90,8 @@ public class BNLJOperator extends JoinOperator {
               // next one and restart right block iter.
 
               leftRecord = LBIter.next();
-              RBIter = getBlockIterator(getRightTableName(),
-                                        new Page[]{currentRightPage});
+              RBIter = getBlockViewIterator(getRightTableName(),
+                                            new Page[]{currentRightPage});
             } else {
               // Current left page is exhausted. Restart it with the next
               // right page (if there is one).
@@ -98,15 +100,7 @@ public class BNLJOperator extends JoinOperator {
                 // Right page relation is exhausted. Need to restart it with
                 // LPIter on the next page (if there is one).
 
-                currentLeftPages = new Page[numBuffers];
-                for (int i = 0; i < numBuffers; i++) {
-                  currentLeftPages[i] = LPIter.hasNext() ? LPIter.next() : null;
-                }
-
-                // Remove null values from currentLeftPages
-                currentLeftPages = Arrays.stream(currentLeftPages)
-                                         .filter(x -> x != null)
-                                         .toArray(Page[]::new);
+                nextLeftBlock();
 
                 LBIter = getBlockIterator(getLeftTableName(), currentLeftPages);
                 if (!LBIter.hasNext()) {
@@ -122,31 +116,70 @@ public class BNLJOperator extends JoinOperator {
                 leftRecord = LBIter.next();
               }
 
-              currentRightPage = RPIter.next();
-              RBIter = getBlockIterator(getRightTableName(),
-                                        new Page[]{currentRightPage});
+              nextRightPage();
+              RBIter = getBlockViewIterator(getRightTableName(),
+                                            new Page[]{currentRightPage});
             }
           }
+          if (leftJoinValue == null) {
+            leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
+          }
           while (RBIter.hasNext()) {
-            Record rightRecord = RBIter.next();
-            DataBox leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
-            DataBox rightJoinValue = rightRecord.getValues().get(getRightColumnIndex());
-            if (leftJoinValue.equals(rightJoinValue)) {
+            RecordView rightView = RBIter.next();
+            if (rightView.fieldEquals(getRightColumnIndex(), leftJoinValue)) {
               List<DataBox> leftValues = new ArrayList<>(leftRecord.getValues());
-              List<DataBox> rightValues = new ArrayList<>(rightRecord.getValues());
+              List<DataBox> rightValues = rightView.toRecord().getValues();
               leftValues.addAll(rightValues);
               nextRecord = new Record(leftValues);
+              found = true;
               return true;
             }
           }
           leftRecord = null;
+          leftJoinValue = null;
         }
       } catch (DatabaseException e) {
         System.err.println("Caught database error " + e.getMessage());
         return false;
+      } finally {
+        if (!found) {
+          // Done, or failed with any exception: nothing stays pinned.
+          unpinPages();
+        }
       }
     }
 
+    /**
+     * Replaces the current block of left pages with the next numBuffers - 1
+     * pages of the left table, leaving one buffer for the current right page.
+     * The pages of the new block are pinned and the old block is unpinned.
+     */
+    private void nextLeftBlock() throws DatabaseException {
+      for (Page page : currentLeftPages) {
+        unpinPage(page);
+      }
+      int blockSize = Math.max(1, numBuffers - 1);
+      List<Page> block = new ArrayList<Page>(blockSize);
+      while (block.size() < blockSize && LPIter.hasNext()) {
+        block.add(pinPage(getLeftTableName(), LPIter.next()));
+      }
+      currentLeftPages = block.toArray(new Page[block.size()]);
+    }
+
+    private void nextRightPage() throws DatabaseException {
+      if (currentRightPage != null) {
+        unpinPage(currentRightPage);
+      }
+      currentRightPage = pinPage(getRightTableName(), RPIter.next());
+    }
+
+    private void unpinPages() {
+      currentLeftPages = new Page[0];
+      currentRightPage = null;
+      // Also releases the pages of a block that failed halfway through.
+      close();
+    }
+
     /**
      * Yields the next record of this iterator.
      *
@@ -12,7 +12,7 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
-import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 
 public abstract class JoinOperator extends QueryOperator {
@@ -33,6 +33,9 @@ public abstract class JoinOperator extends QueryOperator {
   private String leftColumnName;
   private String rightColumnName;
   private Database.Transaction transaction;
+  // The pages this operator's iterators have pinned and not yet unpinned.
+  private final List<Page> pinnedPages = new ArrayList<Page>();
+  private int maxPinnedPages;
 
   /**
    * Create a join operator that pulls tuples from leftSource and rightSource. Returns tuples for which
@@ -169,7 +172,7 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getRecord(tableName, rid);
   }
 
-  public RecordIterator getRecordIterator(String tableName) throws DatabaseException {
+  public BacktrackingIterator<Record> getRecordIterator(String tableName) throws DatabaseException {
     return this.transaction.getRecordIterator(tableName);
   }
 
@@ -181,6 +184,10 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getBlockIterator(tableName, block);
   }
 
+  public Iterator<RecordView> getBlockViewIterator(String tableName, Page[] block) throws DatabaseException {
+    return this.transaction.getBlockViewIterator(tableName, block);
+  }
+
   public BacktrackingIterator<Record> getBlockIterator(String tableName, BacktrackingIterator<Page> block) throws DatabaseException {
     return this.transaction.getBlockIterator(tableName, block);
   }
@@ -189,6 +196,59 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getBlockIterator(tableName, block, maxPages);
   }
 
+  /**
+   * Pins a page of tableName on behalf of this operator. Every page pinned
+   * here must be released with unpinPage, or by close().
+   *
+   * @param tableName the table the page belongs to
+   * @param page a page returned by getPageIterator(tableName)
+   * @return the pinned page to use in place of page
+   */
+  public Page pinPage(String tableName, Page page) throws DatabaseException {
+    Page pinned = this.transaction.pinPage(tableName, page);
+    this.pinnedPages.add(pinned);
+    this.maxPinnedPages = Math.max(this.maxPinnedPages, this.pinnedPages.size());
+    return pinned;
+  }
+
+  /**
+   * Releases a pin taken with pinPage. Does nothing if close() already
+   * released it.
+   */
+  public void unpinPage(Page page) {
+    if (this.pinnedPages.remove(page)) {
+      this.transaction.unpinPage(page);
+    }
+  }
+
+  /**
+   * Releases every page this operator's iterators still have pinned. An
+   * iterator unpins its pages itself once it runs out of records or fails;
+   * call this when one is abandoned before then. Otherwise the pages stay
+   * pinned until the transaction ends. Iterating further afterwards is not
+   * supported.
+   */
+  public void close() {
+    for (Page page : this.pinnedPages) {
+      this.transaction.unpinPage(page);
+    }
+    this.pinnedPages.clear();
+  }
+
+  /**
+   * @return the number of pages this operator currently has pinned
+   */
+  public int getNumPinnedPages() {
+    return this.pinnedPages.size();
+  }
+
+  /**
+   * @return the largest number of pages this operator has had pinned at once
+   */
+  public int getMaxPinnedPages() {
+    return this.maxPinnedPages;
+  }
+
 
   public String createTempTable(Schema schema) throws DatabaseException {
     return this.transaction.createTempTable(schema);
@@ -6,6 +6,7 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -41,8 +42,10 @@ public class PNLJOperator extends JoinOperator {
     private Page currentLeftPage;
     private Page currentRightPage;
     private BacktrackingIterator<Record> LBIter;
-    private BacktrackingIterator<Record> RBIter;
+    // The right page's records, viewed in place: only a match is decoded.
+    private Iterator<RecordView> RBIter;
     private Record leftRecord;
+    private DataBox leftJoinValue;
     private Record nextRecord;
 
     public PNLJIterator() throws QueryPlanException, DatabaseException {
@@ -54,11 +57,19 @@ public class PNLJOperator extends JoinOperator {
       RPIter.next();
       LPIter.next();
 
-      currentLeftPage = LPIter.next();
-      currentRightPage = RPIter.next();
-
-      LBIter = getBlockIterator(getLeftTableName(),
-                                new Page[]{currentLeftPage});
+      boolean started = false;
+      try {
+        nextLeftPage();
+        nextRightPage();
+
+        LBIter = getBlockIterator(getLeftTableName(),
+                                  new Page[]{currentLeftPage});
+        started = true;
+      } finally {
+        if (!started) {
+          close();
+        }
+      }
     }
 
     /**
@@ -82,6 +93,7 @@ public class PNLJOperator extends JoinOperator {
         return true;
       }
 
+      boolean found = false;
       try {
         while (true) {
           if (leftRecord == null) {
@@ -90,8 +102,8 @@ public class PNLJOperator extends JoinOperator {
               // next one and restart right block iter.
 
               leftRecord = LBIter.next();
-              RBIter = getBlockIterator(getRightTableName(),
-                                        new Page[]{currentRightPage});
+              RBIter = getBlockViewIterator(getRightTableName(),
+                                            new Page[]{currentRightPage});
             } else {
               // Current left page is exhausted. Restart it with the next
               // right page (if there is one).
@@ -101,7 +113,7 @@ public class PNLJOperator extends JoinOperator {
                 // LPIter on the next page (if there is one).
 
                 if (LPIter.hasNext()) {
-                  currentLeftPage = LPIter.next();
+                  nextLeftPage();
                   LBIter = getBlockIterator(getLeftTableName(),
                                             new Page[]{currentLeftPage});
                   assert LBIter.hasNext() : "Need to hasNext() first.";
@@ -120,29 +132,59 @@ public class PNLJOperator extends JoinOperator {
                 leftRecord = LBIter.next();
               }
 
-              currentRightPage = RPIter.next();
-              RBIter = getBlockIterator(getRightTableName(),
-                                        new Page[]{currentRightPage});
+              nextRightPage();
+              RBIter = getBlockViewIterator(getRightTableName(),
+                                            new Page[]{currentRightPage});
             }
           }
+          if (leftJoinValue == null) {
+            leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
+          }
           while (RBIter.hasNext()) {
-            Record rightRecord = RBIter.next();
-            DataBox leftJoinValue = leftRecord.getValues().get(getLeftColumnIndex());
-            DataBox rightJoinValue = rightRecord.getValues().get(getRightColumnIndex());
-            if (leftJoinValue.equals(rightJoinValue)) {
+            RecordView rightView = RBIter.next();
+            if (rightView.fieldEquals(getRightColumnIndex(), leftJoinValue)) {
               List<DataBox> leftValues = new ArrayList<>(leftRecord.getValues());
-              List<DataBox> rightValues = new ArrayList<>(rightRecord.getValues());
+              List<DataBox> rightValues = rightView.toRecord().getValues();
               leftValues.addAll(rightValues);
               nextRecord = new Record(leftValues);
+              found = true;
               return true;
             }
           }
           leftRecord = null;
+          leftJoinValue = null;
         }
       } catch (DatabaseException e) {
         System.err.println("Caught database error " + e.getMessage());
         return false;
+      } finally {
+        if (!found) {
+          // Done, or failed with any exception: nothing stays pinned.
+          unpinPages();
+        }
+      }
+    }
+
+    // The current left and right pages are the only two pages this operator
+    // keeps pinned.
+    private void nextLeftPage() throws DatabaseException {
+      if (currentLeftPage != null) {
+        unpinPage(currentLeftPage);
       }
+      currentLeftPage = pinPage(getLeftTableName(), LPIter.next());
+    }
+
+    private void nextRightPage() throws DatabaseException {
+      if (currentRightPage != null) {
+        unpinPage(currentRightPage);
+      }
+      currentRightPage = pinPage(getRightTableName(), RPIter.next());
+    }
+
+    private void unpinPages() {
+      currentLeftPage = null;
+      currentRightPage = null;
+      close();
     }
 
     /**
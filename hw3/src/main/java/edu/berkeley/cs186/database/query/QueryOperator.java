@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -12,6 +13,7 @@ public abstract class QueryOperator {
   private QueryOperator destination;
   private Schema operatorSchema;
   protected int cost;
+  private final IOStats ioStats = new IOStats();
 
   public enum OperatorType {
     JOIN,
@@ -93,8 +95,29 @@ public abstract class QueryOperator {
 
   protected abstract Schema computeSchema() throws QueryPlanException;
 
+  /**
+   * Runs this operator. The page I/O done while setting up the iterator and
+   * while iterating over it is counted in getIOStats.
+   *
+   * @return an iterator over the output records
+   */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    return iterator();
+    IOStats.Scope scope = this.ioStats.track();
+    try {
+      return this.ioStats.track(iterator());
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * Returns the page I/O of every execute() of this operator so far. This
+   * includes the I/O of its sources, which run inside it.
+   *
+   * @return the I/O counters of this operator
+   */
+  public IOStats getIOStats() {
+    return this.ioStats;
   }
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
@@ -4,12 +4,19 @@ import java.util.Iterator;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 
 public class SequentialScanOperator extends QueryOperator {
   private Database.Transaction transaction;
   private String tableName;
+  // A predicate pushed down into the scan, or null to return every tuple.
+  private String columnName;
+  private PredicateOperator predicate;
+  private DataBox value;
 
   /**
    * Creates a new SequentialScanOperator that provides an iterator on all tuples in a table.
@@ -30,12 +37,55 @@ public class SequentialScanOperator extends QueryOperator {
     this.setOutputSchema(this.computeSchema());
   }
 
+  /**
+   * Creates a new SequentialScanOperator that only provides the tuples of a
+   * table whose column columnName satisfies `columnName predicate value`.
+   * The scan skips the pages that the table's zone map rules out, instead
+   * of reading every page and filtering the tuples afterwards.
+   *
+   * @param transaction
+   * @param tableName
+   * @param columnName the column to filter on, with or without the table name
+   * @param predicate
+   * @param value
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public SequentialScanOperator(Database.Transaction transaction,
+                                String tableName,
+                                String columnName,
+                                PredicateOperator predicate,
+                                DataBox value) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName);
+    String qualified = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
+    this.columnName = qualified.substring(qualified.indexOf('.') + 1);
+    this.predicate = predicate;
+    this.value = value;
+  }
+
   public String getTableName() {
     return this.tableName;
   }
 
+  /**
+   * Returns the tuples of the table, read a page at a time through a
+   * RecordView (see Table#viewIterator) instead of one record lookup each.
+   * With a predicate, the view is only decoded for the tuples that match.
+   */
   public Iterator<Record> iterator() throws DatabaseException {
-    return this.transaction.getRecordIterator(tableName);
+    if (this.predicate != null) {
+      return this.transaction.getFilteredIterator(tableName, columnName, predicate, value);
+    }
+    Iterator<RecordView> views = this.transaction.getViewIterator(tableName);
+    return new Iterator<Record>() {
+      public boolean hasNext() {
+        return views.hasNext();
+      }
+
+      public Record next() {
+        return views.next().toRecord();
+      }
+    };
   }
 
   public Schema computeSchema() throws QueryPlanException {
@@ -47,7 +97,11 @@ public class SequentialScanOperator extends QueryOperator {
   }
 
   public String str() {
-    return "type: " + this.getType() +
+    String str = "type: " + this.getType() +
             "\ntable: " + this.tableName;
+    if (this.predicate != null) {
+      str += "\nfilter: " + this.columnName + " " + this.predicate + " " + this.value;
+    }
+    return str;
   }
 }
@@ -2,9 +2,9 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
-import edu.berkeley.cs186.database.table.RecordIterator;
 
 import java.util.*;
 
@@ -28,8 +28,8 @@ public class SortMergeOperator extends JoinOperator {
   * An implementation of Iterator that provides an iterator interface for this operator.
   */
   private class SortMergeIterator extends JoinIterator {
-    private final RecordIterator leftIter;
-    private final RecordIterator rightIter;
+    private final BacktrackingIterator<Record> leftIter;
+    private final BacktrackingIterator<Record> rightIter;
     private Record leftRecord;
     private Record nextRecord;
     private int rightRecord;
@@ -0,0 +1,171 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The PageFormat.Type.BITMAP format: an n-byte bitmap of the slots in use
+ * followed by m fixed-size records, see the Storage Format section of Table.
+ * Free space is counted in free slots.
+ */
+class BitmapPageFormat implements PageFormat {
+  private final Schema schema;
+  private final int recordSize;
+  private final int bitmapSizeInBytes;
+  private final int numRecordsPerPage;
+  // recordOffsets[f] is the offset of field f in a record.
+  private final int[] recordOffsets;
+
+  BitmapPageFormat(Schema schema) {
+    this.schema = schema;
+    this.recordSize = schema.getSizeInBytes();
+    this.bitmapSizeInBytes = Table.computeBitmapSizeInBytes(Page.pageSize, schema);
+    this.numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, schema);
+    this.recordOffsets = new int[schema.getFieldTypes().size()];
+    for (int f = 1; f < recordOffsets.length; f++) {
+      recordOffsets[f] = recordOffsets[f - 1] + schema.getFieldTypes().get(f - 1).getSizeInBytes();
+    }
+  }
+
+  public int getNumRecordsPerPage() {
+    return numRecordsPerPage;
+  }
+
+  public FreeSpaceMap newFreeSpaceMap() {
+    return new FreeSpaceMap(numRecordsPerPage, 1, 1);
+  }
+
+  public int spaceNeeded(List<DataBox> values) {
+    return 1;
+  }
+
+  public int loadPage(Page page, FreeSpaceMap freeSpace) {
+    int numRecords = Bits.countBits(getBitMap(page));
+    freeSpace.addPage(page.getPageNum(), numRecordsPerPage - numRecords, 0);
+    return numRecords;
+  }
+
+  /**
+   * Finds the first empty slot from the page's free slot hint, a word of the
+   * bitmap at a time, so inserts don't slow down as pages fill up. For
+   * example, if the bitmap is 0b11101000, the record goes in slot 3 and the
+   * bitmap becomes 0b11111000.
+   */
+  public int insert(Page page, FreeSpaceMap freeSpace, List<DataBox> values) {
+    int pageNum = page.getPageNum();
+    Page.Access access = page.access();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int entryNum = Bits.firstClearBit(buf, bitmapSizeInBytes, freeSpace.getFreeSlotHint(pageNum));
+      if (entryNum < 0) {
+        freeSpace.addPage(pageNum, 0, numRecordsPerPage);
+        return -1;
+      }
+
+      write(buf, entryNum, values);
+      int bitmapByte = entryNum / 8;
+      buf.put(bitmapByte, (byte) (buf.get(bitmapByte) | (0x80 >>> (entryNum % 8))));
+      freeSpace.addPage(pageNum, freeSpace.getFreeSpace(pageNum) - 1, entryNum + 1);
+      return entryNum;
+    } finally {
+      access.close();
+    }
+  }
+
+  public boolean update(Page page, FreeSpaceMap freeSpace, int entryNum, List<DataBox> values) {
+    Page.Access access = page.access();
+    try {
+      write(access.getByteBuffer(), entryNum, values);
+    } finally {
+      access.close();
+    }
+    return true;
+  }
+
+  public void delete(Page page, FreeSpaceMap freeSpace, int entryNum) {
+    int pageNum = page.getPageNum();
+    int bitmapByte = entryNum / 8;
+    page.writeByte(bitmapByte, Bits.setBit(page.readByte(bitmapByte), entryNum % 8, Bits.Bit.ZERO));
+    freeSpace.addPage(pageNum, freeSpace.getFreeSpace(pageNum) + 1,
+                      Math.min(freeSpace.getFreeSlotHint(pageNum), entryNum));
+  }
+
+  public byte[] read(Page page, int entryNum) {
+    if (Bits.getBit(page.readByte(entryNum / 8), entryNum % 8) == Bits.Bit.ZERO) {
+      return null;
+    }
+    return page.readBytes(bitmapSizeInBytes + entryNum * recordSize, recordSize);
+  }
+
+  public Record decode(byte[] bytes) {
+    return Record.fromBytes(ByteBuffer.wrap(bytes), schema);
+  }
+
+  public byte[] getBitMap(Page page) {
+    byte[] bytes = new byte[bitmapSizeInBytes];
+    page.readBytes(0, bitmapSizeInBytes, bytes);
+    return bytes;
+  }
+
+  /**
+   * Decodes the requested fields where they lie on the page, without
+   * copying the records out or decoding their other fields.
+   */
+  public List<Record> readColumns(Page page, int[] fields) {
+    byte[] bitmap = getBitMap(page);
+    List<Record> records = new ArrayList<Record>(Bits.countBits(bitmap));
+    // The access has a buffer of its own, so concurrent readers don't clash.
+    Page.Access access = page.readAccess();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      for (int i = 0; i < numRecordsPerPage; i++) {
+        if (Bits.getBit(bitmap, i) == Bits.Bit.ZERO) {
+          continue;
+        }
+        List<DataBox> values = new ArrayList<DataBox>(fields.length);
+        for (int f : fields) {
+          buf.position(fieldOffset(i, f));
+          values.add(DataBox.fromBytes(buf, schema.getFieldTypes().get(f)));
+        }
+        records.add(new Record(values));
+      }
+    } finally {
+      access.close();
+    }
+    return records;
+  }
+
+  public boolean view(ByteBuffer page, int pageNum, int entryNum, RecordView view) {
+    if (Bits.getBit(page.get(entryNum / 8), entryNum % 8) == Bits.Bit.ZERO) {
+      return false;
+    }
+    view.set(page, pageNum, entryNum);
+    for (int f = 0; f < recordOffsets.length; f++) {
+      view.setField(f, fieldOffset(entryNum, f), schema.getFieldTypes().get(f).getSizeInBytes());
+    }
+    return true;
+  }
+
+  /**
+   * @return the offset in the page of field f of the record in slot entryNum
+   */
+  int fieldOffset(int entryNum, int f) {
+    return bitmapSizeInBytes + entryNum * recordSize + recordOffsets[f];
+  }
+
+  /**
+   * Writes values straight into the record's slot, without building a
+   * Record first.
+   */
+  private void write(ByteBuffer buf, int entryNum, List<DataBox> values) {
+    for (int f = 0; f < values.size(); f++) {
+      buf.position(fieldOffset(entryNum, f));
+      buf.put(values.get(f).toBytes());
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * A FreeSpaceMap keeps, in memory, how much free space each data page of a
+ * Table has and where its first free slot might be, so that addRecord
+ * neither measures a page's free space nor scans its slots from the start.
+ *
+ * For every page it keeps
+ *
+ *   - the free space of the page, in whatever unit the table's PageFormat
+ *     counts it in (free slots for BITMAP pages, free bytes for SLOTTED
+ *     pages), and
+ *   - a free slot hint: every slot before the hint is known to be in use, so
+ *     the search for a free slot can start there (see Bits#firstClearBit).
+ *
+ * Both are indexed by page number in plain arrays. A page the map was never
+ * told about has no free space, so only pages with room need to be added
+ * (or saved, see write). The pages with room for some record, those with at
+ * least minFreeSpace free, are also kept in a sorted set, so records keep
+ * going to the first page with room for them. So are the pages with room
+ * for any record, those with at least maxFreeSpace free, so that the search
+ * for room only looks at the partly full pages before the first of those.
+ */
+class FreeSpaceMap {
+  private final int capacity;
+  private final int minFreeSpace;
+  private final int maxFreeSpace;
+  private int[] freeSpace;
+  private int[] freeSlotHints;
+  private final TreeSet<Integer> freePageNums;
+  private final TreeSet<Integer> roomyPageNums;
+
+  /**
+   * @param capacity the free space of an empty page
+   * @param minFreeSpace the free space a page needs to take the smallest
+   * record
+   * @param maxFreeSpace the free space a page needs to take any record
+   */
+  FreeSpaceMap(int capacity, int minFreeSpace, int maxFreeSpace) {
+    this.capacity = capacity;
+    this.minFreeSpace = minFreeSpace;
+    this.maxFreeSpace = maxFreeSpace;
+    this.freeSpace = new int[16];
+    this.freeSlotHints = new int[16];
+    this.freePageNums = new TreeSet<Integer>();
+    this.roomyPageNums = new TreeSet<Integer>();
+  }
+
+  int getCapacity() {
+    return this.capacity;
+  }
+
+  int getMinFreeSpace() {
+    return this.minFreeSpace;
+  }
+
+  int getMaxFreeSpace() {
+    return this.maxFreeSpace;
+  }
+
+  /**
+   * Starts tracking data page pageNum, or updates what is known about it.
+   *
+   * @param freeSpace the free space on the page
+   * @param freeSlotHint a slot such that every slot before it is in use
+   */
+  void addPage(int pageNum, int freeSpace, int freeSlotHint) {
+    if (pageNum >= this.freeSpace.length) {
+      int length = Math.max(pageNum + 1, this.freeSpace.length * 2);
+      this.freeSpace = Arrays.copyOf(this.freeSpace, length);
+      this.freeSlotHints = Arrays.copyOf(this.freeSlotHints, length);
+    }
+    int oldFreeSpace = this.freeSpace[pageNum];
+    this.freeSpace[pageNum] = freeSpace;
+    this.freeSlotHints[pageNum] = freeSlotHint;
+    update(this.freePageNums, pageNum, oldFreeSpace, freeSpace, this.minFreeSpace);
+    update(this.roomyPageNums, pageNum, oldFreeSpace, freeSpace, this.maxFreeSpace);
+  }
+
+  /**
+   * Adds pageNum to or removes it from pageNums, the pages with at least
+   * threshold free. The set only changes when the page crosses the threshold.
+   */
+  private static void update(TreeSet<Integer> pageNums, int pageNum, int oldFreeSpace,
+                             int freeSpace, int threshold) {
+    boolean hadRoom = oldFreeSpace >= threshold;
+    boolean hasRoom = freeSpace >= threshold;
+    if (hasRoom && !hadRoom) {
+      pageNums.add(pageNum);
+    } else if (hadRoom && !hasRoom) {
+      pageNums.remove(pageNum);
+    }
+  }
+
+  /**
+   * Stops tracking data page pageNum, which was freed.
+   */
+  void removePage(int pageNum) {
+    if (pageNum < this.freeSpace.length) {
+      addPage(pageNum, 0, 0);
+    }
+  }
+
+  /**
+   * @return the pages with room for some record, last first
+   */
+  Iterable<Integer> freePagesDescending() {
+    return this.freePageNums.descendingSet();
+  }
+
+  /**
+   * @return the first page with room for some record, or -1 if there is none
+   */
+  int firstFreePage() {
+    return this.freePageNums.isEmpty() ? -1 : this.freePageNums.first();
+  }
+
+  /**
+   * @param needed the free space a record needs
+   * @return the first page with at least needed free, or -1 if there is none
+   */
+  int firstFreePage(int needed) {
+    if (needed <= this.minFreeSpace) {
+      return firstFreePage();
+    }
+    Integer roomy = this.roomyPageNums.isEmpty() ? null : this.roomyPageNums.first();
+    Iterable<Integer> before = roomy == null ? this.freePageNums : this.freePageNums.headSet(roomy);
+    for (int pageNum : before) {
+      if (this.freeSpace[pageNum] >= needed) {
+        return pageNum;
+      }
+    }
+    return roomy == null ? -1 : roomy;
+  }
+
+  /**
+   * @return the free space of page pageNum, 0 for a page the map doesn't know
+   */
+  int getFreeSpace(int pageNum) {
+    return pageNum < this.freeSpace.length ? this.freeSpace[pageNum] : 0;
+  }
+
+  /**
+   * @return a slot of page pageNum such that every slot before it is in use
+   */
+  int getFreeSlotHint(int pageNum) {
+    return pageNum < this.freeSlotHints.length ? this.freeSlotHints[pageNum] : 0;
+  }
+
+  /**
+   * Writes the pages with room, with their free space and hints.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(this.freePageNums.size());
+    for (int pageNum : this.freePageNums) {
+      out.writeInt(pageNum);
+      out.writeInt(this.freeSpace[pageNum]);
+      out.writeInt(this.freeSlotHints[pageNum]);
+    }
+  }
+
+  /**
+   * Reads back a map saved by write.
+   */
+  static FreeSpaceMap read(DataInputStream in, int capacity, int minFreeSpace,
+                           int maxFreeSpace) throws IOException {
+    FreeSpaceMap map = new FreeSpaceMap(capacity, minFreeSpace, maxFreeSpace);
+    int numFreePages = in.readInt();
+    for (int i = 0; i < numFreePages; i++) {
+      int pageNum = in.readInt();
+      int freeSpace = in.readInt();
+      int freeSlotHint = in.readInt();
+      if (pageNum < 1 || freeSpace < minFreeSpace || freeSpace > capacity) {
+        throw new IOException("bad free space entry for page " + pageNum);
+      }
+      map.addPage(pageNum, freeSpace, freeSlotHint);
+    }
+    return map;
+  }
+}
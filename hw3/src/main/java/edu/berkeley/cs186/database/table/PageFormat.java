@@ -0,0 +1,145 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * How a Table lays out records on its data pages. Every table picks one
+ * format when it is created and keeps it, recorded on its header page:
+ *
+ *   - BITMAP stores fixed-size records (Schema#getSizeInBytes bytes each,
+ *     see Record#toBytes) in fixed slots after a bitmap of the slots in use.
+ *   - SLOTTED stores variable-length records (see
+ *     Record#toVariableLengthBytes) packed at the end of the page, found
+ *     through a directory of slots at the start of the page, so strings only
+ *     take the space they need.
+ *   - PAX stores the same fixed-size slots as BITMAP, but field by field:
+ *     each field of every slot is kept together in a minipage, so a scan of
+ *     a few fields (see readColumns) reads just their minipages.
+ *
+ * A record is named by its page and slot (its RecordId) with either format.
+ * The Table holds its write lock around insert, update and delete, and keeps
+ * its FreeSpaceMap up to date through them, in the format's own unit of free
+ * space. read may run concurrently with a writer; see Table#getRecord.
+ */
+public interface PageFormat {
+  enum Type {
+    BITMAP,
+    SLOTTED,
+    PAX
+  }
+
+  /**
+   * @return the number of slots on a page; every entry number is smaller
+   */
+  int getNumRecordsPerPage();
+
+  /**
+   * @return a new FreeSpaceMap for pages of this format, without any pages
+   */
+  FreeSpaceMap newFreeSpaceMap();
+
+  /**
+   * @return the free space, in the unit of this format's FreeSpaceMap, that
+   * a page needs to be sure to take a record of values
+   */
+  int spaceNeeded(List<DataBox> values);
+
+  /**
+   * Adds page, a data page read from the table's file, to freeSpace.
+   *
+   * @return the number of records on the page
+   */
+  int loadPage(Page page, FreeSpaceMap freeSpace);
+
+  /**
+   * Stores values, which match the table's schema, in a free slot of page.
+   * If the page has no room for them, freeSpace is told how much room it
+   * has, so that it isn't offered for records this large again.
+   *
+   * @return the slot of the record, or -1 if the page has no room for it
+   */
+  int insert(Page page, FreeSpaceMap freeSpace, List<DataBox> values);
+
+  /**
+   * Overwrites the record in slot entryNum of page with values.
+   *
+   * @return false, leaving the page unchanged, if the page has no room for
+   * the new record
+   */
+  boolean update(Page page, FreeSpaceMap freeSpace, int entryNum, List<DataBox> values);
+
+  /**
+   * Frees slot entryNum of page, which holds a record.
+   */
+  void delete(Page page, FreeSpaceMap freeSpace, int entryNum);
+
+  /**
+   * Copies the bytes of the record in slot entryNum of page, using only
+   * reads that are safe to race with a writer. Bytes copied during a write
+   * may be garbage, but don't cause an exception.
+   *
+   * @return the record's bytes, or null if the slot is empty
+   */
+  byte[] read(Page page, int entryNum);
+
+  /**
+   * Decodes bytes returned by read.
+   */
+  Record decode(byte[] bytes);
+
+  /**
+   * @return a bitmap of the slots of page that hold records, most significant
+   * bit first, of getNumRecordsPerPage bits
+   */
+  byte[] getBitMap(Page page);
+
+  /**
+   * Decodes the given fields of every record on page, in slot order. The
+   * Table holds its read lock around this.
+   *
+   * @param fields the indices of the fields to decode, in schema order or not
+   * @return a record of just those fields, in that order, for every record
+   */
+  default List<Record> readColumns(Page page, int[] fields) {
+    byte[] bitmap = getBitMap(page);
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < getNumRecordsPerPage(); i++) {
+      if (Bits.getBit(bitmap, i) == Bits.Bit.ZERO) {
+        continue;
+      }
+      List<DataBox> values = decode(read(page, i)).getValues();
+      List<DataBox> columns = new ArrayList<DataBox>(fields.length);
+      for (int f : fields) {
+        columns.add(values.get(f));
+      }
+      records.add(new Record(columns));
+    }
+    return records;
+  }
+
+  /**
+   * Points view at the record in slot entryNum of a data page, without
+   * decoding it.
+   *
+   * @param page a private copy of the data page, so that nothing writes to
+   * it while the view is in use
+   * @param pageNum the number of the data page
+   * @return false, leaving view unchanged, if the slot is empty
+   */
+  boolean view(ByteBuffer page, int pageNum, int entryNum, RecordView view);
+
+  static PageFormat create(Type type, Schema schema) {
+    switch (type) {
+      case BITMAP: return new BitmapPageFormat(schema);
+      case SLOTTED: return new SlottedPageFormat(schema);
+      case PAX: return new PaxPageFormat(schema);
+      default: throw new IllegalArgumentException("Unhandled page format " + type);
+    }
+  }
+}
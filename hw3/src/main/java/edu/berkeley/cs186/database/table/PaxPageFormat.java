@@ -0,0 +1,70 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The PageFormat.Type.PAX format. A page holds the same slots as a BITMAP
+ * page, after the same bitmap, but stores them a field at a time: the page is
+ * split into one minipage per field, and minipage f holds field f of slot 0,
+ * then field f of slot 1, and so on. For a schema (x: int, y: int) with 4
+ * slots per page:
+ *
+ *   +--------+------+------+------+------+------+------+------+------+
+ *   | bitmap | x0   | x1   | x2   | x3   | y0   | y1   | y2   | y3   |
+ *   +--------+------+------+------+------+------+------+------+------+
+ *             \__ minipage of x ______/ \__ minipage of y ______/
+ *
+ * Only where a field is stored differs from BITMAP (see fieldOffset), so
+ * slots are found and freed the same way. Reading a whole record gathers it
+ * from every minipage, which is a little slower, but a scan of one field with
+ * readColumns reads one contiguous minipage and nothing else.
+ */
+class PaxPageFormat extends BitmapPageFormat {
+  private final int recordSize;
+  private final int[] fieldSizes;
+  // minipageOffsets[f] is the offset of the minipage of field f.
+  private final int[] minipageOffsets;
+
+  PaxPageFormat(Schema schema) {
+    super(schema);
+    int numFields = schema.getFieldTypes().size();
+    this.recordSize = schema.getSizeInBytes();
+    this.fieldSizes = new int[numFields];
+    this.minipageOffsets = new int[numFields];
+    int offset = Table.computeBitmapSizeInBytes(Page.pageSize, schema);
+    for (int f = 0; f < numFields; f++) {
+      fieldSizes[f] = schema.getFieldTypes().get(f).getSizeInBytes();
+      minipageOffsets[f] = offset;
+      offset += getNumRecordsPerPage() * fieldSizes[f];
+    }
+  }
+
+  @Override
+  public byte[] read(Page page, int entryNum) {
+    if (Bits.getBit(page.readByte(entryNum / 8), entryNum % 8) == Bits.Bit.ZERO) {
+      return null;
+    }
+    byte[] bytes = new byte[recordSize];
+    Page.Access access = page.readAccess();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int position = 0;
+      for (int f = 0; f < fieldSizes.length; f++) {
+        buf.position(fieldOffset(entryNum, f));
+        buf.get(bytes, position, fieldSizes[f]);
+        position += fieldSizes[f];
+      }
+    } finally {
+      access.close();
+    }
+    return bytes;
+  }
+
+  @Override
+  int fieldOffset(int entryNum, int f) {
+    return minipageOffsets[f] + entryNum * fieldSizes[f];
+  }
+}
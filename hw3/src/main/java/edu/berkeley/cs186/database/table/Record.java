@@ -1,11 +1,14 @@
 package edu.berkeley.cs186.database.table;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 
 /** A Record is just list of DataBoxes. */
 public class Record {
@@ -27,6 +30,100 @@ public class Record {
     return byteBuffer.array();
   }
 
+  /**
+   * Encodes this record in a variable-length format, as used by slotted
+   * pages. Every field is written as by toBytes except strings: a string is
+   * written as a 2-byte length followed by the string without the spaces
+   * that pad it to its declared length. For example, with the schema
+   * (int, string(10)), the record [42, "abc"] takes 4 + 2 + 3 = 9 bytes
+   * instead of 14.
+   */
+  public byte[] toVariableLengthBytes(Schema schema) {
+    int size = 0;
+    String[] strings = new String[values.size()];
+    for (int i = 0; i < values.size(); ++i) {
+      DataBox value = values.get(i);
+      if (value.type().getTypeId() == TypeId.STRING) {
+        strings[i] = stripPadding(value.getString());
+        size += 2 + strings[i].length();
+      } else {
+        size += value.type().getSizeInBytes();
+      }
+    }
+
+    ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < values.size(); ++i) {
+      if (strings[i] != null) {
+        byteBuffer.putShort((short) strings[i].length());
+        byteBuffer.put(strings[i].getBytes(StandardCharsets.UTF_8));
+      } else {
+        byteBuffer.put(values.get(i).toBytes());
+      }
+    }
+    return byteBuffer.array();
+  }
+
+  /**
+   * @return the number of bytes toVariableLengthBytes takes for this record
+   */
+  int variableLengthSize() {
+    int size = 0;
+    for (DataBox value : values) {
+      if (value.type().getTypeId() == TypeId.STRING) {
+        size += 2 + stripPadding(value.getString()).length();
+      } else {
+        size += value.type().getSizeInBytes();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Decodes a record written by toVariableLengthBytes. Strings are padded
+   * back to the length of their type.
+   */
+  public static Record fromVariableLengthBytes(ByteBuffer buf, Schema schema) {
+    List<DataBox> values = new ArrayList<DataBox>();
+    for (Type t : schema.getFieldTypes()) {
+      if (t.getTypeId() == TypeId.STRING) {
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        values.add(new StringDataBox(new String(bytes, StandardCharsets.UTF_8), t.getSizeInBytes()));
+      } else {
+        values.add(DataBox.fromBytes(buf, t));
+      }
+    }
+    return new Record(values);
+  }
+
+  /**
+   * Returns the fewest and the most bytes that toVariableLengthBytes can
+   * take for a record of the given schema.
+   */
+  static int minVariableLengthSize(Schema schema) {
+    int size = 0;
+    for (Type t : schema.getFieldTypes()) {
+      size += t.getTypeId() == TypeId.STRING ? 2 : t.getSizeInBytes();
+    }
+    return size;
+  }
+
+  static int maxVariableLengthSize(Schema schema) {
+    int size = 0;
+    for (Type t : schema.getFieldTypes()) {
+      size += t.getTypeId() == TypeId.STRING ? 2 + t.getSizeInBytes() : t.getSizeInBytes();
+    }
+    return size;
+  }
+
+  private static String stripPadding(String s) {
+    int end = s.length();
+    while (end > 0 && s.charAt(end - 1) == ' ') {
+      end--;
+    }
+    return s.substring(0, end);
+  }
+
   /**
    * Takes a byte[] and decodes it into a Record. This method assumes that the
    * input byte[] represents a record that corresponds to this schema.
@@ -0,0 +1,197 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * A RecordView reads the fields of a record where they lie in a copy of its
+ * page, instead of decoding the record into a Record of DataBoxes. One view
+ * is reused for every record of a scan (see Table#viewIterator), so reading
+ * ints, floats, bools and string bytes through it allocates nothing:
+ *
+ *   Iterator<RecordView> views = table.viewIterator();
+ *   long sum = 0;
+ *   while (views.hasNext()) {
+ *     sum += views.next().getInt(1);
+ *   }
+ *
+ * A view only stays valid until the iterator it came from moves on. A record
+ * that has to outlive that, e.g. one that is kept or passed up to the next
+ * operator, must be materialized with toRecord (or get, for a single field).
+ */
+public class RecordView {
+  private final List<Type> fieldTypes;
+  // offsets[f] is where field f starts in buf, and lengths[f] is how many
+  // bytes it takes there. A string may take fewer than its declared length,
+  // on a SLOTTED page, and the rest is padding.
+  private final int[] offsets;
+  private final int[] lengths;
+  private ByteBuffer buf;
+  private int pageNum;
+  private int entryNum;
+
+  RecordView(Schema schema) {
+    this.fieldTypes = schema.getFieldTypes();
+    this.offsets = new int[fieldTypes.size()];
+    this.lengths = new int[fieldTypes.size()];
+  }
+
+  public int getNumFields() {
+    return offsets.length;
+  }
+
+  public int getPageNum() {
+    return pageNum;
+  }
+
+  public int getEntryNum() {
+    return entryNum;
+  }
+
+  public RecordId getRecordId() {
+    return new RecordId(pageNum, (short) entryNum);
+  }
+
+  public boolean getBool(int i) {
+    checkType(i, TypeId.BOOL);
+    return buf.get(offsets[i]) == 1;
+  }
+
+  public int getInt(int i) {
+    checkType(i, TypeId.INT);
+    return buf.getInt(offsets[i]);
+  }
+
+  public float getFloat(int i) {
+    checkType(i, TypeId.FLOAT);
+    return buf.getFloat(offsets[i]);
+  }
+
+  /**
+   * Copies the bytes of string field i, padded with spaces to the length of
+   * its type like StringDataBox#toBytes, into dst.
+   *
+   * @return the length of the field's type, the number of bytes copied
+   */
+  public int getStringBytes(int i, byte[] dst) {
+    checkType(i, TypeId.STRING);
+    int size = fieldTypes.get(i).getSizeInBytes();
+    for (int j = 0; j < lengths[i]; j++) {
+      dst[j] = buf.get(offsets[i] + j);
+    }
+    for (int j = lengths[i]; j < size; j++) {
+      dst[j] = ' ';
+    }
+    return size;
+  }
+
+  /**
+   * Decodes string field i, as DataBox#getString would. This allocates.
+   */
+  public String getString(int i) {
+    return get(i).getString();
+  }
+
+  /**
+   * Decodes field i into a new DataBox.
+   */
+  public DataBox get(int i) {
+    Type type = fieldTypes.get(i);
+    switch (type.getTypeId()) {
+      case BOOL: return new BoolDataBox(getBool(i));
+      case INT: return new IntDataBox(getInt(i));
+      case FLOAT: return new FloatDataBox(getFloat(i));
+      case STRING: {
+        byte[] bytes = new byte[lengths[i]];
+        for (int j = 0; j < bytes.length; j++) {
+          bytes[j] = buf.get(offsets[i] + j);
+        }
+        return new StringDataBox(new String(bytes, StandardCharsets.UTF_8), type.getSizeInBytes());
+      }
+      default: {
+        String err = String.format("Unhandled TypeId %s.", type.getTypeId().toString());
+        throw new IllegalArgumentException(err);
+      }
+    }
+  }
+
+  /**
+   * Returns whether field i equals value, as get(i).equals(value) would,
+   * without decoding the field into a DataBox first.
+   */
+  public boolean fieldEquals(int i, DataBox value) {
+    Type type = fieldTypes.get(i);
+    if (!type.equals(value.type())) {
+      return false;
+    }
+    switch (type.getTypeId()) {
+      case BOOL: return getBool(i) == value.getBool();
+      case INT: return getInt(i) == value.getInt();
+      case FLOAT: return getFloat(i) == value.getFloat();
+      case STRING: {
+        // value is padded with spaces to the length of the type, like the
+        // field.
+        String s = value.getString();
+        for (int j = 0; j < s.length(); j++) {
+          byte b = j < lengths[i] ? buf.get(offsets[i] + j) : (byte) ' ';
+          if (b != s.charAt(j)) {
+            return false;
+          }
+        }
+        return true;
+      }
+      default: {
+        String err = String.format("Unhandled TypeId %s.", type.getTypeId().toString());
+        throw new IllegalArgumentException(err);
+      }
+    }
+  }
+
+  /**
+   * Decodes the whole record, equal to what Table#getRecord returns.
+   */
+  public Record toRecord() {
+    List<DataBox> values = new ArrayList<DataBox>(offsets.length);
+    for (int i = 0; i < offsets.length; i++) {
+      values.add(get(i));
+    }
+    return new Record(values);
+  }
+
+  @Override
+  public String toString() {
+    return toRecord().toString();
+  }
+
+  /**
+   * Moves the view to the record in slot entryNum of page pageNum, whose
+   * bytes are in buf. The PageFormat then places each field with setField.
+   */
+  void set(ByteBuffer buf, int pageNum, int entryNum) {
+    this.buf = buf;
+    this.pageNum = pageNum;
+    this.entryNum = entryNum;
+  }
+
+  void setField(int i, int offset, int length) {
+    offsets[i] = offset;
+    lengths[i] = length;
+  }
+
+  private void checkType(int i, TypeId typeId) {
+    if (fieldTypes.get(i).getTypeId() != typeId) {
+      throw new DataBoxException("field " + i + " is not of type " + typeId);
+    }
+  }
+}
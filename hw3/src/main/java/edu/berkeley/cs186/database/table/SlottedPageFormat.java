@@ -0,0 +1,307 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The PageFormat.Type.SLOTTED format. A page starts with a header and a slot
+ * directory, and its records, encoded by Record#toVariableLengthBytes, are
+ * packed at its end:
+ *
+ *   +-----------+-------+--------+--------+-----+--------+---------------+
+ *   | numSlots  | start | used   | slot 0 | ... | slot n |  free  | recs |
+ *   +-----------+-------+--------+--------+-----+--------+---------------+
+ *    4 bytes     2       2        4              4                 ^ start
+ *
+ *   - numSlots is the number of slots in the directory,
+ *   - start is the offset of the lowest record (0 on an empty page, for the
+ *     end of the page), and
+ *   - used is the number of bytes taken by records.
+ *
+ * A slot holds the offset of its record in its high 2 bytes and the length
+ * of the record in its low 2 bytes; an empty slot is 0. A new record reuses
+ * the first empty slot or goes in a new one at the end of the directory, and
+ * empty slots at the end of the directory are dropped. Deleting or shrinking
+ * a record leaves a hole among the records, so when a record doesn't fit in
+ * the free space between the directory and start, but would fit in all of
+ * the page's free space, the page is compacted first: its records are moved
+ * to the end of the page, one after another.
+ *
+ * Free space is counted in bytes, directory included. A page takes new
+ * records as long as it has room for them: the Table asks the FreeSpaceMap
+ * for the first page with room for the record at hand (see spaceNeeded), so
+ * short records fill the gaps that long ones leave. An updated record that
+ * grows must still fit on its own page, since its RecordId can't change;
+ * Table#updateRecord throws if it doesn't.
+ */
+class SlottedPageFormat implements PageFormat {
+  private static final int headerSize = 8;
+  private static final int slotSize = 4;
+
+  private final Schema schema;
+  private final int numRecordsPerPage;
+  private final int minRecordSize;
+  private final int maxRecordSize;
+  private final int numFields;
+  private final boolean[] isString;
+  private final int[] fieldSizes;
+
+  SlottedPageFormat(Schema schema) {
+    this.schema = schema;
+    this.numFields = schema.getFieldTypes().size();
+    this.isString = new boolean[numFields];
+    this.fieldSizes = new int[numFields];
+    for (int f = 0; f < numFields; f++) {
+      isString[f] = schema.getFieldTypes().get(f).getTypeId() == TypeId.STRING;
+      fieldSizes[f] = schema.getFieldTypes().get(f).getSizeInBytes();
+    }
+    this.maxRecordSize = Record.maxVariableLengthSize(schema);
+    this.minRecordSize = Math.max(1, Record.minVariableLengthSize(schema));
+    this.numRecordsPerPage = (Page.pageSize - headerSize) / (slotSize + minRecordSize);
+  }
+
+  public int getNumRecordsPerPage() {
+    return numRecordsPerPage;
+  }
+
+  public FreeSpaceMap newFreeSpaceMap() {
+    int capacity = Page.pageSize - headerSize;
+    return new FreeSpaceMap(capacity, Math.min(minRecordSize + slotSize, capacity),
+                            Math.min(maxRecordSize + slotSize, capacity));
+  }
+
+  public int spaceNeeded(List<DataBox> values) {
+    return new Record(values).variableLengthSize() + slotSize;
+  }
+
+  public int loadPage(Page page, FreeSpaceMap freeSpace) {
+    Page.Access access = page.readAccess();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int numSlots = buf.getInt(0);
+      int numRecords = 0;
+      for (int i = 0; i < numSlots; i++) {
+        if (buf.getInt(slotOffset(i)) != 0) {
+          numRecords++;
+        }
+      }
+      freeSpace.addPage(page.getPageNum(), freeSpace(buf), 0);
+      return numRecords;
+    } finally {
+      access.close();
+    }
+  }
+
+  public int insert(Page page, FreeSpaceMap freeSpace, List<DataBox> values) {
+    int pageNum = page.getPageNum();
+    byte[] bytes = new Record(values).toVariableLengthBytes(schema);
+    Page.Access access = page.access();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int numSlots = buf.getInt(0);
+
+      // Find an empty slot, or make room for a new one.
+      int entryNum = Math.min(freeSpace.getFreeSlotHint(pageNum), numSlots);
+      while (entryNum < numSlots && buf.getInt(slotOffset(entryNum)) != 0) {
+        entryNum++;
+      }
+      int needed = bytes.length + (entryNum == numSlots ? slotSize : 0);
+      if (entryNum >= numRecordsPerPage) {
+        // No slot left, so no room for any record.
+        freeSpace.addPage(pageNum, 0, entryNum);
+        return -1;
+      }
+      if (freeSpace(buf) < needed) {
+        freeSpace.addPage(pageNum, freeSpace(buf), entryNum);
+        return -1;
+      }
+      if (entryNum == numSlots) {
+        buf.putInt(0, numSlots + 1);
+      }
+
+      put(buf, entryNum, bytes);
+      freeSpace.addPage(pageNum, freeSpace(buf), entryNum + 1);
+      return entryNum;
+    } finally {
+      access.close();
+    }
+  }
+
+  public boolean update(Page page, FreeSpaceMap freeSpace, int entryNum, List<DataBox> values) {
+    int pageNum = page.getPageNum();
+    byte[] bytes = new Record(values).toVariableLengthBytes(schema);
+    Page.Access access = page.access();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int slot = buf.getInt(slotOffset(entryNum));
+      int offset = slot >>> 16;
+      int length = slot & 0xFFFF;
+
+      if (bytes.length <= length) {
+        // Overwrite the record in place; the rest of its bytes become a hole.
+        buf.position(offset);
+        buf.put(bytes);
+        buf.putInt(slotOffset(entryNum), (offset << 16) | bytes.length);
+        setUsed(buf, getUsed(buf) - (length - bytes.length));
+      } else {
+        if (freeSpace(buf) + length < bytes.length) {
+          return false;
+        }
+        buf.putInt(slotOffset(entryNum), 0);
+        setUsed(buf, getUsed(buf) - length);
+        put(buf, entryNum, bytes);
+      }
+      freeSpace.addPage(pageNum, freeSpace(buf), freeSpace.getFreeSlotHint(pageNum));
+      return true;
+    } finally {
+      access.close();
+    }
+  }
+
+  public void delete(Page page, FreeSpaceMap freeSpace, int entryNum) {
+    int pageNum = page.getPageNum();
+    Page.Access access = page.access();
+    try {
+      ByteBuffer buf = access.getByteBuffer();
+      int length = buf.getInt(slotOffset(entryNum)) & 0xFFFF;
+      buf.putInt(slotOffset(entryNum), 0);
+      setUsed(buf, getUsed(buf) - length);
+
+      int numSlots = buf.getInt(0);
+      while (numSlots > 0 && buf.getInt(slotOffset(numSlots - 1)) == 0) {
+        numSlots--;
+      }
+      buf.putInt(0, numSlots);
+      if (numSlots == 0) {
+        buf.putShort(4, (short) 0);
+      }
+      freeSpace.addPage(pageNum, freeSpace(buf),
+                        Math.min(freeSpace.getFreeSlotHint(pageNum), entryNum));
+    } finally {
+      access.close();
+    }
+  }
+
+  public byte[] read(Page page, int entryNum) {
+    if (entryNum >= page.readInt(0)) {
+      return null;
+    }
+    int slot = page.readInt(slotOffset(entryNum));
+    int offset = slot >>> 16;
+    int length = slot & 0xFFFF;
+    if (slot == 0 || offset < headerSize || offset + length > Page.pageSize) {
+      // An empty slot, or one read halfway through a write.
+      return null;
+    }
+    return page.readBytes(offset, length);
+  }
+
+  public Record decode(byte[] bytes) {
+    return Record.fromVariableLengthBytes(ByteBuffer.wrap(bytes), schema);
+  }
+
+  /**
+   * Walks the record's fields to find where each starts, since strings take
+   * a varying number of bytes.
+   */
+  public boolean view(ByteBuffer page, int pageNum, int entryNum, RecordView view) {
+    if (entryNum >= page.getInt(0) || page.getInt(slotOffset(entryNum)) == 0) {
+      return false;
+    }
+    view.set(page, pageNum, entryNum);
+    int position = page.getInt(slotOffset(entryNum)) >>> 16;
+    for (int f = 0; f < numFields; f++) {
+      if (isString[f]) {
+        int length = page.getShort(position);
+        view.setField(f, position + 2, length);
+        position += 2 + length;
+      } else {
+        view.setField(f, position, fieldSizes[f]);
+        position += fieldSizes[f];
+      }
+    }
+    return true;
+  }
+
+  public byte[] getBitMap(Page page) {
+    byte[] bitmap = new byte[(numRecordsPerPage + 7) / 8];
+    int numSlots = Math.min(page.readInt(0), numRecordsPerPage);
+    if (numSlots <= 0) {
+      return bitmap;
+    }
+    ByteBuffer directory = ByteBuffer.wrap(page.readBytes(0, slotOffset(numSlots)));
+    for (int i = 0; i < numSlots; i++) {
+      if (directory.getInt(slotOffset(i)) != 0) {
+        bitmap[i / 8] |= (byte) (0x80 >>> (i % 8));
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Stores bytes as the record of empty slot entryNum, compacting the page
+   * first if the free space below start is too small. The caller has checked
+   * that the page has room.
+   */
+  private void put(ByteBuffer buf, int entryNum, byte[] bytes) {
+    int directoryEnd = slotOffset(buf.getInt(0));
+    if (getStart(buf) - directoryEnd < bytes.length) {
+      compact(buf);
+    }
+    int offset = getStart(buf) - bytes.length;
+    buf.position(offset);
+    buf.put(bytes);
+    buf.putInt(slotOffset(entryNum), (offset << 16) | bytes.length);
+    buf.putShort(4, (short) offset);
+    setUsed(buf, getUsed(buf) + bytes.length);
+  }
+
+  /**
+   * Moves every record to the end of the page, in slot order, so that all
+   * the free space lies between the directory and start.
+   */
+  private void compact(ByteBuffer buf) {
+    byte[] page = new byte[Page.pageSize];
+    buf.position(0);
+    buf.get(page);
+    int numSlots = buf.getInt(0);
+    int start = Page.pageSize;
+    for (int i = 0; i < numSlots; i++) {
+      int slot = buf.getInt(slotOffset(i));
+      if (slot == 0) {
+        continue;
+      }
+      int length = slot & 0xFFFF;
+      start -= length;
+      buf.position(start);
+      buf.put(page, slot >>> 16, length);
+      buf.putInt(slotOffset(i), (start << 16) | length);
+    }
+    buf.putShort(4, (short) (start == Page.pageSize ? 0 : start));
+  }
+
+  private static int freeSpace(ByteBuffer buf) {
+    return Page.pageSize - slotOffset(buf.getInt(0)) - getUsed(buf);
+  }
+
+  private static int getStart(ByteBuffer buf) {
+    int start = buf.getShort(4) & 0xFFFF;
+    return start == 0 ? Page.pageSize : start;
+  }
+
+  private static int getUsed(ByteBuffer buf) {
+    return buf.getShort(6) & 0xFFFF;
+  }
+
+  private static void setUsed(ByteBuffer buf, int used) {
+    buf.putShort(6, (short) used);
+  }
+
+  private static int slotOffset(int entryNum) {
+    return headerSize + entryNum * slotSize;
+  }
+}
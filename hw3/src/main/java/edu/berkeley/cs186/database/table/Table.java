@@ -1,17 +1,33 @@
 package edu.berkeley.cs186.database.table;
 
 import java.util.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.DelayQueue;
+import java.util.concurrent.locks.StampedLock;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 
 /**
@@ -90,10 +106,61 @@ import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
  *
  *  When we add a record to a table, we add it to the very first free slot in
  *  the table. See addRecord for more information.
+ *
+ * This is the PageFormat.Type.BITMAP format, which every table has unless it
+ * asks for another when it is created. A SLOTTED table's data pages hold a
+ * slot directory and variable-length records instead, so that strings don't
+ * take their full declared length (see SlottedPageFormat). A PAX table's
+ * data pages group each field of all their records together, so that
+ * columnIterator can read a few fields of a wide table without reading the
+ * rest (see PaxPageFormat). The header page records the format in the byte
+ * after the schema.
+ *
+ * # Zone Maps
+ * Every table keeps the smallest and largest value of each field on each of
+ * its data pages (see ZoneMap). filteredIterator uses them to skip the pages
+ * that can't hold a record matching its predicate, without reading them.
+ *
+ * # Metadata
+ * Loading a table needs the number of records, the free space of every
+ * page, and its zone map. Rather than rebuild them from every data page, close
+ * (and checkpoint) saves them into a second file, the table's filename plus
+ * METADATA_EXTENSION, which the next load reads instead. The first change
+ * to the table after the metadata was saved or loaded deletes that file,
+ * and forces the deletion to disk before making the change, so a table that
+ * is not closed cleanly is rebuilt from its pages, as is one whose metadata
+ * doesn't match its file.
+ *
+ * # Concurrency
+ * addRecord, updateRecord and deleteRecord take the table's write lock, so
+ * they run one at a time. getRecord takes no lock at all in the common case:
+ * it copies the record's bytes and then checks that no writer ran in the
+ * meantime, and only retries under the read lock if one did. Point reads
+ * therefore run in parallel with each other, and are only held up by writes.
+ *
+ * # Compaction
+ * Deleting records never frees pages by itself. compactPage moves the
+ * records of the last sparse page into earlier pages with room, and frees
+ * the page once it is empty. It holds the write lock for one page at a time,
+ * so it can run alongside point reads and writers, a page per call, and
+ * tells its listener about every move before it lets go. The records it
+ * moves get new RecordIds: a RecordId read before the move no longer names
+ * the record, and a scan by RecordId (iterator, ridIterator) that runs
+ * during compaction may miss a moved record, see it twice, or fail on it, so
+ * don't compact a table while such scans are open. viewIterator and
+ * filteredIterator copy whole pages and are not affected beyond seeing a
+ * moved record twice or not at all.
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String METADATA_EXTENSION = ".meta";
+
+  // Identifies a metadata file, and its format version.
+  private static final int METADATA_MAGIC = 0x7AB1E003;
+
+  // The largest number of data pages allocated at once when the table grows.
+  public static final int MAX_EXTENT_PAGES = 64;
 
   // The name of the database.
   private String name;
@@ -107,34 +174,65 @@ public class Table implements Iterable<Record>, Closeable {
   // The allocator used to persist the database.
   private PageAllocator allocator;
 
-  // The size (in bytes) of the bitmap found at the beginning of each data page.
+  // How records are laid out on data pages.
+  private PageFormat.Type formatType;
+  private PageFormat format;
+
+  // The size (in bytes) of the bitmap returned by getBitMap.
   private int bitmapSizeInBytes;
 
-  // The number of records on each data page.
+  // The number of record slots on each data page.
   private int numRecordsPerPage;
 
-  // The page numbers of all allocated pages which have room for more records.
-  private TreeSet<Integer> freePageNums;
+  // How full every data page is, and which pages have room for more records.
+  private FreeSpaceMap freeSpace;
+
+  // The range of values of every field on every data page.
+  private ZoneMap zoneMap;
 
   // The number of records in the table.
   private long numRecords;
 
+  // Taken for writing by every modifier; see getRecord for readers.
+  private final StampedLock lock = new StampedLock();
+
+  // Whether the metadata file matches the table; see Metadata above.
+  private boolean metadataSaved;
+
+  /**
+   * Is told about every record that compactPage moves, e.g. to point an
+   * index at its new RecordId.
+   */
+  public interface RecordMoveListener {
+    void recordMoved(Record record, RecordId from, RecordId to) throws DatabaseException;
+  }
+
   // Constructors //////////////////////////////////////////////////////////////
   /**
    * Construct a brand new table named `name` with schema `schema` persisted in
    * file `filename`.
    */
   public Table(String name, Schema schema, String filename) {
+    this(name, schema, filename, PageFormat.Type.BITMAP);
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename`, whose data pages have format `formatType`.
+   */
+  public Table(String name, Schema schema, String filename, PageFormat.Type formatType) {
     this.name = name;
     this.filename = filename;
     this.schema = schema;
     this.allocator = new PageAllocator(filename, true);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
-    numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
-    this.freePageNums = new TreeSet<Integer>();
+    setFormat(formatType);
+    this.freeSpace = format.newFreeSpaceMap();
+    this.zoneMap = new ZoneMap(schema);
     this.numRecords = 0;
+    new File(filename + METADATA_EXTENSION).delete();
+    this.metadataSaved = false;
 
-    writeSchemaToHeaderPage(allocator, schema);
+    writeHeaderPage(allocator, schema, formatType);
   }
 
   /**
@@ -145,28 +243,35 @@ public class Table implements Iterable<Record>, Closeable {
     this.name = name;
     this.filename = filename;
     this.allocator = new PageAllocator(filename, false);
-    this.schema = readSchemaFromHeaderPage(this.allocator);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.schema);
-    this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.schema);
+    Page.Access header = this.allocator.fetchPage(0).readAccess();
+    try {
+      this.schema = Schema.fromBytes(header.getByteBuffer());
+      // Tables from before there were formats have a 0 here, for BITMAP.
+      setFormat(PageFormat.Type.values()[header.getByteBuffer().get()]);
+    } finally {
+      header.close();
+    }
+
+    this.metadataSaved = readMetadata();
+    if (this.metadataSaved) {
+      return;
+    }
 
-    this.freePageNums = new TreeSet<Integer>();
+    this.freeSpace = format.newFreeSpaceMap();
+    this.zoneMap = new ZoneMap(schema);
     this.numRecords = 0;
 
+    int[] allFields = new int[schema.getFieldTypes().size()];
+    for (int f = 0; f < allFields.length; f++) {
+      allFields[f] = f;
+    }
     Iterator<Page> iter = this.allocator.iterator();
     iter.next(); // Skip the header page.
     while(iter.hasNext()) {
       Page page = iter.next();
-      byte[] bitmap = getBitMap(page);
-
-      for (short i = 0; i < numRecordsPerPage; ++i) {
-        if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-          Record r = getRecord(new RecordId(page.getPageNum(), i));
-          numRecords++;
-        }
-      }
-
-      if (numRecordsOnPage(page) != numRecordsPerPage) {
-        freePageNums.add(page.getPageNum());
+      numRecords += format.loadPage(page, freeSpace);
+      for (Record record : format.readColumns(page, allFields)) {
+        zoneMap.add(page.getPageNum(), record.getValues());
       }
     }
   }
@@ -188,6 +293,10 @@ public class Table implements Iterable<Record>, Closeable {
     return allocator;
   }
 
+  public PageFormat.Type getFormatType() {
+    return formatType;
+  }
+
   public int getBitmapSizeInBytes() {
     return bitmapSizeInBytes;
   }
@@ -205,10 +314,12 @@ public class Table implements Iterable<Record>, Closeable {
     return allocator.getNumPages() - 1;
   }
 
+  /**
+   * Returns a bitmap of the slots of page that hold records. For BITMAP
+   * pages, this is the bitmap at the start of the page.
+   */
   public byte[] getBitMap(Page page) {
-    byte[] bytes = new byte[bitmapSizeInBytes];
-    page.getByteBuffer().get(bytes);
-    return bytes;
+    return format.getBitMap(page);
   }
 
   public static int computeBitmapSizeInBytes(int pageSize, Schema schema) {
@@ -224,125 +335,455 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   // Modifiers /////////////////////////////////////////////////////////////////
-  private synchronized void insertRecord(Page page, int entryNum, Record record) {
-    int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-    byte[] bytes = record.toBytes(schema);
-    ByteBuffer buf = page.getByteBuffer();
-    buf.position(offset);
-    buf.put(bytes);
-  }
-
   /**
    * addRecord adds a record to this table and returns the record id of the
-   * newly added record. freePageNums, and numRecords are updated
-   * accordingly. The record is added to the first free slot of the first free
-   * page (if one exists, otherwise one is allocated). For example, if the
-   * first free page has bitmap 0b11101000, then the record is inserted into
-   * the page with index 3 and the bitmap is updated to 0b11111000.
-   */
-  public synchronized RecordId addRecord(List<DataBox> values) throws DatabaseException {
-    Record record = schema.verify(values);
-
-    // Get a free page, allocating a new one if necessary.
-    if (freePageNums.isEmpty()) {
-      freePageNums.add(allocator.allocPage());
-    }
-    Page page = allocator.fetchPage(freePageNums.first());
-
-    // Find the first empty slot in the bitmap.
-    // entry number of the first free slot and store it in entryNum; and (2) we
-    // count the total number of entries on this page.
-    byte[] bitmap = getBitMap(page);
-    int entryNum = 0;
-    for (; entryNum < numRecordsPerPage; ++entryNum) {
-      if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
-        break;
-      }
+   * newly added record. freeSpace, and numRecords are updated
+   * accordingly. The record is added to the first free slot of the first
+   * page with room for it (if one exists, otherwise a new extent of pages is
+   * allocated, see growTable). How the slot is found and the record stored
+   * depends on the table's PageFormat.
+   */
+  public RecordId addRecord(List<DataBox> values) throws DatabaseException {
+    schema.verify(values);
+    long stamp = lock.writeLock();
+    try {
+      invalidateMetadata();
+      return insert(values);
+    } finally {
+      lock.unlockWrite(stamp);
     }
-    assert(entryNum < numRecordsPerPage);
-
-    // Insert the record and update the bitmap.
-    insertRecord(page, entryNum, record);
-    Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ONE);
+  }
 
-    // Update the metadata.
-    if (numRecordsOnPage(page) == numRecordsPerPage) {
-      freePageNums.pollFirst();
+  /**
+   * Adds every record of rows to this table, in order, and returns their
+   * record ids in the same order. The records go where addRecord would put
+   * them, one after another, but the write lock is taken once for the whole
+   * batch and every page is fetched once for all the records that go on it.
+   *
+   * Every row is checked against the schema before any of them is written,
+   * so if one doesn't match, a DatabaseException is thrown and the table is
+   * left as it was.
+   */
+  public List<RecordId> addRecords(Iterator<List<DataBox>> rows) throws DatabaseException {
+    List<List<DataBox>> batch = new ArrayList<>();
+    while (rows.hasNext()) {
+      List<DataBox> values = rows.next();
+      schema.verify(values);
+      batch.add(values);
     }
-    numRecords++;
 
-    return new RecordId(page.getPageNum(), (short) entryNum);
+    List<RecordId> rids = new ArrayList<>();
+    long stamp = lock.writeLock();
+    try {
+      invalidateMetadata();
+      int i = 0;
+      while (i < batch.size()) {
+        int pageNum = firstFreePage(format.spaceNeeded(batch.get(i)));
+        Page page = allocator.fetchPage(pageNum);
+        // Fill the page until it or the batch runs out.
+        for (; i < batch.size(); i++) {
+          int entryNum = insert(page, batch.get(i));
+          if (entryNum < 0) {
+            break;
+          }
+          rids.add(new RecordId(pageNum, (short) entryNum));
+        }
+      }
+      return rids;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
   }
 
   /**
    * Retrieves a record from the table, throwing an exception if no such record
    * exists.
+   *
+   * The record is read optimistically, without locking: its bytes are copied
+   * out of the page and then validated against the table's lock. If a writer
+   * took the lock in the meantime the copy may be torn, and the record is read
+   * again under the read lock. The same goes for a failed read, e.g. of a page
+   * that compactPage freed meanwhile.
    */
-  public synchronized Record getRecord(RecordId rid) throws DatabaseException {
+  public Record getRecord(RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Page page = allocator.fetchPage(rid.getPageNum());
-    byte[] bitmap = getBitMap(page);
-    if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
-      String msg = String.format("Record %s does not exist.", rid);
-      throw new DatabaseException(msg);
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        byte[] bytes = readRecordBytes(rid);
+        if (lock.validate(stamp)) {
+          return toRecord(rid, bytes);
+        }
+      } catch (RuntimeException e) {
+        // A PageException if the page was freed meanwhile, or anything a torn
+        // copy can cause; the locked read below decides.
+        if (lock.validate(stamp)) {
+          throw e;
+        }
+      }
     }
 
-    int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-    ByteBuffer buf = page.getByteBuffer();
-    buf.position(offset);
-    return Record.fromBytes(buf, schema);
+    stamp = lock.readLock();
+    try {
+      return toRecord(rid, readRecordBytes(rid));
+    } finally {
+      lock.unlockRead(stamp);
+    }
   }
 
   /**
    * Overwrites an existing record with new values and returns the existing
    * record. An exception is thrown if rid does
-   * not correspond to an existing record in the table.
+   * not correspond to an existing record in the table, or if the new values
+   * take more room than the record's page has (only possible on SLOTTED
+   * pages, where a longer string takes more bytes), in which case the record
+   * is left as it was. The record keeps its RecordId either way; delete it
+   * and add it again to move it to a page with room.
    */
-  public synchronized Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
+  public Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Record newRecord = schema.verify(values);
-    Record oldRecord = getRecord(rid);
-
-    Page page = allocator.fetchPage(rid.getPageNum());
-    insertRecord(page, rid.getEntryNum(), newRecord);
-    return oldRecord;
+    schema.verify(values);
+    long stamp = lock.writeLock();
+    try {
+      Record oldRecord = toRecord(rid, readRecordBytes(rid));
+
+      Page page = allocator.fetchPage(rid.getPageNum());
+      invalidateMetadata();
+      if (!format.update(page, freeSpace, rid.getEntryNum(), values)) {
+        String msg = String.format("No room on page %d for the new values of record %s.",
+                                   rid.getPageNum(), rid);
+        throw new DatabaseException(msg);
+      }
+      zoneMap.add(rid.getPageNum(), values);
+      return oldRecord;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
   }
 
   /**
    * Deletes and returns the record specified by rid from the table and updates
-   * freePageNums, and numRecords as necessary. An exception is thrown
+   * freeSpace, and numRecords as necessary. An exception is thrown
    * if rid does not correspond to an existing record in the table.
    */
-  public synchronized Record deleteRecord(RecordId rid) throws DatabaseException {
+  public Record deleteRecord(RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Page page = allocator.fetchPage(rid.getPageNum());
-    Record record = getRecord(rid);
-    Bits.setBit(page.getByteBuffer(), rid.getEntryNum(), Bits.Bit.ZERO);
+    long stamp = lock.writeLock();
+    try {
+      Page page = allocator.fetchPage(rid.getPageNum());
+      Record record = toRecord(rid, readRecordBytes(rid));
+      invalidateMetadata();
+      format.delete(page, freeSpace, rid.getEntryNum());
+      numRecords--;
+
+      return record;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
 
-    if(numRecordsOnPage(page) == numRecordsPerPage - 1) {
-      freePageNums.add(page.getPageNum());
+  /**
+   * Compacts the last data page that has held records and is at most half
+   * full: its records are moved to the first pages with room before it, one
+   * by one, and once it is empty, it is freed. A page that nothing is left
+   * on is freed even if no page before it has room. The page is freed, and
+   * each move passed to listener, before the write lock is released, so that
+   * no reader sees a moved record's old RecordId in an index after the slot
+   * is gone.
+   *
+   * A record is copied to its new slot and passed to listener before its
+   * old slot is emptied. If listener throws, the copy is deleted again and
+   * the exception is rethrown, leaving the record where it was; the records
+   * moved before it stay moved.
+   *
+   * @return false if no page could be compacted
+   */
+  public boolean compactPage(RecordMoveListener listener) throws DatabaseException {
+    long stamp = lock.writeLock();
+    try {
+      int pageNum = findSparsePage();
+      if (pageNum < 0) {
+        return false;
+      }
+      invalidateMetadata();
+      Page page = allocator.fetchPage(pageNum);
+      for (int entryNum = 0; entryNum < numRecordsPerPage; entryNum++) {
+        byte[] bytes = format.read(page, entryNum);
+        if (bytes == null) {
+          continue;
+        }
+        Record record = format.decode(bytes);
+        RecordId rid = insertBefore(pageNum, record.getValues());
+        if (rid == null) {
+          // The pages before this one are full.
+          break;
+        }
+        try {
+          listener.recordMoved(record, new RecordId(pageNum, (short) entryNum), rid);
+        } catch (DatabaseException | RuntimeException e) {
+          // Undo the move, so that the record stays where the listener last
+          // saw it.
+          format.delete(allocator.fetchPage(rid.getPageNum()), freeSpace, rid.getEntryNum());
+          numRecords--;
+          throw e;
+        }
+        format.delete(page, freeSpace, entryNum);
+        numRecords--;
+      }
+      if (freeSpace.getFreeSpace(pageNum) == freeSpace.getCapacity()) {
+        freeSpace.removePage(pageNum);
+        zoneMap.removePage(pageNum);
+        allocator.freePage(page);
+      }
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
     }
-    numRecords--;
+  }
 
-    return record;
+  /**
+   * Saves the table's metadata, so that the table loads without reading its
+   * data pages even if it is not closed cleanly, as long as it isn't changed
+   * before then.
+   */
+  public void checkpoint() throws DatabaseException {
+    long stamp = lock.writeLock();
+    try {
+      writeMetadata();
+    } finally {
+      lock.unlockWrite(stamp);
+    }
   }
 
   public void close() {
+    long stamp = lock.writeLock();
+    try {
+      if (!metadataSaved) {
+        writeMetadata();
+      }
+    } catch (DatabaseException e) {
+      // The next load rebuilds the metadata.
+    } finally {
+      lock.unlockWrite(stamp);
+    }
     allocator.close();
   }
 
   // Helpers ///////////////////////////////////////////////////////////////////
-  private static Schema readSchemaFromHeaderPage(PageAllocator allocator) {
-    Page headerPage = allocator.fetchPage(0);
-    ByteBuffer buf = headerPage.getByteBuffer();
-    return Schema.fromBytes(buf);
+  /**
+   * Adds values to the first page with room for them.
+   */
+  private RecordId insert(List<DataBox> values) throws DatabaseException {
+    int needed = format.spaceNeeded(values);
+    while (true) {
+      int pageNum = firstFreePage(needed);
+      int entryNum = insert(allocator.fetchPage(pageNum), values);
+      if (entryNum >= 0) {
+        return new RecordId(pageNum, (short) entryNum);
+      }
+    }
+  }
+
+  /**
+   * Adds values to page if it has room for them.
+   *
+   * @return the slot of the new record, or -1 if page is full
+   */
+  private int insert(Page page, List<DataBox> values) throws DatabaseException {
+    boolean empty = freeSpace.getFreeSpace(page.getPageNum()) == freeSpace.getCapacity();
+    int entryNum = format.insert(page, freeSpace, values);
+    if (entryNum >= 0) {
+      numRecords++;
+      zoneMap.add(page.getPageNum(), values);
+    } else if (empty) {
+      throw new DatabaseException("Record " + values + " does not fit on a page.");
+    }
+    return entryNum;
   }
 
-  private static void writeSchemaToHeaderPage(PageAllocator allocator, Schema schema) {
+  /**
+   * Adds values to the first page with room for them, if it comes before
+   * page pageNum.
+   *
+   * @return the RecordId of the new record, or null if no page before
+   * pageNum has room
+   */
+  private RecordId insertBefore(int pageNum, List<DataBox> values) throws DatabaseException {
+    int needed = format.spaceNeeded(values);
+    while (true) {
+      int freePageNum = freeSpace.firstFreePage(needed);
+      if (freePageNum < 0 || freePageNum >= pageNum) {
+        return null;
+      }
+      int entryNum = insert(allocator.fetchPage(freePageNum), values);
+      if (entryNum >= 0) {
+        return new RecordId(freePageNum, (short) entryNum);
+      }
+    }
+  }
+
+  /**
+   * @return the last page that compactPage can empty, or -1 if there is none
+   */
+  private int findSparsePage() {
+    int sparse = Math.max(freeSpace.getCapacity() / 2, freeSpace.getMinFreeSpace());
+    int firstFreePage = freeSpace.firstFreePage();
+    for (int pageNum : freeSpace.freePagesDescending()) {
+      int free = freeSpace.getFreeSpace(pageNum);
+      // Pages that never held a record are room the table grew into, not
+      // room that deletes left behind.
+      if (free < sparse || !zoneMap.hasPage(pageNum)) {
+        continue;
+      }
+      if (pageNum > firstFreePage || free == freeSpace.getCapacity()) {
+        return pageNum;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param needed the free space the record needs, see PageFormat#spaceNeeded
+   * @return the first page with room for a record, growing the table if
+   * there is none
+   */
+  private int firstFreePage(int needed) {
+    int pageNum = freeSpace.firstFreePage(needed);
+    if (pageNum < 0) {
+      growTable();
+      pageNum = freeSpace.firstFreePage(needed);
+    }
+    return pageNum;
+  }
+
+  private void setFormat(PageFormat.Type formatType) {
+    this.formatType = formatType;
+    this.format = PageFormat.create(formatType, schema);
+    this.numRecordsPerPage = format.getNumRecordsPerPage();
+    this.bitmapSizeInBytes = (numRecordsPerPage + 7) / 8;
+  }
+
+  /**
+   * Adds an extent of empty data pages to freeSpace. Extents double in
+   * size with the table, up to MAX_EXTENT_PAGES pages, so a table that is
+   * loaded in bulk is laid out in long contiguous runs while a small table
+   * wastes at most as many pages as it already has.
+   */
+  private void growTable() {
+    int numPages = Math.min(MAX_EXTENT_PAGES, Math.max(1, getNumDataPages()));
+    int firstPageNum;
+    try {
+      firstPageNum = allocator.allocExtent(numPages);
+    } catch (PageException e) {
+      // The file is too fragmented for an extent this long.
+      freeSpace.addPage(allocator.allocPage(), freeSpace.getCapacity(), 0);
+      return;
+    }
+    for (int i = 0; i < numPages; i++) {
+      freeSpace.addPage(firstPageNum + i, freeSpace.getCapacity(), 0);
+    }
+  }
+
+  /**
+   * Loads numRecords, freeSpace and zoneMap from the metadata file.
+   *
+   * @return false if there is no metadata file or it doesn't match the table
+   */
+  private boolean readMetadata() {
+    File file = new File(filename + METADATA_EXTENSION);
+    if (!file.exists()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != METADATA_MAGIC
+          || in.readInt() != allocator.getNumPages()
+          || in.readInt() != numRecordsPerPage) {
+        return false;
+      }
+      this.numRecords = in.readLong();
+      FreeSpaceMap empty = format.newFreeSpaceMap();
+      this.freeSpace = FreeSpaceMap.read(in, empty.getCapacity(), empty.getMinFreeSpace(),
+                                         empty.getMaxFreeSpace());
+      this.zoneMap = ZoneMap.read(in, schema);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Saves numRecords, freeSpace and zoneMap to the metadata file. The file is written
+   * under another name and then renamed, so it is never seen half written.
+   */
+  private void writeMetadata() throws DatabaseException {
+    File file = new File(filename + METADATA_EXTENSION);
+    File temp = new File(filename + METADATA_EXTENSION + ".tmp");
+    try {
+      FileOutputStream fileOut = new FileOutputStream(temp);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+        out.writeInt(METADATA_MAGIC);
+        out.writeInt(allocator.getNumPages());
+        out.writeInt(numRecordsPerPage);
+        out.writeLong(numRecords);
+        freeSpace.write(out);
+        zoneMap.write(out);
+        out.flush();
+        fileOut.getFD().sync();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      syncDirectory();
+    } catch (IOException e) {
+      throw new DatabaseException("Could not save metadata of table " + name + ": " + e.getMessage());
+    }
+    this.metadataSaved = true;
+  }
+
+  /**
+   * Deletes the metadata file before the table changes, unless it is already
+   * out of date. The deletion is forced to disk before the change is made,
+   * so that a crash can't bring back a metadata file that no longer matches
+   * the table.
+   */
+  private void invalidateMetadata() throws DatabaseException {
+    if (metadataSaved) {
+      try {
+        Files.deleteIfExists(new File(filename + METADATA_EXTENSION).toPath());
+        syncDirectory();
+      } catch (IOException e) {
+        throw new DatabaseException("Could not delete metadata of table " + name + ": " + e.getMessage());
+      }
+      metadataSaved = false;
+    }
+  }
+
+  /**
+   * Forces the directory holding the table's files to disk, so that the
+   * metadata file's last rename or deletion survives a crash. Does nothing
+   * where directories can't be opened, as on Windows.
+   */
+  private void syncDirectory() throws IOException {
+    Path dir = new File(filename).getAbsoluteFile().getParentFile().toPath();
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(dir, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void writeHeaderPage(PageAllocator allocator, Schema schema,
+                                      PageFormat.Type formatType) {
     Page headerPage = allocator.fetchPage(allocator.allocPage());
     assert(0 == headerPage.getPageNum());
-    ByteBuffer buf = headerPage.getByteBuffer();
-    buf.put(schema.toBytes());
+    byte[] schemaBytes = schema.toBytes();
+    headerPage.writeBytes(0, schemaBytes.length, schemaBytes);
+    headerPage.writeByte(schemaBytes.length, (byte) formatType.ordinal());
   }
 
   /**
@@ -371,15 +812,22 @@ public class Table implements Iterable<Record>, Closeable {
     return pageSizeInBits / recordOverheadInBits;
   }
 
-  private int numRecordsOnPage(Page page) {
-    byte[] bitmap = getBitMap(page);
-    int numRecords = 0;
-    for (int i = 0; i < numRecordsPerPage; ++i) {
-      if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-        numRecords++;
-      }
+  /**
+   * Copies the bytes of the record rid out of its page, using only reads
+   * that are safe to race with a writer.
+   *
+   * @return the record's bytes, or null if its slot is empty
+   */
+  private byte[] readRecordBytes(RecordId rid) {
+    return format.read(allocator.fetchPage(rid.getPageNum()), rid.getEntryNum());
+  }
+
+  private Record toRecord(RecordId rid, byte[] bytes) throws DatabaseException {
+    if (bytes == null) {
+      String msg = String.format("Record %s does not exist.", rid);
+      throw new DatabaseException(msg);
     }
-    return numRecords;
+    return format.decode(bytes);
   }
 
   private void validateRecordId(RecordId rid) throws DatabaseException {
@@ -412,6 +860,68 @@ public class Table implements Iterable<Record>, Closeable {
       return new RecordIterator(this, ridIterator());
   }
 
+  /**
+   * Returns an iterator over the given fields of every record in the table,
+   * each as a record of just those fields, in that order. The other fields
+   * are never decoded, and on a PAX table never read either, so aggregating
+   * a single field of a wide table is much cheaper than with iterator().
+   * Each page is read under the table's read lock, in one go.
+   *
+   * @param fields the indices of the fields in the table's schema
+   */
+  public Iterator<Record> columnIterator(int... fields) throws DatabaseException {
+    for (int f : fields) {
+      if (f < 0 || f >= schema.getFieldTypes().size()) {
+        String msg = String.format("Table %s has no field %d.", name, f);
+        throw new DatabaseException(msg);
+      }
+    }
+    return new ColumnIterator(fields.clone());
+  }
+
+  /**
+   * Returns an iterator over every record in the table as a RecordView. The
+   * iterator returns the same view every time, moved to the next record, so
+   * a scan that only reads fields through it allocates nothing per record.
+   * Each page is copied into the iterator before its records are viewed,
+   * without a lock unless a writer gets in the way, as in getRecord.
+   */
+  public Iterator<RecordView> viewIterator() {
+    return new ViewIterator(Table.iteratorSkipPage(allocator.iterator()));
+  }
+
+  /**
+   * Returns an iterator over the records of block as a RecordView, like
+   * viewIterator. The pages must be data pages of this table.
+   */
+  public Iterator<RecordView> blockViewIterator(Page[] block) {
+    return new ViewIterator(Arrays.asList(block).iterator());
+  }
+
+  /**
+   * Returns an iterator over the records of the table whose field `field`
+   * satisfies `field op value`. Pages whose zone map shows that none of their
+   * records can match are skipped without being fetched, so a selective
+   * predicate on a field that is clustered by page (e.g. one that grows as
+   * records are added) reads only a few pages.
+   *
+   * @param value a value of the same type as the field; a string must have
+   * the declared length of the field
+   */
+  public Iterator<Record> filteredIterator(int field, PredicateOperator op, DataBox value)
+      throws DatabaseException {
+    if (field < 0 || field >= schema.getFieldTypes().size()) {
+      String msg = String.format("Table %s has no field %d.", name, field);
+      throw new DatabaseException(msg);
+    }
+    if (!schema.getFieldTypes().get(field).equals(value.type())) {
+      String msg = String.format("Cannot compare field %d of type %s with %s of type %s.",
+                                 field, schema.getFieldTypes().get(field), value, value.type());
+      throw new DatabaseException(msg);
+    }
+    return new FilteredIterator(field, op, value);
+  }
+
   public BacktrackingIterator<Record> blockIterator(Page[] block) {
     return new RecordIterator(this, new RIDBlockIterator(block));
   }
@@ -424,6 +934,189 @@ public class Table implements Iterable<Record>, Closeable {
     return new RecordIterator(this, new RIDBlockIterator(block, maxRecords));
   }
 
+  /**
+   * ColumnIterator decodes the requested fields of a whole page at a time,
+   * see columnIterator.
+   */
+  private class ColumnIterator implements Iterator<Record> {
+    private final int[] fields;
+    private final Iterator<Page> pageIter;
+    private Iterator<Record> pageRecords = Collections.emptyIterator();
+
+    private ColumnIterator(int[] fields) {
+      this.fields = fields;
+      this.pageIter = Table.iteratorSkipPage(allocator.iterator());
+    }
+
+    public boolean hasNext() {
+      while (!pageRecords.hasNext() && pageIter.hasNext()) {
+        Page page = pageIter.next();
+        long stamp = lock.readLock();
+        try {
+          pageRecords = format.readColumns(page, fields).iterator();
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return pageRecords.hasNext();
+    }
+
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return pageRecords.next();
+    }
+  }
+
+  /**
+   * ViewIterator copies one page at a time into pageBytes and moves its view
+   * from one record of the copy to the next, see viewIterator.
+   */
+  private class ViewIterator implements Iterator<RecordView> {
+    // The data pages to view the records of.
+    private final Iterator<Page> pageIter;
+    private final byte[] pageBytes = new byte[Page.pageSize];
+    private final ByteBuffer pageBuf = ByteBuffer.wrap(pageBytes);
+    private final RecordView view = new RecordView(schema);
+    private int pageNum;
+    // The next slot of the copied page to look at.
+    private int entryNum = numRecordsPerPage;
+    // Whether view is on a record that next hasn't returned yet.
+    private boolean viewReady = false;
+
+    private ViewIterator(Iterator<Page> pageIter) {
+      this.pageIter = pageIter;
+    }
+
+    public boolean hasNext() {
+      while (!viewReady) {
+        if (entryNum == numRecordsPerPage) {
+          if (!pageIter.hasNext()) {
+            return false;
+          }
+          copyPage(pageIter.next());
+          entryNum = 0;
+        }
+        viewReady = format.view(pageBuf, pageNum, entryNum++, view);
+      }
+      return true;
+    }
+
+    public RecordView next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      viewReady = false;
+      return view;
+    }
+
+    private void copyPage(Page page) {
+      pageNum = page.getPageNum();
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        try {
+          page.readBytes(0, Page.pageSize, pageBytes);
+          if (lock.validate(stamp)) {
+            return;
+          }
+        } catch (PageException e) {
+          // The page was freed meanwhile; the locked read below decides.
+          if (lock.validate(stamp)) {
+            throw e;
+          }
+        }
+      }
+      stamp = lock.readLock();
+      try {
+        page.readBytes(0, Page.pageSize, pageBytes);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+  }
+
+  /**
+   * FilteredIterator views the records of the pages its zone map lets
+   * through, and decodes those that match; see filteredIterator.
+   */
+  private class FilteredIterator implements Iterator<Record> {
+    private final int field;
+    private final PredicateOperator op;
+    private final DataBox value;
+    private final ViewIterator views;
+    private Record nextRecord;
+
+    private FilteredIterator(int field, PredicateOperator op, DataBox value) {
+      this.field = field;
+      this.op = op;
+      this.value = value;
+      this.views = new ViewIterator(new ZonePageIterator());
+    }
+
+    public boolean hasNext() {
+      while (nextRecord == null && views.hasNext()) {
+        RecordView view = views.next();
+        if (op.evaluate(view.get(field), value)) {
+          nextRecord = view.toRecord();
+        }
+      }
+      return nextRecord != null;
+    }
+
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Record record = nextRecord;
+      nextRecord = null;
+      return record;
+    }
+
+    /**
+     * Fetches, in order, the data pages that zoneMap says may hold a
+     * matching record.
+     */
+    private class ZonePageIterator implements Iterator<Page> {
+      // The last page looked at, and the page next returns, once hasNext
+      // has found it.
+      private int pageNum = 0;
+      private Page nextPage = null;
+      private boolean done = false;
+
+      public boolean hasNext() {
+        if (nextPage == null && !done) {
+          // Under the lock, so compactPage can't free the page meanwhile.
+          long stamp = lock.readLock();
+          try {
+            int p = zoneMap.nextPage(pageNum + 1);
+            while (p >= 0 && !zoneMap.mayMatch(p, field, op, value)) {
+              p = zoneMap.nextPage(p + 1);
+            }
+            if (p < 0) {
+              done = true;
+            } else {
+              pageNum = p;
+              nextPage = allocator.fetchPage(p);
+            }
+          } finally {
+            lock.unlockRead(stamp);
+          }
+        }
+        return nextPage != null;
+      }
+
+      public Page next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Page page = nextPage;
+        nextPage = null;
+        return page;
+      }
+    }
+  }
+
   /**
    * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
    * page of the table.
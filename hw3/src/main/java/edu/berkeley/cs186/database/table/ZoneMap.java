@@ -0,0 +1,150 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+
+/**
+ * A ZoneMap keeps, in memory, the smallest and largest value of every field
+ * on every data page of a Table, so that a scan for records matching a
+ * predicate can skip the pages that can't hold any (see mayMatch).
+ *
+ * The bounds only ever widen: adding or updating a record widens its page's
+ * bounds to take in its values, but deleting or updating a record doesn't
+ * narrow them, since finding the new bounds would mean reading the whole
+ * page. The bounds of a page may therefore be wider than its records, but
+ * never narrower. A page that never held a record has no bounds at all, and
+ * is skipped by every scan.
+ */
+class ZoneMap {
+  private final List<Type> fieldTypes;
+  // mins[p] and maxes[p] are the bounds of page p, field by field, or null.
+  private DataBox[][] mins;
+  private DataBox[][] maxes;
+
+  ZoneMap(Schema schema) {
+    this.fieldTypes = schema.getFieldTypes();
+    this.mins = new DataBox[16][];
+    this.maxes = new DataBox[16][];
+  }
+
+  /**
+   * Widens the bounds of page pageNum to take in values.
+   */
+  void add(int pageNum, List<DataBox> values) {
+    if (pageNum >= mins.length) {
+      int length = Math.max(pageNum + 1, mins.length * 2);
+      mins = Arrays.copyOf(mins, length);
+      maxes = Arrays.copyOf(maxes, length);
+    }
+    DataBox[] min = mins[pageNum];
+    DataBox[] max = maxes[pageNum];
+    if (min == null) {
+      mins[pageNum] = values.toArray(new DataBox[values.size()]);
+      maxes[pageNum] = values.toArray(new DataBox[values.size()]);
+      return;
+    }
+    for (int f = 0; f < min.length; f++) {
+      DataBox value = values.get(f);
+      if (value.compareTo(min[f]) < 0) {
+        min[f] = value;
+      } else if (value.compareTo(max[f]) > 0) {
+        max[f] = value;
+      }
+    }
+  }
+
+  /**
+   * Forgets the bounds of page pageNum, which holds no records.
+   */
+  void removePage(int pageNum) {
+    if (pageNum < mins.length) {
+      mins[pageNum] = null;
+      maxes[pageNum] = null;
+    }
+  }
+
+  /**
+   * @return whether page pageNum has held a record
+   */
+  boolean hasPage(int pageNum) {
+    return pageNum < mins.length && mins[pageNum] != null;
+  }
+
+  /**
+   * @return the first page at or after pageNum with bounds, or -1 if there
+   * is none
+   */
+  int nextPage(int pageNum) {
+    for (int p = pageNum; p < mins.length; p++) {
+      if (mins[p] != null) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether page pageNum may hold a record whose field f satisfies
+   * `f op value`
+   */
+  boolean mayMatch(int pageNum, int f, PredicateOperator op, DataBox value) {
+    if (pageNum >= mins.length || mins[pageNum] == null) {
+      return false;
+    }
+    return op.evaluateRange(mins[pageNum][f], maxes[pageNum][f], value);
+  }
+
+  /**
+   * Writes the bounds of every page that has them.
+   */
+  void write(DataOutputStream out) throws IOException {
+    int numPages = 0;
+    for (DataBox[] min : mins) {
+      numPages += min == null ? 0 : 1;
+    }
+    out.writeInt(numPages);
+    for (int p = 0; p < mins.length; p++) {
+      if (mins[p] != null) {
+        out.writeInt(p);
+        for (int f = 0; f < fieldTypes.size(); f++) {
+          out.write(mins[p][f].toBytes());
+          out.write(maxes[p][f].toBytes());
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads back a map saved by write.
+   */
+  static ZoneMap read(DataInputStream in, Schema schema) throws IOException {
+    ZoneMap map = new ZoneMap(schema);
+    byte[] bytes = new byte[2 * schema.getSizeInBytes()];
+    int numPages = in.readInt();
+    for (int i = 0; i < numPages; i++) {
+      int pageNum = in.readInt();
+      if (pageNum < 1) {
+        throw new IOException("bad zone map entry for page " + pageNum);
+      }
+      in.readFully(bytes);
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      DataBox[] min = new DataBox[map.fieldTypes.size()];
+      DataBox[] max = new DataBox[map.fieldTypes.size()];
+      for (int f = 0; f < min.length; f++) {
+        min[f] = DataBox.fromBytes(buf, map.fieldTypes.get(f));
+        max[f] = DataBox.fromBytes(buf, map.fieldTypes.get(f));
+      }
+      map.add(pageNum, Arrays.asList(min));
+      map.add(pageNum, Arrays.asList(max));
+    }
+    return map;
+  }
+}
@@ -11,6 +11,17 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.query.QueryPlanException;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
 
 public class TestDatabase {
   public static final String TestDir = "testDatabase";
@@ -172,4 +183,261 @@ public class TestDatabase {
 
     assertEquals(table.getNumRecords(),200);
   }
+
+  @Test
+  public void testBufferPoolSize() throws DatabaseException {
+    int oldSize = PageAllocator.getBufferPoolSize();
+    File testDir = new File(filename, "sized");
+    Database sized = new Database(testDir.getAbsolutePath(), 5);
+    try {
+      PageAllocator.setBufferPoolSize(128);
+      assertEquals(128, sized.getBufferPoolSize());
+
+      Schema s = TestUtils.createSchemaWithAllTypes();
+      sized.createTable(s, "testTable1");
+      Database.Transaction t1 = sized.beginTransaction();
+      for (int i = 0; i < 288 * 200; i++) {
+        t1.addRecord("testTable1", TestUtils.createRecordWithAllTypes().getValues());
+      }
+      assertTrue(sized.getBufferPoolOccupancy() <= 128);
+
+      PageAllocator.setBufferPoolSize(32);
+      assertTrue(sized.getBufferPoolOccupancy() <= 32);
+      t1.end();
+    } finally {
+      PageAllocator.setBufferPoolSize(oldSize);
+      sized.close();
+    }
+  }
+
+  @Test
+  public void testAddRecordsWithIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTableWithIndices(s, tableName, Arrays.asList("int"));
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<List<DataBox>> rows = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      // Keys out of order, so the index is not built in insertion order.
+      rows.add(TestUtils.createRecordWithAllTypesWithValue((i * 7) % 1000).getValues());
+    }
+    List<RecordId> rids = t1.addRecords(tableName, rows.iterator());
+    assertEquals(1000, rids.size());
+    assertEquals(1000, t1.getNumRecords(tableName));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new Record(rows.get(i)), t1.getRecord(tableName, rids.get(i)));
+      assertTrue(t1.contains(tableName, "int", new IntDataBox(i)));
+    }
+
+    Iterator<Record> iter = t1.sortedScan(tableName, "int");
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+    }
+    assertFalse(iter.hasNext());
+    t1.end();
+  }
+
+  @Test
+  public void testAddRecordsRejectsRepeatedKeys() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTableWithIndices(s, tableName, Arrays.asList("int"));
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<List<DataBox>> rows = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i % 9).getValues());
+    }
+    try {
+      t1.addRecords(tableName, rows.iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // 0 is in the batch twice.
+    }
+    assertEquals(0, t1.getNumRecords(tableName));
+
+    t1.addRecords(tableName, rows.subList(0, 9).iterator());
+    try {
+      t1.addRecords(tableName, rows.subList(8, 10).iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // 8 is in the index already.
+    }
+    assertEquals(9, t1.getNumRecords(tableName));
+    t1.end();
+  }
+
+  @Test
+  public void testAtomicAddRecordsReadsRowsWhenRecorded() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.AtomicTransaction t1 = db.createAtomicTransaction();
+    List<List<DataBox>> rows = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    t1.addRecords(tableName, rows.iterator());
+    // The caller is done with its rows once the op is recorded.
+    rows.clear();
+    t1.run();
+
+    Database.Transaction t2 = db.beginTransaction();
+    assertEquals(10, t2.getNumRecords(tableName));
+    t2.end();
+  }
+
+  @Test
+  public void testSequentialScanWithPredicate() throws DatabaseException, QueryPlanException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    int numDataPages = t1.getNumDataPages(tableName);
+    SequentialScanOperator scan = new SequentialScanOperator(
+        t1, tableName, "testTable1.int", PredicateOperator.GREATER_THAN, new IntDataBox(989));
+    Iterator<Record> iter = scan.execute();
+    for (int i = 990; i < 1000; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+    }
+    assertFalse(iter.hasNext());
+    assertTrue(scan.getIOStats().snapshot().getNumFetches() < numDataPages);
+    t1.end();
+  }
+
+  @Test
+  public void testScanIteratorsCountIO() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    int numDataPages = t1.getNumDataPages(tableName);
+    t1.end();
+
+    Database.Transaction t2 = db.beginTransaction();
+    long before = t2.getIOStats().snapshot().getNumFetches();
+    Iterator<Record> records = t2.getRecordIterator(tableName);
+    while (records.hasNext()) {
+      records.next();
+    }
+    long afterRecords = t2.getIOStats().snapshot().getNumFetches();
+    assertTrue(afterRecords - before >= numDataPages);
+
+    Iterator<RecordView> views = t2.getViewIterator(tableName);
+    while (views.hasNext()) {
+      views.next();
+    }
+    assertTrue(t2.getIOStats().snapshot().getNumFetches() - afterRecords >= numDataPages);
+    t2.end();
+  }
+
+  @Test
+  public void testCompactTableUpdatesIndex() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTableWithIndices(s, tableName, Arrays.asList("int"));
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 0; i < 1000; i++) {
+      if (i % 10 != 0) {
+        t1.deleteRecord(tableName, rids.get(i));
+      }
+    }
+    int numDataPages = t1.getNumDataPages(tableName);
+    t1.end();
+
+    assertTrue(db.compactTable(tableName, 1000) > 0);
+    assertEquals(0, db.compactTable(tableName, 1000));
+
+    Database.Transaction t2 = db.beginTransaction();
+    assertTrue(t2.getNumDataPages(tableName) < numDataPages);
+    assertEquals(100, t2.getNumRecords(tableName));
+    for (int i = 0; i < 1000; i += 10) {
+      Iterator<Record> iter = t2.lookupKey(tableName, "int", new IntDataBox(i));
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+      assertFalse(iter.hasNext());
+    }
+    t2.end();
+  }
+
+  @Test
+  public void testBackgroundCompaction() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 100; i < 1000; i++) {
+      t1.deleteRecord(tableName, rids.get(i));
+    }
+    int numDataPages = t1.getNumDataPages(tableName);
+
+    db.startBackgroundCompaction(1, 1);
+    for (int i = 0; i < 1000 && t1.getNumDataPages(tableName) == numDataPages; i++) {
+      Thread.sleep(10);
+    }
+    db.stopBackgroundCompaction();
+    assertTrue(t1.getNumDataPages(tableName) < numDataPages);
+    assertEquals(100, t1.getNumRecords(tableName));
+    t1.end();
+  }
+
+  @Test
+  public void testBackgroundCompactionUpdatesIndex() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTableWithIndices(s, tableName, Arrays.asList("int"));
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      rids.add(t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 0; i < 1000; i++) {
+      if (i % 10 != 0) {
+        t1.deleteRecord(tableName, rids.get(i));
+      }
+    }
+    int numDataPages = t1.getNumDataPages(tableName);
+
+    // Records are added while the table is being compacted.
+    db.startBackgroundCompaction(1, 1);
+    for (int i = 1000; i < 1200; i++) {
+      t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    for (int i = 0; i < 1000 && t1.getNumDataPages(tableName) >= numDataPages; i++) {
+      Thread.sleep(10);
+    }
+    db.stopBackgroundCompaction();
+    assertTrue(t1.getNumDataPages(tableName) < numDataPages);
+    assertEquals(300, t1.getNumRecords(tableName));
+    for (int i = 0; i < 1200; i++) {
+      Iterator<Record> iter = t1.lookupKey(tableName, "int", new IntDataBox(i));
+      if (i < 1000 && i % 10 != 0) {
+        assertFalse(iter.hasNext());
+      } else {
+        assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iter.next());
+        assertFalse(iter.hasNext());
+      }
+    }
+    t1.end();
+  }
 }
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -139,4 +140,41 @@ public class TestBits {
       assertEquals(1, buf.position());
     }
   }
+
+  @Test
+  public void testCountBits() {
+    assertEquals(0, Bits.countBits(new byte[0]));
+    assertEquals(9, Bits.countBits(new byte[] {0b01101011, 0b01001101}));
+    byte[] bytes = new byte[19];
+    bytes[0] = (byte) 0b10000000;
+    bytes[8] = (byte) 0b11111111;
+    bytes[18] = (byte) 0b00000001;
+    assertEquals(10, Bits.countBits(bytes));
+  }
+
+  @Test
+  public void testFirstClearBit() {
+    ByteBuffer buf = ByteBuffer.wrap(new byte[] {(byte) 0b11111111, (byte) 0b10111111});
+    assertEquals(9, Bits.firstClearBit(buf, 2, 0));
+    assertEquals(9, Bits.firstClearBit(buf, 2, 9));
+    assertEquals(-1, Bits.firstClearBit(buf, 2, 10));
+    assertEquals(-1, Bits.firstClearBit(buf, 1, 0));
+
+    buf = ByteBuffer.wrap(new byte[] {(byte) 0b01111111, (byte) 0b10111111});
+    assertEquals(0, Bits.firstClearBit(buf, 2, 0));
+    assertEquals(9, Bits.firstClearBit(buf, 2, 1));
+
+    // Long enough to be read a word at a time.
+    byte[] bytes = new byte[20];
+    Arrays.fill(bytes, (byte) 0xFF);
+    assertEquals(-1, Bits.firstClearBit(ByteBuffer.wrap(bytes), bytes.length, 0));
+    bytes[3] = (byte) 0b11101111;
+    bytes[17] = (byte) 0b11111110;
+    buf = ByteBuffer.wrap(bytes);
+    buf.position(5);
+    assertEquals(27, Bits.firstClearBit(buf, bytes.length, 0));
+    assertEquals(27, Bits.firstClearBit(buf, bytes.length, 27));
+    assertEquals(143, Bits.firstClearBit(buf, bytes.length, 28));
+    assertEquals(5, buf.position());
+  }
 }
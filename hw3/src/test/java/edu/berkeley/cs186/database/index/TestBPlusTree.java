@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.index;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -18,6 +19,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.Type;
@@ -87,7 +89,7 @@ public class TestBPlusTree {
       for (int i = 0; i < 100; ++i) {
         IntDataBox key = new IntDataBox(i);
         RecordId rid = new RecordId(i, (short) i);
-        assertEquals(Optional.of(rid), tree.get(key));
+        assertEquals(Optional.of(rid), fromDisk.get(key));
       }
     }
 
@@ -175,6 +177,24 @@ public class TestBPlusTree {
       tree.put(new IntDataBox(0), new RecordId(0, (short) 0));
     }
 
+    @Test
+    public void testUpdate() throws BPlusTreeException, IOException {
+      BPlusTree tree = getBPlusTree(Type.intType(), 2);
+      for (int i = 0; i < 20; ++i) {
+        tree.put(new IntDataBox(i), new RecordId(i, (short) i));
+      }
+      tree.update(new IntDataBox(7), new RecordId(100, (short) 1));
+      assertEquals(Optional.of(new RecordId(100, (short) 1)), tree.get(new IntDataBox(7)));
+      assertEquals(Optional.of(new RecordId(8, (short) 8)), tree.get(new IntDataBox(8)));
+      try {
+        tree.update(new IntDataBox(20), new RecordId(20, (short) 20));
+        fail();
+      } catch (BPlusTreeException e) {
+        // 20 isn't in the tree.
+      }
+      assertEquals(Optional.empty(), tree.get(new IntDataBox(20)));
+    }
+
     // HIDDEN
     @Test
     public void testRandomRids() throws BPlusTreeException, IOException {
@@ -508,6 +528,55 @@ public class TestBPlusTree {
       }
     }
 
+    @Test
+    public void testBulkLoad() throws BPlusTreeException, IOException {
+      BPlusTree small = getBPlusTree(Type.intType(), 1);
+      List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+      for (int i = 0; i < 7; ++i) {
+        entries.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+      }
+      small.bulkLoad(entries);
+      // Four full leaves but the last, and two inner nodes of two children.
+      String l = "(((0 (0 0)) (1 (1 1))) 2 ((2 (2 2)) (3 (3 3))))";
+      String r = "(((4 (4 4)) (5 (5 5))) 6 ((6 (6 6))))";
+      assertEquals(String.format("(%s 4 %s)", l, r), small.toSexp());
+
+      for (int d = 2; d < 5; ++d) {
+        for (int n : new int[] {1, 2 * d, 1000}) {
+          entries = new ArrayList<>();
+          List<RecordId> sortedRids = new ArrayList<>();
+          for (int i = 0; i < n; ++i) {
+            entries.add(new Pair<>(new IntDataBox(2 * i), new RecordId(i, (short) i)));
+            sortedRids.add(new RecordId(i, (short) i));
+          }
+          BPlusTree tree = getBPlusTree(Type.intType(), d);
+          tree.bulkLoad(entries);
+          assertEquals(sortedRids, iteratorToList(tree.scanAll()));
+          for (int i = 0; i < n; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(2 * i)));
+          }
+
+          // The loaded tree takes puts and survives a reload.
+          for (int i = 0; i < n; ++i) {
+            tree.put(new IntDataBox(2 * i + 1), new RecordId(i, (short) -1));
+          }
+          BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath());
+          assertEquals(2 * n, iteratorToList(fromDisk.scanAll()).size());
+          assertEquals(Optional.of(new RecordId(n - 1, (short) -1)),
+                       fromDisk.get(new IntDataBox(2 * n - 1)));
+        }
+      }
+    }
+
+    @Test(expected = BPlusTreeException.class)
+    public void testBulkLoadOutOfOrder() throws BPlusTreeException, IOException {
+      BPlusTree tree = getBPlusTree(Type.intType(), 2);
+      List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+      entries.add(new Pair<>(new IntDataBox(1), new RecordId(1, (short) 1)));
+      entries.add(new Pair<>(new IntDataBox(0), new RecordId(0, (short) 0)));
+      tree.bulkLoad(entries);
+    }
+
     // HIDDEN
     @Test
     public void testRepeatedInsertsAndRemoves()
@@ -0,0 +1,404 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+public class TestBufferPool {
+  private final String fName = "TestBufferPool.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static long totalHits(BufferPool pool) {
+    long hits = 0;
+    for (int i = 0; i < pool.getNumShards(); i++) {
+      hits += pool.getNumHits(i);
+    }
+    return hits;
+  }
+
+  private static long totalMisses(BufferPool pool) {
+    long misses = 0;
+    for (int i = 0; i < pool.getNumShards(); i++) {
+      misses += pool.getNumMisses(i);
+    }
+    return misses;
+  }
+
+  private static long totalEvictions(BufferPool pool) {
+    long evictions = 0;
+    for (int i = 0; i < pool.getNumShards(); i++) {
+      evictions += pool.getNumEvictions(i);
+    }
+    return evictions;
+  }
+
+  @Test
+  public void TestBufferPoolGetPut() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    BufferPool pool = new BufferPool(4, 16);
+
+    assertNull(pool.get(0L));
+    assertNull(pool.putIfAbsent(0L, p));
+    assertSame(p, pool.get(0L));
+    assertSame(p, pool.putIfAbsent(0L, new Page(fc, 1, 1)));
+    assertSame(p, pool.remove(0L));
+    assertNull(pool.get(0L));
+    assertEquals(2, totalMisses(pool));
+    assertEquals(1, totalHits(pool));
+    fc.close();
+  }
+
+  @Test
+  public void TestBufferPoolCapacity() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    BufferPool pool = new BufferPool(4, 16);
+
+    for (long i = 0; i < 1000; i++) {
+      pool.putIfAbsent(i, p);
+      assertTrue(pool.size() <= 16);
+    }
+    assertEquals(1000 - pool.size(), totalEvictions(pool));
+    fc.close();
+  }
+
+  @Test
+  public void TestBufferPoolRemoveAll() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    BufferPool pool = new BufferPool(8, 64);
+
+    for (long alloc = 0; alloc < 2; alloc++) {
+      for (long i = 0; i < 10; i++) {
+        pool.putIfAbsent((alloc << 32) | i, p);
+      }
+    }
+    List<Page> removed = pool.removeAll(vPageNum -> (vPageNum >>> 32) == 1);
+    assertEquals(10, removed.size());
+    assertEquals(10, pool.size());
+    for (long i = 0; i < 10; i++) {
+      assertNotNull(pool.get(i));
+      assertNull(pool.get((1L << 32) | i));
+    }
+    fc.close();
+  }
+
+  @Test
+  public void TestBufferPoolConcurrentFetch() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    final FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    final Page p = new Page(fc, 0, 0);
+    final BufferPool pool = new BufferPool(16, 256);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final long alloc = t;
+      threads.add(new Thread(() -> {
+        for (int round = 0; round < 100; round++) {
+          for (long i = 0; i < 32; i++) {
+            long vPageNum = (alloc << 32) | i;
+            if (pool.get(vPageNum) == null) {
+              pool.putIfAbsent(vPageNum, p);
+            }
+          }
+        }
+      }));
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    assertTrue(pool.size() <= 256);
+    assertEquals(8 * 100 * 32, totalHits(pool) + totalMisses(pool));
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAllocatorShardStats() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    PageAllocator.setNumBufferPoolShards(8);
+    assertEquals(8, PageAllocator.getNumBufferPoolShards());
+
+    long hitsBefore = 0;
+    for (int i = 0; i < PageAllocator.getNumBufferPoolShards(); i++) {
+      hitsBefore += PageAllocator.getNumShardHits(i);
+    }
+    for (int i = 0; i < 10; i++) {
+      pA.allocPage();
+    }
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.fetchPage(i).getPageNum());
+    }
+    long hitsAfter = 0;
+    for (int i = 0; i < PageAllocator.getNumBufferPoolShards(); i++) {
+      hitsAfter += PageAllocator.getNumShardHits(i);
+    }
+    assertTrue(hitsAfter - hitsBefore >= 10);
+    pA.close();
+  }
+
+  @Test
+  public void TestPinnedPagesAreNotEvicted() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+      BufferPool pool = new BufferPool(1, 4, type);
+      Page[] pinned = new Page[3];
+      for (int i = 0; i < pinned.length; i++) {
+        pinned[i] = new Page(fc, i, i);
+        pool.putIfAbsent(i, pinned[i]);
+        assertTrue(pinned[i].pin());
+      }
+      for (long i = 3; i < 100; i++) {
+        pool.putIfAbsent(i, new Page(fc, 3, 3));
+      }
+      for (int i = 0; i < pinned.length; i++) {
+        assertSame(pinned[i], pool.get(i));
+        pinned[i].unpin();
+      }
+    }
+    fc.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestAllPagesPinned() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    BufferPool pool = new BufferPool(1, 2);
+    for (long i = 0; i < 2; i++) {
+      Page p = new Page(fc, 0, 0);
+      pool.putIfAbsent(i, p);
+      p.pin();
+    }
+    pool.putIfAbsent(2L, new Page(fc, 0, 0));
+  }
+
+  @Test
+  public void TestEvictedPageCannotBePinned() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    BufferPool pool = new BufferPool(1, 1);
+    Page evicted = new Page(fc, 0, 0);
+    pool.putIfAbsent(0L, evicted);
+    pool.putIfAbsent(1L, new Page(fc, 1, 1));
+
+    assertNull(pool.get(0L));
+    assertFalse(evicted.pin());
+    assertFalse(evicted.isPinned());
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAllocatorPinnedPages() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    int pageNum = pA.allocPage();
+    int pinnedBefore = PageAllocator.getNumPinnedPages();
+
+    Page p = pA.fetchPinnedPage(pageNum);
+    assertSame(p, pA.pinPage(p));
+    assertEquals(2, p.getPinCount());
+    assertEquals(pinnedBefore + 1, PageAllocator.getNumPinnedPages());
+
+    p.unpin();
+    p.unpin();
+    assertFalse(p.isPinned());
+    assertEquals(pinnedBefore, PageAllocator.getNumPinnedPages());
+    pA.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void TestUnpinUnpinnedPage() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    new Page(fc, 0, 0).unpin();
+  }
+
+  @Test
+  public void TestBufferPoolResize() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+      BufferPool pool = new BufferPool(4, 64, type);
+      Page pinned = new Page(fc, 0, 0);
+      pool.putIfAbsent(0L, pinned);
+      pinned.pin();
+      for (long i = 1; i < 1000; i++) {
+        pool.putIfAbsent(i, new Page(fc, 0, 0));
+      }
+      assertEquals(64, pool.size());
+
+      pool.setCapacity(8);
+      assertEquals(8, pool.getCapacity());
+      assertEquals(8, pool.size());
+      assertSame(pinned, pool.get(0L));
+
+      pool.setCapacity(128);
+      for (long i = 1000; i < 2000; i++) {
+        pool.putIfAbsent(i, new Page(fc, 0, 0));
+        assertTrue(pool.size() <= 128);
+      }
+      assertEquals(128, pool.size());
+      assertSame(pinned, pool.get(0L));
+      pinned.unpin();
+    }
+    fc.close();
+  }
+
+  @Test
+  public void TestBufferPoolDrainTo() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    for (EvictionPolicy.Type type : EvictionPolicy.Type.values()) {
+      BufferPool oldPool = new BufferPool(4, 64, type);
+      Page[] pages = new Page[32];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = new Page(fc, i, i);
+        oldPool.putIfAbsent(i, pages[i]);
+        assertTrue(pages[i].pin());
+      }
+      pages[5].writeInt(0, 186);
+
+      // The new pool is smaller and every page is pinned, but nothing fails,
+      // and nothing is flushed or evicted.
+      BufferPool newPool = new BufferPool(3, 8, type);
+      oldPool.drainTo(newPool);
+      assertEquals(0, oldPool.size());
+      assertEquals(32, newPool.size());
+      for (int i = 0; i < pages.length; i++) {
+        assertSame(pages[i], newPool.get(i));
+      }
+      assertTrue(pages[5].isDirty());
+
+      // A fetch that still goes through the old pool finds the moved page.
+      assertSame(pages[7], oldPool.get(7));
+      assertSame(pages[7], oldPool.putIfAbsent(7, new Page(fc, 7, 7)));
+      assertSame(pages[8], oldPool.remove(8));
+      assertNull(newPool.get(8));
+
+      // Once unpinned, the shards evict down to their share.
+      for (Page page : pages) {
+        page.unpin();
+      }
+      for (long i = 100; i < 200; i++) {
+        oldPool.putIfAbsent(i, new Page(fc, 0, 0));
+      }
+      assertEquals(8, newPool.size());
+    }
+    fc.close();
+  }
+
+  @Test
+  public void TestFlushEvictionCandidates() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    BufferPool pool = new BufferPool(1, 8);
+    Page[] pages = new Page[8];
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = new Page(fc, i, i);
+      pool.putIfAbsent(i, pages[i]);
+      pages[i].writeInt(0, i);
+    }
+
+    // Only the two least recently used pages are cleaned.
+    assertEquals(2, pool.flushEvictionCandidates(2));
+    assertFalse(pages[0].isDirty());
+    assertFalse(pages[1].isDirty());
+    assertTrue(pages[2].isDirty());
+    assertEquals(0, pool.flushEvictionCandidates(2));
+
+    pool.putIfAbsent(8L, new Page(fc, 8, 8));
+    pool.putIfAbsent(9L, new Page(fc, 9, 9));
+    assertEquals(0, pool.getNumDirtyEvictions(0));
+    pool.putIfAbsent(10L, new Page(fc, 10, 10));
+    assertEquals(1, pool.getNumDirtyEvictions(0));
+    assertEquals(2, pool.getNumBackgroundFlushes(0));
+    fc.close();
+  }
+
+  @Test(timeout=5000)
+  public void TestEvictionFlushesWithoutShardLock() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    BufferPool pool = new BufferPool(1, 2);
+    CountDownLatch flushing = new CountDownLatch(1);
+    CountDownLatch removed = new CountDownLatch(1);
+    Page slow = new Page(fc, 0, 0) {
+      @Override
+      public void flush() {
+        flushing.countDown();
+        try {
+          removed.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        super.flush();
+      }
+    };
+    pool.putIfAbsent(0L, slow);
+    slow.writeInt(0, 186);
+    pool.putIfAbsent(1L, new Page(fc, 1, 1));
+
+    Thread evictor = new Thread(() -> pool.putIfAbsent(2L, new Page(fc, 2, 2)));
+    evictor.start();
+    flushing.await();
+    // The shard stays usable while the dirty victim is written back.
+    assertNotNull(pool.remove(1L));
+    removed.countDown();
+    evictor.join();
+
+    assertFalse(slow.isDirty());
+    assertNotNull(pool.get(2L));
+    assertEquals(1, pool.getNumDirtyEvictions(0));
+    fc.close();
+  }
+
+  @Test
+  public void TestBackgroundFlusher() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true);
+    List<Page> pages = new ArrayList<Page>();
+    for (int i = 0; i < 20; i++) {
+      Page p = pA.fetchPage(pA.allocPage());
+      p.writeInt(0, i);
+      pages.add(p);
+    }
+    long flushesBefore = PageAllocator.getNumBackgroundFlushes();
+
+    PageAllocator.startBackgroundFlusher(10, PageAllocator.getBufferPoolSize());
+    try {
+      // A page reads as clean just before its flush is counted, so wait for
+      // both.
+      for (int i = 0; i < 200 && (pages.stream().anyMatch(Page::isDirty)
+           || PageAllocator.getNumBackgroundFlushes() - flushesBefore < 20); i++) {
+        Thread.sleep(10);
+      }
+    } finally {
+      PageAllocator.stopBackgroundFlusher();
+    }
+    for (Page p : pages) {
+      assertFalse(p.isDirty());
+    }
+    assertTrue(PageAllocator.getNumBackgroundFlushes() - flushesBefore >= 20);
+    pA.close();
+  }
+}
@@ -0,0 +1,254 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestEvictionPolicy {
+  // The "index" lives in allocator 1 and the scanned table in allocator 2.
+  private static final long indexAlloc = 1L << 32;
+  private static final long tableAlloc = 2L << 32;
+  private static final int numInnerPages = 4;
+  private static final int numLeafPages = 16;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Page newPage() throws IOException {
+    File tempFile = tempFolder.newFile();
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    return new Page(fc, 0, 0);
+  }
+
+  @Test
+  public void TestLRUPolicyEvictsLeastRecentlyUsed() throws IOException {
+    Page p = newPage();
+    EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Type.LRU, 3);
+    Frame[] frames = new Frame[3];
+    for (int i = 0; i < 3; i++) {
+      frames[i] = new Frame(i, p);
+      policy.add(frames[i]);
+    }
+    policy.recordAccess(frames[0]);
+
+    assertSame(frames[1], policy.evict());
+    assertSame(frames[2], policy.evict());
+    assertSame(frames[0], policy.evict());
+    assertNull(policy.evict());
+  }
+
+  @Test
+  public void TestClockPolicySecondChance() throws IOException {
+    Page p = newPage();
+    EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Type.CLOCK, 3);
+    Frame[] frames = new Frame[3];
+    for (int i = 0; i < 3; i++) {
+      frames[i] = new Frame(i, p);
+      policy.add(frames[i]);
+    }
+
+    // Every frame starts out referenced, so the first sweep clears all of the
+    // bits and the hand comes back around to frame 0.
+    assertSame(frames[0], policy.evict());
+
+    // Frame 1 is referenced again and gets a second chance.
+    policy.recordAccess(frames[1]);
+    assertSame(frames[2], policy.evict());
+    assertSame(frames[1], policy.evict());
+    assertNull(policy.evict());
+  }
+
+  @Test
+  public void TestClockPolicyReusesSlots() throws IOException {
+    Page p = newPage();
+    EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Type.CLOCK, 2);
+    Frame a = new Frame(0, p);
+    Frame b = new Frame(1, p);
+    policy.add(a);
+    policy.add(b);
+    policy.remove(a);
+
+    Frame c = new Frame(2, p);
+    policy.add(c);
+    Frame first = policy.evict();
+    Frame second = policy.evict();
+    assertTrue((first == b && second == c) || (first == c && second == b));
+    assertNull(policy.evict());
+  }
+
+  @Test
+  public void TestBufferPoolWithClock() throws IOException {
+    Page p = newPage();
+    BufferPool pool = new BufferPool(4, 16, EvictionPolicy.Type.CLOCK);
+    for (long i = 0; i < 1000; i++) {
+      assertNull(pool.putIfAbsent(i, p));
+      assertSame(p, pool.get(i));
+      assertTrue(pool.size() <= 16);
+    }
+    for (long i = 1000 - 16; i < 1000; i++) {
+      pool.remove(i);
+    }
+    for (long i = 0; i < 16; i++) {
+      assertNull(pool.putIfAbsent(i + 2000, p));
+    }
+  }
+
+  @Test
+  public void TestTwoQueuePolicyScanStaysProbationary() throws IOException {
+    Page p = newPage();
+    EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Type.TWO_QUEUE, 4);
+    Frame hot = new Frame(100, p);
+    policy.add(hot);
+
+    // A scan reads each of its pages a few times in a row. None of those hits
+    // should promote anything.
+    Frame[] scan = new Frame[8];
+    for (int i = 0; i < scan.length; i++) {
+      scan[i] = new Frame(i, p);
+      policy.add(scan[i]);
+      policy.recordAccess(scan[i]);
+      policy.recordAccess(scan[i]);
+    }
+
+    // The hot page is hit again long after it came in, so it is protected and
+    // outlives every scan page.
+    policy.recordAccess(hot);
+    for (int i = 0; i < scan.length; i++) {
+      assertSame(scan[i], policy.evict());
+    }
+    assertSame(hot, policy.evict());
+    assertNull(policy.evict());
+  }
+
+  @Test
+  public void TestTwoQueuePolicyGhostHitIsProtected() throws IOException {
+    Page p = newPage();
+    EvictionPolicy policy = EvictionPolicy.create(EvictionPolicy.Type.TWO_QUEUE, 4);
+    Frame first = new Frame(0, p);
+    policy.add(first);
+    policy.add(new Frame(1, p));
+    assertSame(first, policy.evict());
+
+    // Page 0 comes back while its number is still remembered, so it skips the
+    // probationary queue.
+    Frame again = new Frame(0, p);
+    policy.add(again);
+    Frame other = new Frame(2, p);
+    policy.add(other);
+    assertNotSame(again, policy.evict());
+    assertNotSame(again, policy.evict());
+    assertSame(again, policy.evict());
+  }
+
+  /**
+   * Fetches vPageNum through pool the way PageAllocator does.
+   *
+   * @return true if the fetch was a hit
+   */
+  private static boolean fetch(BufferPool pool, long vPageNum, Page p) {
+    if (pool.get(vPageNum) != null) {
+      return true;
+    }
+    pool.putIfAbsent(vPageNum, p);
+    return false;
+  }
+
+  /**
+   * Fetches the pages of a root-to-leaf path of a small B+ tree.
+   *
+   * @return the number of those fetches that hit
+   */
+  private static int lookup(BufferPool pool, Random random, Page p) {
+    int hits = 0;
+    hits += fetch(pool, indexAlloc, p) ? 1 : 0;
+    hits += fetch(pool, indexAlloc | (1 + random.nextInt(numInnerPages)), p) ? 1 : 0;
+    hits += fetch(pool, indexAlloc | (1 + numInnerPages + random.nextInt(numLeafPages)), p) ? 1 : 0;
+    return hits;
+  }
+
+  /**
+   * Fills pool with a mix of lookups and point reads of random table pages.
+   */
+  private static void warmUp(BufferPool pool, Random random, Page p) {
+    for (int i = 0; i < 500; i++) {
+      lookup(pool, random, p);
+      fetch(pool, tableAlloc | (100000 + random.nextInt(10000)), p);
+    }
+  }
+
+  /**
+   * Runs lookups in between the pages of a full scan of a table much larger
+   * than the pool.
+   *
+   * @return the fraction of lookup fetches that hit
+   */
+  private static double hitRatioDuringScan(EvictionPolicy.Type type, Page p) {
+    BufferPool pool = new BufferPool(1, 64, type);
+    Random random = new Random(186);
+    warmUp(pool, random, p);
+
+    int hits = 0;
+    int fetches = 0;
+    for (int i = 0; i < 5000; i++) {
+      // Once for the bitmap, then once per record.
+      for (int j = 0; j < 3; j++) {
+        fetch(pool, tableAlloc | i, p);
+      }
+      if (i % 100 == 99) {
+        hits += lookup(pool, random, p);
+        fetches += 3;
+      }
+    }
+    return (double) hits / fetches;
+  }
+
+  @Test
+  public void TestTwoQueueKeepsIndexPagesDuringScan() throws IOException {
+    Page p = newPage();
+    double lruRatio = hitRatioDuringScan(EvictionPolicy.Type.LRU, p);
+    double twoQueueRatio = hitRatioDuringScan(EvictionPolicy.Type.TWO_QUEUE, p);
+
+    assertTrue(lruRatio < 0.5);
+    assertTrue(twoQueueRatio > 0.9);
+  }
+
+  @Test
+  public void TestTwoQueueKeepsIndexPagesDuringConcurrentScan() throws Exception {
+    final Page p = newPage();
+    final BufferPool pool = new BufferPool(4, 256, EvictionPolicy.Type.TWO_QUEUE);
+    final Random random = new Random(186);
+    warmUp(pool, random, p);
+
+    Thread scan = new Thread(() -> {
+      for (int i = 0; i < 20000; i++) {
+        for (int j = 0; j < 3; j++) {
+          fetch(pool, tableAlloc | i, p);
+        }
+      }
+    });
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong fetches = new AtomicLong();
+    Thread lookups = new Thread(() -> {
+      while (scan.isAlive()) {
+        hits.addAndGet(lookup(pool, random, p));
+        fetches.addAndGet(3);
+        Thread.yield();
+      }
+    });
+    scan.start();
+    lookups.start();
+    scan.join();
+    lookups.join();
+
+    assertTrue(fetches.get() > 0);
+    assertTrue((double) hits.get() / fetches.get() > 0.9);
+  }
+}
@@ -0,0 +1,123 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+public class TestIOStats {
+  private final String fName = "TestIOStats.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void TestIOStatsPerAllocator() throws IOException {
+    File one = tempFolder.newFile(fName);
+    File two = tempFolder.newFile(fName + "2");
+    PageAllocator pA1 = new PageAllocator(one.getAbsolutePath(), true);
+    PageAllocator pA2 = new PageAllocator(two.getAbsolutePath(), true);
+
+    IOStats.Snapshot before1 = pA1.getIOStats().snapshot();
+    IOStats.Snapshot before2 = pA2.getIOStats().snapshot();
+    int pageNum = pA1.allocPage();
+    IOStats.Snapshot allocated = pA1.getIOStats().snapshot();
+    for (int i = 0; i < 10; i++) {
+      pA1.fetchPage(pageNum);
+    }
+
+    IOStats.Snapshot io1 = pA1.getIOStats().snapshot().minus(before1);
+    IOStats.Snapshot io2 = pA2.getIOStats().snapshot().minus(before2);
+    // The page stays in the buffer pool after allocPage.
+    IOStats.Snapshot fetched = pA1.getIOStats().snapshot().minus(allocated);
+    assertEquals(10, fetched.getNumFetches());
+    assertEquals(0, fetched.getNumMisses());
+    assertTrue(io1.getNumMisses() > 0);
+    assertEquals(io1.getNumMisses() * Page.pageSize, io1.getNumBytesMapped());
+    assertEquals(0, io2.getNumFetches());
+    assertEquals(0, io2.getNumMisses());
+
+    pA1.close();
+    pA2.close();
+  }
+
+  @Test
+  public void TestIOStatsCountsFlushes() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, PageStore.Type.PREAD);
+    Page p = pA.fetchPage(pA.allocPage());
+
+    long flushesBefore = pA.getIOStats().snapshot().getNumFlushes();
+    p.writeInt(0, 186);
+    p.flush();
+    p.flush();
+    assertEquals(flushesBefore + 1, pA.getIOStats().snapshot().getNumFlushes());
+
+    pA.close();
+  }
+
+  @Test
+  public void TestIOStatsTrackScopes() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true);
+    int pageNum = pA.allocPage();
+
+    IOStats outer = new IOStats();
+    IOStats inner = new IOStats();
+    try (IOStats.Scope outerScope = outer.track()) {
+      pA.fetchPage(pageNum);
+      try (IOStats.Scope innerScope = inner.track()) {
+        pA.fetchPage(pageNum);
+        // Tracking the same thread twice doesn't count twice.
+        try (IOStats.Scope again = outer.track()) {
+          pA.fetchPage(pageNum);
+        }
+      }
+      pA.fetchPage(pageNum);
+    }
+    pA.fetchPage(pageNum);
+
+    assertEquals(4, outer.snapshot().getNumFetches());
+    assertEquals(2, inner.snapshot().getNumFetches());
+
+    pA.close();
+  }
+
+  @Test
+  public void TestIOStatsTrackIterator() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true);
+    final int pageNum = pA.allocPage();
+
+    IOStats stats = new IOStats();
+    Iterator<Integer> iter = stats.track(Arrays.asList(1, 2, 3).iterator());
+    while (iter.hasNext()) {
+      iter.next();
+      pA.fetchPage(pageNum);
+    }
+    assertEquals(0, stats.snapshot().getNumFetches());
+
+    iter = stats.track(new Iterator<Integer>() {
+      private int i = 0;
+
+      public boolean hasNext() {
+        return i < 3;
+      }
+
+      public Integer next() {
+        return pA.fetchPage(pageNum).readInt(0) + i++;
+      }
+    });
+    while (iter.hasNext()) {
+      iter.next();
+    }
+    assertEquals(3, stats.snapshot().getNumFetches());
+
+    pA.close();
+  }
+}
@@ -142,4 +142,50 @@ public class TestPage {
     fc.close();
   }
 
+  @Test
+  public void TestPageDirtyFlag() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    assertFalse(p.isDirty());
+
+    p.readBytes();
+    p.readInt(0);
+    Page.Access access = p.readAccess();
+    access.getByteBuffer().get();
+    access.close();
+    assertFalse(p.isDirty());
+
+    p.writeInt(0, 186);
+    assertTrue(p.isDirty());
+    long missesBefore = PageAllocator.getNumCacheMisses();
+    p.flush();
+    assertFalse(p.isDirty());
+    assertEquals(missesBefore + 1, PageAllocator.getNumCacheMisses());
+
+    // Flushing a clean page doesn't force it.
+    p.flush();
+    assertEquals(missesBefore + 1, PageAllocator.getNumCacheMisses());
+
+    p.access().close();
+    assertTrue(p.isDirty());
+    access = p.readAccess();
+    assertEquals(186, access.getByteBuffer().getInt());
+    access.close();
+    fc.close();
+  }
+
+  @Test(expected = java.nio.ReadOnlyBufferException.class)
+  public void TestPageReadOnlyAccess() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+    Page.Access access = p.readAccess();
+    try {
+      access.getByteBuffer().put((byte) 1);
+    } finally {
+      access.close();
+      fc.close();
+    }
+  }
 }
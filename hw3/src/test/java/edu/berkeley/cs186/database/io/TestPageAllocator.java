@@ -10,6 +10,7 @@ import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.io.File;
 import java.util.Iterator;
 import java.util.List;
@@ -370,6 +371,68 @@ public class TestPageAllocator {
     pA.close();
   }
 
+  @Test
+  public void TestPageAllocatorIteratorGapAcrossHeaders() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    for (int i = 0; i < 9000; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    for (int i = 0; i < 9000; i++) {
+      if (i != 3 && i != 8500) {
+        assertTrue(pA.freePage(i));
+      }
+    }
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    Iterator<Page> pI = pA.iterator();
+    assertEquals(3, pI.next().getPageNum());
+    assertEquals(8500, pI.next().getPageNum());
+    assertFalse(pI.hasNext());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorAllocExtent() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, 42);
+    }
+    assertTrue(pA.freePage(3));
+    assertTrue(pA.freePage(5));
+    assertTrue(pA.freePage(6));
+
+    // The extent doesn't fit in the holes left by the freed pages, and the
+    // reused page 3 comes back zeroed.
+    assertEquals(10, pA.allocExtent(5));
+    assertEquals(5, pA.allocExtent(2));
+    assertEquals(3, pA.allocExtent(1));
+    assertEquals(0, pA.fetchPage(3).readInt(0));
+    assertEquals(15, pA.getNumPages());
+    assertEquals(15, pA.allocPage());
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(byteEstimate(16), fc.size());
+    fc.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false);
+    Iterator<Page> pI = pA.iterator();
+    for (int i = 0; i < 16; i++) {
+      assertEquals(i, pI.next().getPageNum());
+    }
+    assertFalse(pI.hasNext());
+
+    // An extent never spans two header pages.
+    assertEquals(Page.pageSize, pA.allocExtent(Page.pageSize - 15));
+    pA.close();
+  }
+
   @Test
   public void TestPageAllocatorMultiPageAlloc() throws IOException, FileNotFoundException {
     List<PageAllocator> allocs = new ArrayList<PageAllocator>();
@@ -438,5 +501,455 @@ public class TestPageAllocator {
     }
   }
 
+  @Test
+  public void TestSegmentMappedFormat() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator.setSegmentSize(1 << 20);
+    try {
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+      for (int i = 0; i < 600; i++) {
+        assertEquals(i, pA.allocPage());
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      assertTrue(pA.freePage(7));
+      pA.close();
+      assertTrue(tempFile.length() >= byteEstimate(599));
+
+      // Segment-mapped files can be read back page by page, and vice versa.
+      PageAllocator.setSegmentSize(0);
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+      assertEquals(599, pA.getNumPages());
+      for (int i = 0; i < 600; i++) {
+        if (i != 7) {
+          assertEquals(i, pA.fetchPage(i).readInt(0));
+        }
+      }
+      pA.fetchPage(8).writeInt(0, -8);
+      pA.close();
+
+      PageAllocator.setSegmentSize(1 << 20);
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+      assertEquals(-8, pA.fetchPage(8).readInt(0));
+      assertEquals(7, pA.allocPage());
+      pA.close();
+    } finally {
+      PageAllocator.setSegmentSize(0);
+    }
+  }
+
+  /** Fetches pages 1 to numPages - 1 of pA until page has been evicted. */
+  private static void evict(PageAllocator pA, Page page, int numPages) {
+    for (int i = 1; i < numPages && page.pin(); i++) {
+      page.unpin();
+      pA.fetchPage(i);
+    }
+    assertFalse(page.pin());
+  }
+
+  @Test
+  public void TestPreadPageStore() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    for (boolean durable : new boolean[] {true, false}) {
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, durable, PageStore.Type.PREAD);
+      assertEquals(PageStore.Type.PREAD, pA.getPageStoreType());
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, pA.allocPage());
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      assertTrue(pA.freePage(7));
+      assertEquals(100, pA.allocExtent(10));
+      pA.fetchPage(105).writeInt(0, 105);
+      pA.close();
+
+      // Files written through either store can be read through the other.
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, durable);
+      assertEquals(109, pA.getNumPages());
+      for (int i = 0; i < 100; i++) {
+        if (i != 7) {
+          assertEquals(i, pA.fetchPage(i).readInt(0));
+        }
+      }
+      assertEquals(105, pA.fetchPage(105).readInt(0));
+      assertEquals(0, pA.fetchPage(106).readInt(0));
+      pA.fetchPage(8).writeInt(0, -8);
+      pA.close();
+
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, durable, PageStore.Type.PREAD);
+      assertEquals(-8, pA.fetchPage(8).readInt(0));
+      assertEquals(7, pA.allocPage());
+      assertEquals(0, pA.fetchPage(7).readInt(0));
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPreadPageWrittenAfterEviction() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    int oldSize = PageAllocator.getBufferPoolSize();
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, PageStore.Type.PREAD);
+    try {
+      for (int i = 0; i < 200; i++) {
+        assertEquals(i, pA.allocPage());
+      }
+      Page page = pA.fetchPage(0);
+      PageAllocator.setBufferPoolSize(PageAllocator.getNumBufferPoolShards());
+      evict(pA, page, 200);
+
+      // Fetching an evicted page that is still in use brings back the same
+      // Page, which can be pinned again.
+      assertSame(page, pA.fetchPage(0));
+      assertTrue(page.pin());
+      page.unpin();
+
+      // Writes to an evicted page are written back when the allocator closes.
+      evict(pA, page, 200);
+      page.writeInt(0, 42);
+      pA.close();
+    } finally {
+      PageAllocator.setBufferPoolSize(oldSize);
+    }
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(42, pA.fetchPage(0).readInt(0));
+    pA.close();
+  }
+
+  /**
+   * Pushes the pages other tests left in the buffer pool out of it, and
+   * unmaps every evicted page, so that live mappings can be compared with an
+   * exact baseline.
+   *
+   * @return the number of live mappings afterwards
+   */
+  private long quiesceMappings() throws IOException {
+    File tempFile = tempFolder.newFile();
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    try {
+      for (int i = 0; i < 2 * PageAllocator.getBufferPoolSize(); i++) {
+        pA.fetchPage(pA.allocPage());
+      }
+    } finally {
+      pA.close();
+    }
+    MappedPageStore.unmapRetired();
+    return PageAllocator.getNumLiveMappings();
+  }
 
+  @Test
+  public void TestEvictedPagesAreUnmapped() throws IOException {
+    int oldSize = PageAllocator.getBufferPoolSize();
+    try {
+      PageAllocator.setBufferPoolSize(64);
+      long before = quiesceMappings();
+      File tempFile = null;
+      for (int round = 0; round < 5; round++) {
+        tempFile = tempFolder.newFile(fName + round);
+        PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+        Page first;
+        try {
+          for (int i = 0; i < 256; i++) {
+            assertEquals(i, pA.allocPage());
+            pA.fetchPage(i).writeInt(0, i);
+          }
+          // The buffer pool, the pages waiting to be unmapped, and the master
+          // and header pages.
+          assertTrue(PageAllocator.getNumLiveMappings() - before <= 64 + 64 + 2);
+
+          // A page that was unmapped is mapped again when it is used.
+          first = pA.fetchPage(0);
+          for (int i = 1; i < 256; i++) {
+            pA.fetchPage(i);
+          }
+          assertEquals(0, first.readInt(0));
+          first.writeInt(0, -1);
+        } finally {
+          pA.close();
+        }
+        // Closing the allocator unmaps everything it mapped.
+        assertEquals(before, PageAllocator.getNumLiveMappings());
+
+        try {
+          first.readInt(0);
+          fail();
+        } catch (PageException e) {
+          // Pages of a closed allocator are unmapped for good.
+        }
+      }
+
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+      try {
+        assertEquals(-1, pA.fetchPage(0).readInt(0));
+        assertEquals(255, pA.fetchPage(255).readInt(0));
+      } finally {
+        pA.close();
+      }
+    } finally {
+      PageAllocator.setBufferPoolSize(oldSize);
+    }
+  }
+
+  @Test
+  public void TestOpenAccessKeepsPageMapped() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    int oldSize = PageAllocator.getBufferPoolSize();
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    try {
+      PageAllocator.setBufferPoolSize(64);
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, pA.allocPage());
+        pA.fetchPage(i).writeInt(0, i);
+      }
+      Page first = pA.fetchPage(0);
+      Page.Access access = first.readAccess();
+      ByteBuffer buf = access.getByteBuffer();
+      for (int i = 1; i < 1000; i++) {
+        pA.fetchPage(i);
+      }
+      // The evicted page is still mapped while the access is open.
+      assertEquals(0, buf.getInt(0));
+      access.close();
+      try {
+        access.getByteBuffer();
+        fail();
+      } catch (PageException e) {
+        // The buffer can't be used once the access is closed.
+      }
+      for (int i = 1; i < 1000; i++) {
+        pA.fetchPage(i);
+      }
+      // Unmapped by now, and mapped again to be read.
+      assertEquals(0, first.readInt(0));
+    } finally {
+      PageAllocator.setBufferPoolSize(oldSize);
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageAllocatorReusesFreedPages() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(5));
+    assertTrue(pA.freePage(3));
+    assertFalse(pA.freePage(3));
+    assertEquals(3, pA.allocPage());
+    assertTrue(pA.freePage(9));
+    pA.close();
+
+    // The free space the allocator kept in memory matches the file.
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(8, pA.getNumPages());
+    try {
+      pA.fetchPage(9);
+      fail();
+    } catch (PageException e) {
+      // page 9 was freed
+    }
+    assertEquals(5, pA.allocPage());
+    assertEquals(9, pA.allocPage());
+    assertEquals(10, pA.allocPage());
+    pA.close();
+  }
+
+  @Test
+  public void TestGroupCommit() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator.setGroupCommitInterval(60000);
+    try {
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true);
+      long missesBefore = PageAllocator.getNumCacheMisses();
+      for (int i = 0; i < 100; i++) {
+        pA.allocPage();
+      }
+      assertTrue(pA.freePage(50));
+      // Each allocPage maps its new page (and may flush an evicted one).
+      // Without group commit it would also force the master page and a header
+      // page every time.
+      long missesPerChange = (PageAllocator.getNumCacheMisses() - missesBefore) / 101;
+      assertTrue(missesPerChange < 3);
+
+      pA.sync();
+      pA.close();
+    } finally {
+      PageAllocator.setGroupCommitInterval(0);
+    }
+
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), false);
+    assertEquals(99, pA.getNumPages());
+    assertEquals(50, pA.allocPage());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageIteratorReadAhead() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 100; i++) {
+      pA.allocPage();
+    }
+    // Reopen so that none of the pages are cached.
+    pA.close();
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+
+    long prefetchesBefore = PageAllocator.getNumPrefetches();
+    long hitsBefore = PageAllocator.getNumPrefetchHits();
+    long wastedBefore = PageAllocator.getNumWastedPrefetches();
+    PageAllocator.setReadAhead(8);
+    try {
+      Iterator<Page> iter = pA.iterator();
+      for (int i = 0; i < 50; i++) {
+        assertEquals(i, iter.next().getPageNum());
+        // Give the prefetch threads a chance to run ahead of the scan.
+        Thread.sleep(2);
+      }
+      Thread.sleep(100);
+    } finally {
+      PageAllocator.setReadAhead(0);
+    }
+    pA.close();
+
+    long prefetches = PageAllocator.getNumPrefetches() - prefetchesBefore;
+    long hits = PageAllocator.getNumPrefetchHits() - hitsBefore;
+    long wasted = PageAllocator.getNumWastedPrefetches() - wastedBefore;
+    assertTrue(hits > 0);
+    // The pages read ahead of where the scan stopped were never used.
+    assertTrue(wasted > 0);
+    assertEquals(prefetches, hits + wasted);
+  }
+
+  @Test
+  public void TestPageChecksums() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    for (PageStore.Type type : PageStore.Type.values()) {
+      PageAllocator.setChecksums(true);
+      try {
+        PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, type);
+        assertTrue(pA.hasChecksums());
+        for (int i = 0; i < 3; i++) {
+          pA.fetchPage(pA.allocPage()).writeInt(0, 186 + i);
+        }
+        pA.close();
+      } finally {
+        PageAllocator.setChecksums(false);
+      }
+
+      // Intact pages read back fine, and the file keeps its checksums.
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, type);
+      assertTrue(pA.hasChecksums());
+      assertEquals(187, pA.fetchPage(1).readInt(0));
+      pA.close();
+
+      // Corrupt page 1, the second data block after the master and first
+      // header pages.
+      RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+      raf.seek(3L * Page.pageSize + 100);
+      raf.write(42);
+      raf.close();
+
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, type);
+      assertEquals(186, pA.fetchPage(0).readInt(0));
+      try {
+        pA.fetchPage(1);
+        fail("fetched a corrupt page of a " + type + " store");
+      } catch (PageException e) {
+        // expected
+      }
+      assertEquals(188, pA.fetchPage(2).readInt(0));
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageChecksumsAfterCrash() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator.setChecksums(true);
+    try {
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+      pA.fetchPage(pA.allocPage()).writeInt(0, 186);
+      pA.close();
+    } finally {
+      PageAllocator.setChecksums(false);
+    }
+
+    // A crash: the file is never closed, and the flush of a change to page 0
+    // forced its checksum but not the page itself. Only the durable pages of
+    // a PREAD store write their checksum strictly before the page.
+    PageAllocator crashed = new PageAllocator(tempFile.getAbsolutePath(), false, true,
+                                              PageStore.Type.PREAD);
+    Page page = crashed.fetchPage(0);
+    page.writeInt(0, 187);
+    page.flush();
+    RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+    raf.seek(2L * Page.pageSize);
+    raf.writeInt(186);
+    raf.close();
+
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), false, true,
+                                         PageStore.Type.PREAD);
+    assertEquals(186, pA.fetchPage(0).readInt(0));
+
+    // Another crash, which tears page 0: still reported as corruption.
+    raf = new RandomAccessFile(tempFile, "rw");
+    raf.seek(2L * Page.pageSize + 100);
+    raf.write(42);
+    raf.close();
+    PageAllocator torn = new PageAllocator(tempFile.getAbsolutePath(), false, true,
+                                           PageStore.Type.PREAD);
+    try {
+      torn.fetchPage(0);
+      fail("fetched a torn page after a crash");
+    } catch (PageException e) {
+      // expected
+    }
+    torn.close();
+    pA.close();
+    crashed.close();
+  }
+
+  @Test
+  public void TestUnorderedChecksumsAfterCrash() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    File crcFile = new File(tempFile.getAbsolutePath() + PageChecksums.suffix);
+    for (PageStore.Type type : PageStore.Type.values()) {
+      PageAllocator.setChecksums(true);
+      try {
+        PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, type);
+        pA.fetchPage(pA.allocPage()).writeInt(0, 186);
+        pA.close();
+      } finally {
+        PageAllocator.setChecksums(false);
+      }
+
+      // A crash: page 0 reaches the disk, but the checksum file is left as it
+      // was when the file was opened.
+      PageAllocator crashed = new PageAllocator(tempFile.getAbsolutePath(), false, false, type);
+      byte[] crc = Files.readAllBytes(crcFile.toPath());
+      Page page = crashed.fetchPage(0);
+      page.writeInt(0, 187);
+      page.flush();
+      Files.write(crcFile.toPath(), crc);
+
+      PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, type);
+      assertEquals(187, pA.fetchPage(0).readInt(0));
+      pA.close();
+      crashed.close();
+
+      // The block was re-stamped, so it is checked again from then on.
+      RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+      raf.seek(2L * Page.pageSize + 100);
+      raf.write(42);
+      raf.close();
+      pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, type);
+      try {
+        pA.fetchPage(0);
+        fail("fetched a corrupt page of a " + type + " store");
+      } catch (PageException e) {
+        // expected
+      }
+      pA.close();
+    }
+  }
 }
@@ -16,6 +16,9 @@ import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -245,6 +248,40 @@ public class TestJoinOperator {
     assertTrue(count == 165888);
   }
 
+  @Test(timeout=10000)
+  public void testOperatorIOStats() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath());
+    Database.Transaction transaction = d.beginTransaction();
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+    List<DataBox> values = TestUtils.createRecordWithAllTypes().getValues();
+
+    IOStats.Snapshot before = transaction.getIOStats().snapshot();
+    for (int i = 0; i < 100; i++) {
+      transaction.addRecord("leftTable", values);
+      transaction.addRecord("rightTable", values);
+    }
+    assertTrue(transaction.getIOStats().snapshot().minus(before).getNumFetches() >= 200);
+
+    QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+    QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+    QueryOperator joinOperator = new PNLJOperator(s1, s2, "int", "int", transaction);
+    Iterator<Record> outputIterator = joinOperator.execute();
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      outputIterator.next();
+      count++;
+    }
+    assertEquals(10000, count);
+
+    // The join iterates over its sources itself, so their I/O is counted
+    // in the join and not in the sources.
+    IOStats.Snapshot io = joinOperator.getIOStats().snapshot();
+    assertTrue(io.getNumFetches() > 0);
+    assertEquals(0, s1.getIOStats().snapshot().getNumFetches());
+  }
+
   @Test(timeout=5000)
   public void testSimpleSortMergeJoin() throws QueryPlanException, DatabaseException, IOException {
     TestSourceOperator sourceOperator = new TestSourceOperator();
@@ -442,4 +479,140 @@ public class TestJoinOperator {
 
   }
 
+  @Test(timeout=10000)
+  public void testBNLJPinsMemoryBudget() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 3);
+    Database.Transaction transaction = d.beginTransaction();
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+    for (int i = 0; i < 2 * 288; i++) {
+      List<DataBox> vals = TestUtils.createRecordWithAllTypesWithValue(i).getValues();
+      transaction.addRecord("leftTable", vals);
+      transaction.addRecord("rightTable", vals);
+    }
+    int pinnedBefore = PageAllocator.getNumPinnedPages();
+
+    QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+    QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+    JoinOperator joinOperator = new BNLJOperator(s1, s2, "int", "int", transaction);
+    Iterator<Record> outputIterator = joinOperator.iterator();
+    assertEquals(3, joinOperator.getNumPinnedPages());
+    assertEquals(pinnedBefore + 3, PageAllocator.getNumPinnedPages());
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      outputIterator.next();
+      count++;
+    }
+
+    assertEquals(2 * 288, count);
+    assertEquals(3, joinOperator.getMaxPinnedPages());
+    assertEquals(0, joinOperator.getNumPinnedPages());
+    assertEquals(pinnedBefore, PageAllocator.getNumPinnedPages());
+  }
+
+  @Test
+  public void testJoinReleasesPinsWhenStoppedEarly() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 3);
+    Database.Transaction transaction = d.beginTransaction();
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+    for (int i = 0; i < 2 * 288; i++) {
+      List<DataBox> vals = TestUtils.createRecordWithAllTypesWithValue(i).getValues();
+      transaction.addRecord("leftTable", vals);
+      transaction.addRecord("rightTable", vals);
+    }
+    int pinnedBefore = PageAllocator.getNumPinnedPages();
+
+    // Closing the operator releases the pins of an iterator stopped early.
+    for (int type = 0; type < 2; type++) {
+      QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+      QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+      JoinOperator joinOperator = type == 0
+          ? new BNLJOperator(s1, s2, "int", "int", transaction)
+          : new PNLJOperator(s1, s2, "int", "int", transaction);
+      Iterator<Record> outputIterator = joinOperator.iterator();
+      assertTrue(outputIterator.hasNext());
+      outputIterator.next();
+      assertTrue(joinOperator.getNumPinnedPages() > 0);
+      joinOperator.close();
+      assertEquals(0, joinOperator.getNumPinnedPages());
+      assertEquals(pinnedBefore, PageAllocator.getNumPinnedPages());
+    }
+
+    // Ending the transaction releases the pins of an abandoned iterator.
+    QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+    QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+    JoinOperator joinOperator = new BNLJOperator(s1, s2, "int", "int", transaction);
+    Iterator<Record> outputIterator = joinOperator.iterator();
+    assertTrue(outputIterator.hasNext());
+    outputIterator.next();
+    assertEquals(pinnedBefore + 3, PageAllocator.getNumPinnedPages());
+    transaction.end();
+    assertEquals(pinnedBefore, PageAllocator.getNumPinnedPages());
+  }
+
+  @Test
+  public void testJoinReleasesPinsOnRuntimeException() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 3);
+    Database.Transaction transaction = d.beginTransaction();
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+    for (int i = 0; i < 2 * 288; i++) {
+      List<DataBox> vals = TestUtils.createRecordWithAllTypesWithValue(i).getValues();
+      transaction.addRecord("leftTable", vals);
+      transaction.addRecord("rightTable", vals);
+    }
+    int pinnedBefore = PageAllocator.getNumPinnedPages();
+
+    // The next page pinned after the first ones fails right after it is
+    // pinned, halfway through moving to the next right page.
+    for (int type = 0; type < 2; type++) {
+      final int failAt = type == 0 ? 4 : 3;
+      QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+      QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+      JoinOperator joinOperator;
+      if (type == 0) {
+        joinOperator = new BNLJOperator(s1, s2, "int", "int", transaction) {
+          private int pins = 0;
+
+          @Override
+          public Page pinPage(String tableName, Page page) throws DatabaseException {
+            Page pinned = super.pinPage(tableName, page);
+            if (++pins == failAt) {
+              throw new IllegalStateException("pin " + pins);
+            }
+            return pinned;
+          }
+        };
+      } else {
+        joinOperator = new PNLJOperator(s1, s2, "int", "int", transaction) {
+          private int pins = 0;
+
+          @Override
+          public Page pinPage(String tableName, Page page) throws DatabaseException {
+            Page pinned = super.pinPage(tableName, page);
+            if (++pins == failAt) {
+              throw new IllegalStateException("pin " + pins);
+            }
+            return pinned;
+          }
+        };
+      }
+      Iterator<Record> outputIterator = joinOperator.iterator();
+      try {
+        while (outputIterator.hasNext()) {
+          outputIterator.next();
+        }
+        fail("the join didn't fail");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      assertEquals(0, joinOperator.getNumPinnedPages());
+      assertEquals(pinnedBefore, PageAllocator.getNumPinnedPages());
+    }
+    transaction.end();
+  }
 }
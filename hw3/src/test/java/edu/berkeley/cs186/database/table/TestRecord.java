@@ -48,6 +48,26 @@ public class TestRecord {
     }
   }
 
+  @Test
+  public void testToAndFromVariableLengthBytes() {
+    Schema s = new Schema(Arrays.asList("w", "x", "y", "z"),
+                          Arrays.asList(Type.stringType(10), Type.intType(),
+                                        Type.stringType(3), Type.boolType()));
+    Record r = new Record(Arrays.asList(
+      new StringDataBox("foo", 10),
+      new IntDataBox(42),
+      new StringDataBox("", 3),
+      new BoolDataBox(true)
+    ));
+
+    // 2 + 3 for "foo", 4 for 42, 2 + 0 for "", 1 for true.
+    byte[] bytes = r.toVariableLengthBytes(s);
+    assertEquals(12, bytes.length);
+    assertEquals(r, Record.fromVariableLengthBytes(ByteBuffer.wrap(bytes), s));
+    assertEquals(9, Record.minVariableLengthSize(s));
+    assertEquals(22, Record.maxVariableLengthSize(s));
+  }
+
   @Test
   public void testEquals() {
     Record a = new Record(Arrays.asList(new BoolDataBox(false)));
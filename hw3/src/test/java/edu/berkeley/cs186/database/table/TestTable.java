@@ -3,11 +3,13 @@ package edu.berkeley.cs186.database.table;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -23,10 +25,15 @@ import org.junit.runners.MethodSorters;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 
 @FixMethodOrder(MethodSorters.DEFAULT)
 public class TestTable {
@@ -479,4 +486,627 @@ public class TestTable {
     checkSequentialRecords(1, numRecords, 2, iter);
     assertFalse(iter.hasNext());
   }
+
+  @Test
+  public void testTableGrowsInExtents() throws DatabaseException {
+    int numPages = 100;
+    int numRecords = table.getNumRecordsPerPage() * numPages;
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      Record r = createRecordWithAllTypes(i);
+      rids.add(table.addRecord(r.getValues()));
+    }
+
+    // Records fill the pages in order, and growing in extents preallocates
+    // fewer pages than are in use.
+    for (int i = 0; i < numRecords; ++i) {
+      assertEquals(1 + i / table.getNumRecordsPerPage(), rids.get(i).getPageNum());
+    }
+    assertTrue(table.getNumDataPages() >= numPages);
+    assertTrue(table.getNumDataPages() < 2 * numPages);
+
+    // The empty pages of the last extent are still used after a reload.
+    int numDataPages = table.getNumDataPages();
+    table.close();
+    table = new Table(table.getName(), table.getFilename());
+    RecordId rid = table.addRecord(createRecordWithAllTypes(numRecords).getValues());
+    assertEquals(numPages + 1, rid.getPageNum());
+    assertEquals(numDataPages, table.getNumDataPages());
+    checkSequentialRecords(0, numRecords + 1, 1, table.iterator());
+  }
+
+  @Test
+  public void testConcurrentGetRecordDuringUpdates() throws Exception {
+    final Table pairs = createTestTable(TestUtils.createSchemaWithTwoInts(), "pairs");
+    final List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < pairs.getNumRecordsPerPage() * 2; ++i) {
+      rids.add(pairs.addRecord(Arrays.asList(new IntDataBox(i), new IntDataBox(i))));
+    }
+
+    // Every record always holds two equal ints, so a reader that sees
+    // different ones read a torn record.
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    Thread writer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 20000; ++i) {
+          List<DataBox> values = Arrays.asList(new IntDataBox(i), new IntDataBox(i));
+          pairs.updateRecord(values, rids.get(i % rids.size()));
+        }
+      } catch (Throwable t) {
+        failures.add(t);
+      }
+    });
+    List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 4; ++r) {
+      final int seed = r;
+      readers.add(new Thread(() -> {
+        try {
+          for (int i = 0; i < 20000; ++i) {
+            List<DataBox> values = pairs.getRecord(rids.get((i * 31 + seed) % rids.size())).getValues();
+            assertEquals(values.get(0), values.get(1));
+          }
+        } catch (Throwable t) {
+          failures.add(t);
+        }
+      }));
+    }
+
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    pairs.close();
+    assertEquals(new ArrayList<Throwable>(), failures);
+  }
+
+  @Test
+  public void testLoadTableFromSavedMetadata() throws DatabaseException {
+    int numRecords = table.getNumRecordsPerPage() * 3 + 42;
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecords; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    table.deleteRecord(rids.get(5));
+    table.deleteRecord(rids.get(table.getNumRecordsPerPage() * 2 + 7));
+    table.close();
+
+    File metadata = new File(table.getFilename() + Table.METADATA_EXTENSION);
+    assertTrue(metadata.exists());
+    table = new Table(table.getName(), table.getFilename());
+    assertEquals(numRecords - 2, table.getNumRecords());
+    // The holes are still filled first.
+    assertEquals(rids.get(5), table.addRecord(createRecordWithAllTypes(5).getValues()));
+    assertFalse(metadata.exists());
+    assertEquals(rids.get(table.getNumRecordsPerPage() * 2 + 7),
+                 table.addRecord(createRecordWithAllTypes(7).getValues()));
+    assertEquals(new RecordId(4, (short) 42), table.addRecord(createRecordWithAllTypes(0).getValues()));
+
+    // Without a clean close the metadata is rebuilt from the pages.
+    table.deleteRecord(rids.get(0));
+    table.getAllocator().close();
+    assertFalse(metadata.exists());
+    table = new Table(table.getName(), table.getFilename());
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(rids.get(0), table.addRecord(createRecordWithAllTypes(0).getValues()));
+  }
+
+  @Test
+  public void testAddRecords() throws DatabaseException {
+    int perPage = table.getNumRecordsPerPage();
+    List<RecordId> holes = new ArrayList<>();
+    for (int i = 0; i < perPage; ++i) {
+      RecordId rid = table.addRecord(createRecordWithAllTypes(i).getValues());
+      if (i % 3 == 0) {
+        holes.add(rid);
+      }
+    }
+    for (RecordId rid : holes) {
+      table.deleteRecord(rid);
+    }
+
+    // The holes are filled first, then new pages, as with addRecord.
+    List<List<DataBox>> rows = new ArrayList<>();
+    for (int i = 0; i < holes.size() + 2 * perPage; ++i) {
+      rows.add(createRecordWithAllTypes(1000 + i).getValues());
+    }
+    List<RecordId> rids = table.addRecords(rows.iterator());
+    assertEquals(rows.size(), rids.size());
+    assertEquals(holes, rids.subList(0, holes.size()));
+    assertEquals(new RecordId(2, (short) 0), rids.get(holes.size()));
+    assertEquals(new RecordId(3, (short) (perPage - 1)), rids.get(rids.size() - 1));
+    for (int i = 0; i < rows.size(); ++i) {
+      assertEquals(new Record(rows.get(i)), table.getRecord(rids.get(i)));
+    }
+    assertEquals(3 * perPage, table.getNumRecords());
+    assertEquals(new RecordId(4, (short) 0), table.addRecord(createRecordWithAllTypes(0).getValues()));
+  }
+
+  @Test
+  public void testAddRecordsRejectsBadBatch() throws DatabaseException {
+    List<List<DataBox>> rows = new ArrayList<>();
+    rows.add(createRecordWithAllTypes(0).getValues());
+    rows.add(createRecordWithAllTypes(1).getValues());
+    rows.add(Arrays.<DataBox>asList(new IntDataBox(2)));
+    rows.add(createRecordWithAllTypes(3).getValues());
+    try {
+      table.addRecords(rows.iterator());
+      assertTrue(false);
+    } catch (DatabaseException e) {
+      // Nothing is added, not even the rows before the bad one.
+    }
+    assertEquals(0, table.getNumRecords());
+    assertEquals(0, table.getNumDataPages());
+    assertEquals(new RecordId(1, (short) 0), table.addRecord(createRecordWithAllTypes(4).getValues()));
+  }
+
+  @Test
+  public void testSlottedTable() throws DatabaseException, IOException {
+    Schema strings = new Schema(Arrays.asList("i", "s"),
+                                Arrays.asList(Type.intType(), Type.stringType(200)));
+    File file = tempFolder.newFile("slotted" + Table.FILENAME_EXTENSION);
+    Table slotted = new Table("slotted", strings, file.getAbsolutePath(), PageFormat.Type.SLOTTED);
+    try {
+      // Short strings only take the space they need: many more than the 16
+      // records a BITMAP page holds fit on the first page.
+      List<RecordId> rids = new ArrayList<>();
+      for (int i = 0; i < 200; ++i) {
+        rids.add(slotted.addRecord(createRecordWithString(i, i % 10).getValues()));
+      }
+      assertEquals(16, Table.computeNumRecordsPerPage(Page.pageSize, strings));
+      assertEquals(1, rids.get(199).getPageNum());
+      for (int i = 0; i < 200; ++i) {
+        assertEquals(createRecordWithString(i, i % 10), slotted.getRecord(rids.get(i)));
+      }
+
+      // Records can shrink and grow in place, moving other records out of
+      // the way once the page has been compacted.
+      slotted.updateRecord(createRecordWithString(-1, 0).getValues(), rids.get(1));
+      slotted.updateRecord(createRecordWithString(-2, 150).getValues(), rids.get(2));
+      assertEquals(createRecordWithString(-1, 0), slotted.getRecord(rids.get(1)));
+      assertEquals(createRecordWithString(-2, 150), slotted.getRecord(rids.get(2)));
+
+      // Page 1 takes long records until it has no room for one, but a short
+      // record still goes in the room a deleted one left on it.
+      RecordId rid;
+      int numRecords = 200;
+      do {
+        rid = slotted.addRecord(createRecordWithString(-3, 200).getValues());
+        numRecords++;
+      } while (rid.getPageNum() == 1);
+      slotted.deleteRecord(rids.get(5));
+      rid = slotted.addRecord(createRecordWithString(5, 1).getValues());
+      assertEquals(rids.get(5), rid);
+      for (int i = 6; i < 30; ++i) {
+        slotted.deleteRecord(rids.get(i));
+      }
+      // The empty slots are reused, from the first.
+      for (int i = 6; i < 11; ++i) {
+        rid = slotted.addRecord(createRecordWithString(i, 0).getValues());
+        assertEquals(new RecordId(1, (short) i), rid);
+        rids.set(i, rid);
+      }
+      numRecords -= 19;
+      assertEquals(numRecords, slotted.getNumRecords());
+
+      // The format survives a reload, with or without the metadata file.
+      for (boolean metadata : new boolean[] {true, false}) {
+        slotted.close();
+        if (!metadata) {
+          new File(file.getAbsolutePath() + Table.METADATA_EXTENSION).delete();
+        }
+        slotted = new Table("slotted", file.getAbsolutePath());
+        assertEquals(PageFormat.Type.SLOTTED, slotted.getFormatType());
+        assertEquals(numRecords, slotted.getNumRecords());
+        assertEquals(createRecordWithString(5, 1), slotted.getRecord(rids.get(5)));
+        assertEquals(createRecordWithString(10, 0), slotted.getRecord(rids.get(10)));
+        int numScanned = 0;
+        for (Record record : slotted) {
+          numScanned++;
+        }
+        assertEquals(numRecords, numScanned);
+      }
+    } finally {
+      slotted.close();
+    }
+  }
+
+  @Test
+  public void testSlottedTableFillsPages() throws DatabaseException, IOException {
+    Schema strings = new Schema(Arrays.asList("i", "s"),
+                                Arrays.asList(Type.intType(), Type.stringType(200)));
+    File file = tempFolder.newFile("slotted" + Table.FILENAME_EXTENSION);
+    Table slotted = new Table("slotted", strings, file.getAbsolutePath(), PageFormat.Type.SLOTTED);
+    try {
+      List<RecordId> rids = new ArrayList<>();
+      for (int i = 0; i < 1000; ++i) {
+        rids.add(slotted.addRecord(createRecordWithString(i, 50).getValues()));
+      }
+      // 60 bytes per record and slot, and a page takes records until it has
+      // no room for the next one: 68 fit in the 4088 bytes after the header.
+      assertEquals(67, rids.lastIndexOf(new RecordId(1, (short) 67)));
+      assertEquals(1000 / 68 + 1, rids.get(999).getPageNum());
+
+      // A record that doesn't fit next to the others can't grow, and is left
+      // as it was.
+      try {
+        slotted.updateRecord(createRecordWithString(0, 200).getValues(), rids.get(0));
+        assertTrue(false);
+      } catch (DatabaseException e) {
+        // The page is too full.
+      }
+      assertEquals(createRecordWithString(0, 50), slotted.getRecord(rids.get(0)));
+
+      // A short record goes in the room a deleted one left on a full page,
+      // rather than on the last page.
+      slotted.deleteRecord(rids.get(5));
+      assertEquals(rids.get(5), slotted.addRecord(createRecordWithString(5, 10).getValues()));
+
+      // Emptying a page lets it fill again from the start.
+      for (int i = 0; i < 68; ++i) {
+        slotted.deleteRecord(rids.get(i));
+      }
+      for (int i = 0; i < 68; ++i) {
+        assertEquals(rids.get(i), slotted.addRecord(createRecordWithString(i, 50).getValues()));
+      }
+    } finally {
+      slotted.close();
+    }
+  }
+
+  @Test
+  public void testPaxTable() throws DatabaseException, IOException {
+    File file = tempFolder.newFile("pax" + Table.FILENAME_EXTENSION);
+    Table pax = new Table("pax", schema, file.getAbsolutePath(), PageFormat.Type.PAX);
+    try {
+      // PAX pages hold as many records as BITMAP pages, in the same slots.
+      int numRecordsPerPage = table.getNumRecordsPerPage();
+      assertEquals(numRecordsPerPage, pax.getNumRecordsPerPage());
+      List<RecordId> rids = new ArrayList<>();
+      for (int i = 0; i < numRecordsPerPage * 3; ++i) {
+        RecordId rid = pax.addRecord(createRecordWithAllTypes(i).getValues());
+        assertEquals(table.addRecord(createRecordWithAllTypes(i).getValues()), rid);
+        rids.add(rid);
+      }
+      for (int i = 0; i < rids.size(); ++i) {
+        assertEquals(createRecordWithAllTypes(i), pax.getRecord(rids.get(i)));
+      }
+
+      pax.updateRecord(createRecordWithAllTypes(-1).getValues(), rids.get(1));
+      assertEquals(createRecordWithAllTypes(-1), pax.getRecord(rids.get(1)));
+      assertEquals(createRecordWithAllTypes(2), pax.getRecord(rids.get(2)));
+      for (int i = 0; i < rids.size(); i += 2) {
+        pax.deleteRecord(rids.get(i));
+      }
+
+      pax.close();
+      pax = new Table("pax", file.getAbsolutePath());
+      assertEquals(PageFormat.Type.PAX, pax.getFormatType());
+      assertEquals(rids.size() / 2, pax.getNumRecords());
+      Iterator<Record> records = pax.iterator();
+      for (int i = 1; i < rids.size(); i += 2) {
+        assertTrue(records.hasNext());
+        assertEquals(createRecordWithAllTypes(i == 1 ? -1 : i), records.next());
+      }
+      assertFalse(records.hasNext());
+
+      // Only the requested fields come back, in the requested order.
+      Iterator<Record> columns = pax.columnIterator(3, 1);
+      for (int i = 1; i < rids.size(); i += 2) {
+        Record r = createRecordWithAllTypes(i == 1 ? -1 : i);
+        assertEquals(Arrays.asList(r.getValues().get(3), r.getValues().get(1)),
+                     columns.next().getValues());
+      }
+      assertFalse(columns.hasNext());
+    } finally {
+      pax.close();
+    }
+  }
+
+  @Test
+  public void testColumnIterator() throws DatabaseException {
+    // Three pages, the middle one empty, and every other record of the others.
+    int numRecordsPerPage = table.getNumRecordsPerPage();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecordsPerPage * 3; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    for (int i = 0; i < rids.size(); ++i) {
+      if (i % 2 == 0 || rids.get(i).getPageNum() == 2) {
+        table.deleteRecord(rids.get(i));
+      }
+    }
+
+    Iterator<Record> columns = table.columnIterator(1);
+    long sum = 0;
+    int numRecords = 0;
+    while (columns.hasNext()) {
+      List<DataBox> values = columns.next().getValues();
+      assertEquals(1, values.size());
+      sum += values.get(0).getInt();
+      numRecords++;
+    }
+    assertEquals(numRecordsPerPage, numRecords);
+    long expected = 0;
+    for (int i = 1; i < rids.size(); i += 2) {
+      expected += rids.get(i).getPageNum() == 2 ? 0 : i;
+    }
+    assertEquals(expected, sum);
+
+    try {
+      table.columnIterator(4);
+      assertTrue(false);
+    } catch (DatabaseException e) {
+      // The schema only has four fields.
+    }
+  }
+
+  @Test
+  public void testViewIterator() throws DatabaseException, IOException {
+    for (PageFormat.Type type : PageFormat.Type.values()) {
+      File file = tempFolder.newFile(type + Table.FILENAME_EXTENSION);
+      Table t = new Table(type.toString(), schema, file.getAbsolutePath(), type);
+      try {
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < t.getNumRecordsPerPage() * 3; ++i) {
+          Record r = createRecordWithAllTypes(i);
+          r.getValues().set(2, new StringDataBox(i % 2 == 0 ? "a" : "bcdef", 5));
+          rids.add(t.addRecord(r.getValues()));
+        }
+        for (int i = 0; i < rids.size(); i += 3) {
+          t.deleteRecord(rids.get(i));
+        }
+
+        Iterator<RecordView> views = t.viewIterator();
+        RecordView first = null;
+        byte[] bytes = new byte[5];
+        for (int i = 0; i < rids.size(); ++i) {
+          if (i % 3 == 0) {
+            continue;
+          }
+          assertTrue(views.hasNext());
+          RecordView view = views.next();
+          // The same view is moved from record to record.
+          first = first == null ? view : first;
+          assertTrue(first == view);
+
+          Record r = t.getRecord(rids.get(i));
+          assertEquals(r, view.toRecord());
+          assertEquals(rids.get(i), view.getRecordId());
+          assertEquals(r.getValues().get(0).getBool(), view.getBool(0));
+          assertEquals(i, view.getInt(1));
+          assertEquals(r.getValues().get(3).getFloat(), view.getFloat(3), 0);
+          assertEquals(5, view.getStringBytes(2, bytes));
+          assertEquals(i % 2 == 0 ? "a    " : "bcdef", new String(bytes, "UTF-8"));
+          assertEquals(r.getValues().get(2).getString(), view.getString(2));
+          for (int f = 0; f < r.getValues().size(); ++f) {
+            assertTrue(view.fieldEquals(f, r.getValues().get(f)));
+          }
+          assertFalse(view.fieldEquals(1, new IntDataBox(i + 1)));
+          assertFalse(view.fieldEquals(2, new StringDataBox(i % 2 == 0 ? "bcdef" : "a", 5)));
+          assertFalse(view.fieldEquals(2, new StringDataBox(i % 2 == 0 ? "a" : "bcdef", 6)));
+        }
+        assertFalse(views.hasNext());
+
+        try {
+          first.getInt(0);
+          assertTrue(false);
+        } catch (DataBoxException e) {
+          // Field 0 is a bool.
+        }
+      } finally {
+        t.close();
+      }
+    }
+  }
+
+  @Test
+  public void testClosedTablesReleaseMappings() throws DatabaseException, IOException {
+    Schema wide = new Schema(Arrays.asList("i", "s"),
+                             Arrays.asList(Type.intType(), Type.stringType(400)));
+    int oldSize = PageAllocator.getBufferPoolSize();
+    try {
+      PageAllocator.setBufferPoolSize(64);
+      long before = PageAllocator.getNumLiveMappings();
+      for (int round = 0; round < 5; ++round) {
+        File file = tempFolder.newFile("churn" + round + Table.FILENAME_EXTENSION);
+        Table t = new Table("churn" + round, wide, file.getAbsolutePath());
+        try {
+          // Eight records a page, so 256 pages, which is more than the pool.
+          for (int i = 0; i < 2048; ++i) {
+            t.addRecord(Arrays.<DataBox>asList(new IntDataBox(i), new StringDataBox("churn", 400)));
+          }
+          Iterator<RecordView> views = t.viewIterator();
+          int n = 0;
+          while (views.hasNext()) {
+            assertEquals(n++, views.next().getInt(0));
+          }
+          assertEquals(2048, n);
+        } finally {
+          t.close();
+        }
+        // Other tests' pages may have been evicted and unmapped meanwhile, but
+        // nothing of the closed table is still mapped.
+        assertTrue(PageAllocator.getNumLiveMappings() <= before);
+      }
+    } finally {
+      PageAllocator.setBufferPoolSize(oldSize);
+    }
+  }
+
+  @Test
+  public void testFilteredIteratorSkipsPages() throws DatabaseException {
+    // Ten pages of records, with field 1 growing from page to page.
+    int numRecordsPerPage = table.getNumRecordsPerPage();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecordsPerPage * 10; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    IntDataBox half = new IntDataBox(numRecordsPerPage / 2);
+
+    // Only the first page can hold records with field 1 < half.
+    IOStats.Snapshot before = table.getAllocator().getIOStats().snapshot();
+    Iterator<Record> records = table.filteredIterator(1, PredicateOperator.LESS_THAN, half);
+    for (int i = 0; i < numRecordsPerPage / 2; ++i) {
+      assertTrue(records.hasNext());
+      assertEquals(createRecordWithAllTypes(i), records.next());
+    }
+    assertFalse(records.hasNext());
+    IOStats.Snapshot io = table.getAllocator().getIOStats().snapshot().minus(before);
+    assertEquals(1, io.getNumFetches());
+
+    // Updates widen the range of their page, deletes don't narrow it.
+    table.updateRecord(createRecordWithAllTypes(-1).getValues(), rids.get(numRecordsPerPage * 5));
+    table.deleteRecord(rids.get(numRecordsPerPage * 5));
+    table.updateRecord(createRecordWithAllTypes(-2).getValues(), rids.get(numRecordsPerPage * 7));
+    before = table.getAllocator().getIOStats().snapshot();
+    List<Record> matches = new ArrayList<>();
+    records = table.filteredIterator(1, PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(0));
+    while (records.hasNext()) {
+      matches.add(records.next());
+    }
+    assertEquals(Arrays.asList(createRecordWithAllTypes(0), createRecordWithAllTypes(-2)), matches);
+    io = table.getAllocator().getIOStats().snapshot().minus(before);
+    assertEquals(3, io.getNumFetches());
+
+    // The zone map survives a reload, with or without the metadata file.
+    String filename = table.getFilename();
+    for (boolean metadata : new boolean[] {true, false}) {
+      table.close();
+      if (!metadata) {
+        new File(filename + Table.METADATA_EXTENSION).delete();
+      }
+      table = new Table(TABLENAME, filename);
+      before = table.getAllocator().getIOStats().snapshot();
+      int numMatches = 0;
+      records = table.filteredIterator(1, PredicateOperator.GREATER_THAN_EQUALS,
+                                       new IntDataBox(numRecordsPerPage * 9));
+      while (records.hasNext()) {
+        records.next();
+        numMatches++;
+      }
+      assertEquals(numRecordsPerPage, numMatches);
+      io = table.getAllocator().getIOStats().snapshot().minus(before);
+      assertEquals(1, io.getNumFetches());
+    }
+
+    try {
+      table.filteredIterator(1, PredicateOperator.EQUALS, new StringDataBox("1", 5));
+      assertTrue(false);
+    } catch (DatabaseException e) {
+      // Field 1 is an int.
+    }
+  }
+
+  @Test
+  public void testCompactPage() throws DatabaseException {
+    // Ten full pages, then keep every fourth record of pages 3 to 10.
+    int numRecordsPerPage = table.getNumRecordsPerPage();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecordsPerPage * 10; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    int numDataPages = table.getNumDataPages();
+    for (int i = numRecordsPerPage * 2; i < rids.size(); ++i) {
+      if (i % 4 != 0) {
+        table.deleteRecord(rids.get(i));
+        rids.set(i, null);
+      }
+    }
+
+    // Moves are reported with the record and both of its RecordIds.
+    List<RecordId> moved = new ArrayList<>();
+    Table.RecordMoveListener listener = (record, from, to) -> {
+      int i = record.getValues().get(1).getInt();
+      assertEquals(rids.get(i), from);
+      rids.set(i, to);
+      moved.add(to);
+    };
+    int numCompacted = 0;
+    while (table.compactPage(listener)) {
+      numCompacted++;
+    }
+    assertFalse(table.compactPage(listener));
+
+    // The last 6 pages moved into pages 3 and 4, and were freed.
+    assertEquals(6, numCompacted);
+    assertEquals(numRecordsPerPage * 6 / 4, moved.size());
+    assertEquals(numDataPages - 6, table.getNumDataPages());
+    assertEquals(numRecordsPerPage * 4, table.getNumRecords());
+    for (int i = 0; i < rids.size(); ++i) {
+      if (rids.get(i) != null) {
+        assertTrue(rids.get(i).getPageNum() <= 4);
+        assertEquals(createRecordWithAllTypes(i), table.getRecord(rids.get(i)));
+      }
+    }
+    int numRecords = 0;
+    for (Record record : table) {
+      numRecords++;
+    }
+    assertEquals(numRecordsPerPage * 4, numRecords);
+
+    // New records go to the room left, and then to new pages.
+    for (int i = 0; i < numRecordsPerPage * 2; ++i) {
+      table.addRecord(createRecordWithAllTypes(i).getValues());
+    }
+    assertEquals(numRecordsPerPage * 6, table.getNumRecords());
+  }
+
+  @Test
+  public void testCompactPageUndoesFailedMove() throws DatabaseException {
+    int numRecordsPerPage = table.getNumRecordsPerPage();
+    List<RecordId> rids = new ArrayList<>();
+    for (int i = 0; i < numRecordsPerPage * 4; ++i) {
+      rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+    }
+    for (int i = numRecordsPerPage; i < rids.size(); ++i) {
+      if (i % 4 != 0) {
+        table.deleteRecord(rids.get(i));
+        rids.set(i, null);
+      }
+    }
+    long numRecords = table.getNumRecords();
+
+    // The third move fails, as if an index couldn't be updated.
+    List<RecordId> moved = new ArrayList<>();
+    Table.RecordMoveListener listener = (record, from, to) -> {
+      if (moved.size() == 2) {
+        throw new DatabaseException("index update failed");
+      }
+      rids.set(record.getValues().get(1).getInt(), to);
+      moved.add(to);
+    };
+    try {
+      table.compactPage(listener);
+      fail("compactPage swallowed the listener's exception");
+    } catch (DatabaseException e) {
+      // expected
+    }
+
+    // The two moves that were reported stuck, and the failed one was undone.
+    assertEquals(numRecords, table.getNumRecords());
+    int numFound = 0;
+    for (int i = 0; i < rids.size(); ++i) {
+      if (rids.get(i) != null) {
+        assertEquals(createRecordWithAllTypes(i), table.getRecord(rids.get(i)));
+        numFound++;
+      }
+    }
+    assertEquals(numRecords, numFound);
+    numFound = 0;
+    for (Record record : table) {
+      numFound++;
+    }
+    assertEquals(numRecords, numFound);
+  }
+
+  private static Record createRecordWithString(int i, int length) {
+    char[] chars = new char[length];
+    Arrays.fill(chars, 'x');
+    return new Record(Arrays.<DataBox>asList(new IntDataBox(i),
+                                            new StringDataBox(new String(chars), 200)));
+  }
 }